@@ -0,0 +1,53 @@
+package com.github.dbadia.sqrl.server;
+
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+import com.github.dbadia.sqrl.server.enums.SqrlAuthenticationStatus;
+import com.github.dbadia.sqrl.server.persistence.SqrlIdentity;
+
+/**
+ * Non-blocking companion to {@link SqrlPersistence}. Since each {@link SqrlPersistence} instance is a single
+ * transaction, work is submitted as a unit which runs in a transaction of its own and the result is delivered via a
+ * {@link CompletionStage}
+ *
+ * @author Dave Badia
+ *
+ */
+public interface SqrlAsyncPersistence {
+
+	/**
+	 * Runs the given work in a new persistence transaction which is committed if the work returns normally and rolled
+	 * back otherwise
+	 *
+	 * @param work
+	 *            the persistence calls to make, the {@link SqrlPersistence} passed in must not be closed by the work
+	 * @return a stage which completes with the result of the work, or exceptionally if the work failed or could not
+	 *         be scheduled
+	 */
+	public <T> CompletionStage<T> executeInTransaction(Function<SqrlPersistence, T> work);
+
+	/**
+	 * @see SqrlPersistence#fetchSqrlCorrelatorStatus(String)
+	 */
+	public default CompletionStage<SqrlAuthenticationStatus> fetchSqrlCorrelatorStatus(final String correlator) {
+		return executeInTransaction(sqrlPersistence -> sqrlPersistence.fetchSqrlCorrelatorStatus(correlator));
+	}
+
+	/**
+	 * @see SqrlPersistence#fetchSqrlCorrelatorStatusUpdates(Map)
+	 */
+	public default CompletionStage<Map<String, SqrlAuthenticationStatus>> fetchSqrlCorrelatorStatusUpdates(
+			final Map<String, SqrlAuthenticationStatus> correlatorToCurrentStatusTable) {
+		return executeInTransaction(
+				sqrlPersistence -> sqrlPersistence.fetchSqrlCorrelatorStatusUpdates(correlatorToCurrentStatusTable));
+	}
+
+	/**
+	 * @see SqrlPersistence#fetchSqrlIdentityByUserXref(String)
+	 */
+	public default CompletionStage<SqrlIdentity> fetchSqrlIdentityByUserXref(final String userXref) {
+		return executeInTransaction(sqrlPersistence -> sqrlPersistence.fetchSqrlIdentityByUserXref(userXref));
+	}
+}
@@ -10,8 +10,10 @@ import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.XmlTransient;
 
 import com.github.dbadia.sqrl.server.backchannel.SqrlNutToken;
+import com.github.dbadia.sqrl.server.enums.SqrlExecutionMode;
 import com.github.dbadia.sqrl.server.enums.SqrlQrCodeImageFormat;
 import com.github.dbadia.sqrl.server.persistence.SqrlJpaPersistenceFactory;
+import com.github.dbadia.sqrl.server.persistence.SqrlPersistenceCleanupTask;
 
 // @formatter:off
 /**
@@ -46,6 +48,42 @@ public class SqrlConfig {
 
 	private long nutValidityInMillis = nutValidityInSeconds * 1000;
 
+	/**
+	 * The format of the nuts we issue and accept; defaults to 1, the format described in the SQRL spec. Format 2 uses
+	 * the D2 flag bit and most of the random bits for a keyed check value so forged or corrupted nuts are rejected
+	 * right after decryption, before any persistence or signature work. Changing this setting invalidates all
+	 * outstanding nuts
+	 */
+	@XmlElement
+	private int nutFormatVersion = 1;
+
+	/**
+	 * The number of high bits of each nut counter which hold {@link #nutCounterNodeId}, 0 to 16; defaults to 0. When
+	 * each server in a cluster has its own node id, the nut counter is unique across the cluster and replay checks or
+	 * correlator lookups can be partitioned by node. The remaining w = 32 - nutCounterNodeIdBits bits hold a per server
+	 * sequence which wraps after 2^w nuts and is seeded from the clock on startup. Counters don't repeat within
+	 * {@link #nutValidityInSeconds}, even across restarts, as long as each server averages at most 2^w /
+	 * nutValidityInSeconds nuts a second (capped at 1000); with the default 15 minute validity that is about 70 at 16
+	 * bits, 1000 at 8 bits. Use as few bits as the cluster size allows
+	 */
+	@XmlElement
+	private int nutCounterNodeIdBits = 0;
+
+	/**
+	 * This server's node id, from 0 to 2^{@link #nutCounterNodeIdBits} - 1, which must be different on every server in
+	 * the cluster; defaults to 0
+	 */
+	@XmlElement
+	private int nutCounterNodeId = 0;
+
+	/**
+	 * The number of random ints drawn from {@link #secureRandom} at a time, into a buffer shared by all threads, for
+	 * the random field of a nut; defaults to 0, which draws once per nut. Some SecureRandom providers have a high per
+	 * call cost, which a buffer of 64 or so amortizes
+	 */
+	@XmlElement
+	private int nutRandomBufferSize = 0;
+
 	/**
 	 * The image format to generate QR codes in; default is PNG
 	 */
@@ -84,6 +122,15 @@ public class SqrlConfig {
 	@XmlElement
 	private String[] ipForwardedForHeaders;
 
+	/**
+	 * The number of trusted proxies in front of this server which append to the {@link #ipForwardedForHeaders}. When
+	 * a header contains a comma separated list, the users IP is taken as this many entries from the right, since
+	 * anything further left was supplied by the client; defaults to 1. Header values must be IP address literals,
+	 * hostnames are never resolved
+	 */
+	@XmlElement
+	private int ipForwardedForTrustedHops = 1;
+
 	/**
 	 * The SQRL JPA persistence provider class which implements {@link SqrlPersistenceFactory}; defaults to
 	 * {@link SqrlJpaPersistenceFactory}
@@ -111,6 +158,197 @@ public class SqrlConfig {
 	@XmlElement
 	private int cleanupTaskExecInMinutes = 15;
 
+	/**
+	 * The maximum number of expired rows the cleanup task will delete from each table in a single transaction; defaults
+	 * to {@value SqrlPersistenceCleanupTask#DEFAULT_BATCH_SIZE}. The task commits after each batch and shrinks the
+	 * batch if the persistence store is slow to respond
+	 */
+	@XmlElement
+	private int cleanupTaskBatchSize = SqrlPersistenceCleanupTask.DEFAULT_BATCH_SIZE;
+
+	/**
+	 * The maximum number of threads used for non-blocking persistence calls, typically the size of the DB connection
+	 * pool; defaults to 10
+	 */
+	@XmlElement
+	private int asyncPersistenceThreadCount = 10;
+
+	/**
+	 * The maximum number of non-blocking persistence calls waiting for a thread before new calls are rejected;
+	 * defaults to 200
+	 */
+	@XmlElement
+	private int asyncPersistenceQueueSize = 200;
+
+	/**
+	 * The kind of threads used for blocking work: the async persistence pool, the DB cleanup task and the client auth
+	 * state monitor; defaults to {@link SqrlExecutionMode#PLATFORM}. The thread and queue limits above apply in either
+	 * mode
+	 */
+	@XmlElement
+	private SqrlExecutionMode executionMode = SqrlExecutionMode.PLATFORM;
+
+	/**
+	 * The maximum number of threads used to generate the nut and QR code for
+	 * {@link SqrlServerOperations#prepareSqrlAuthPageDataAsync}; defaults to the number of available processors
+	 */
+	@XmlElement
+	private int pagePrepThreadCount = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The maximum number of async login page requests waiting for a thread before new requests are rejected; defaults
+	 * to 200
+	 */
+	@XmlElement
+	private int pagePrepQueueSize = 200;
+
+	/**
+	 * The maximum number of threads used to parse and verify the signatures of SQRL client requests which are handled
+	 * asynchronously by {@link SqrlServerOperations}; defaults to the number of available processors
+	 */
+	@XmlElement
+	private int backchannelCpuThreadCount = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The maximum number of async SQRL client requests waiting to be parsed before new requests are rejected; defaults
+	 * to 200
+	 */
+	@XmlElement
+	private int backchannelCpuQueueSize = 200;
+
+	/**
+	 * The maximum time in millis an async SQRL client request may spend being parsed and verified, including time
+	 * spent queued; defaults to 2000
+	 */
+	@XmlElement
+	private long backchannelCpuStageTimeoutMillis = 2000;
+
+	/**
+	 * The maximum time in millis each persistence stage of an async SQRL client request may take, including time spent
+	 * queued; defaults to 5000
+	 */
+	@XmlElement
+	private long backchannelPersistenceStageTimeoutMillis = 5000;
+
+	/**
+	 * Whether to rate limit SQRL client requests per IP address and per correlator; defaults to false. Requests over
+	 * the limit are rejected with HTTP 429 before any decoding, crypto or persistence work. Review the per IP limits
+	 * before enabling if many users share an address, for example behind a proxy which isn't configured in
+	 * {@link #ipForwardedForHeaders}
+	 */
+	@XmlElement
+	private boolean rateLimitEnabled = false;
+
+	/**
+	 * The sustained number of SQRL client requests allowed from a single IPv4 address or IPv6 /64 prefix per minute;
+	 * defaults to 120. This should allow for many users behind the same NAT
+	 */
+	@XmlElement
+	private int rateLimitIpRequestsPerMinute = 120;
+
+	/**
+	 * The number of SQRL client requests a single IP address may send at once after being idle; defaults to 60
+	 */
+	@XmlElement
+	private int rateLimitIpBurst = 60;
+
+	/**
+	 * The sustained number of SQRL client requests allowed for a single correlator per minute; defaults to 10. A
+	 * normal login takes two or three
+	 */
+	@XmlElement
+	private int rateLimitCorrelatorRequestsPerMinute = 10;
+
+	/**
+	 * The number of SQRL client requests a single correlator may receive at once; defaults to 10
+	 */
+	@XmlElement
+	private int rateLimitCorrelatorBurst = 10;
+
+	/**
+	 * The approximate number of IP addresses and correlators tracked by the rate limiter; defaults to 4096. Memory use
+	 * is fixed regardless of traffic
+	 */
+	@XmlElement
+	private int rateLimitTableSize = 4096;
+
+	/**
+	 * Whether the backchannel reads the SQRL fields straight from the request body instead of calling
+	 * {@link javax.servlet.http.HttpServletRequest#getParameter(String)}; defaults to false. This avoids the container
+	 * building its parameter map for every SQRL client request, but any other parameters sent to the backchannel
+	 * servlet will no longer be available once the request has been handed to us
+	 */
+	@XmlElement
+	private boolean backchannelRawBodyParsingEnabled = false;
+
+	/**
+	 * Whether the reply to a successfully processed SQRL client request is kept for a few seconds so that an identical
+	 * retry from the same IP gets the same reply instead of a nut replayed error; defaults to false
+	 */
+	@XmlElement
+	private boolean backchannelReplyCacheEnabled = false;
+
+	/**
+	 * How long, in seconds, a reply is kept for retries when {@link #backchannelReplyCacheEnabled} is true; defaults to
+	 * 5
+	 */
+	@XmlElement
+	private int backchannelReplyCacheTtlSeconds = 5;
+
+	/**
+	 * The number of replies kept for retries when {@link #backchannelReplyCacheEnabled} is true; defaults to 1024. Only
+	 * needs to cover the requests received within {@link #backchannelReplyCacheTtlSeconds}
+	 */
+	@XmlElement
+	private int backchannelReplyCacheSize = 1024;
+
+	/**
+	 * The number of lock stripes used to process SQRL client requests for the same correlator one at a time, so that
+	 * a retry or double submission waits for the first request instead of racing it on the same database rows;
+	 * defaults to 256. Requests for different correlators only wait on each other if they share a stripe. 0 disables.
+	 * <p/>
+	 * With {@link SqrlServerOperations#handleSqrlClientRequest(javax.servlet.http.HttpServletRequest,
+	 * javax.servlet.http.HttpServletResponse)} the waiting request blocks its container thread briefly, without holding
+	 * an admission control permit, and is then rejected with a transient error so the SQRL client retries. The async
+	 * entry points queue the waiting request without blocking a thread
+	 */
+	@XmlElement
+	private int backchannelCorrelatorLockStripes = 256;
+
+	/**
+	 * Whether to reject SQRL client and login page requests up front when the server is overloaded; defaults to false.
+	 * Rejected SQRL client requests receive the TRANSIENT_ERROR tif without any crypto or persistence work being done.
+	 * When enabled, no more than {@link #admissionControlInitialLimit} requests of each kind are processed at once
+	 * until the limit has adapted, so review the limits against the expected peak load before enabling
+	 */
+	@XmlElement
+	private boolean admissionControlEnabled = false;
+
+	/**
+	 * The number of concurrent requests allowed before the limit has adapted to the observed latency; defaults to 20
+	 */
+	@XmlElement
+	private int admissionControlInitialLimit = 20;
+
+	/**
+	 * The lowest the adaptive concurrency limit may fall to; defaults to 2
+	 */
+	@XmlElement
+	private int admissionControlMinLimit = 2;
+
+	/**
+	 * The highest the adaptive concurrency limit may rise to; defaults to 200
+	 */
+	@XmlElement
+	private int admissionControlMaxLimit = 200;
+
+	/**
+	 * Requests which take longer than this many millis cause the concurrency limit to shrink; defaults to 1000. Only
+	 * the time spent processing counts, not time spent queued for a thread or waiting on another request
+	 */
+	@XmlElement
+	private long admissionControlTargetLatencyMillis = 1000;
+
 	/**
 	 * The amount of time in millis to pause in between persistence queries to see if the SQRL client has finished
 	 * authenticating users; defaults to 500
@@ -145,6 +383,46 @@ public class SqrlConfig {
 		this.ipForwardedForHeaders = ipForwardedForHeaders;
 	}
 
+	public int getIpForwardedForTrustedHops() {
+		return ipForwardedForTrustedHops;
+	}
+
+	public void setIpForwardedForTrustedHops(final int ipForwardedForTrustedHops) {
+		this.ipForwardedForTrustedHops = ipForwardedForTrustedHops;
+	}
+
+	public int getNutFormatVersion() {
+		return nutFormatVersion;
+	}
+
+	public void setNutFormatVersion(final int nutFormatVersion) {
+		this.nutFormatVersion = nutFormatVersion;
+	}
+
+	public int getNutCounterNodeIdBits() {
+		return nutCounterNodeIdBits;
+	}
+
+	public void setNutCounterNodeIdBits(final int nutCounterNodeIdBits) {
+		this.nutCounterNodeIdBits = nutCounterNodeIdBits;
+	}
+
+	public int getNutCounterNodeId() {
+		return nutCounterNodeId;
+	}
+
+	public void setNutCounterNodeId(final int nutCounterNodeId) {
+		this.nutCounterNodeId = nutCounterNodeId;
+	}
+
+	public int getNutRandomBufferSize() {
+		return nutRandomBufferSize;
+	}
+
+	public void setNutRandomBufferSize(final int nutRandomBufferSize) {
+		this.nutRandomBufferSize = nutRandomBufferSize;
+	}
+
 	public int getNutValidityInSeconds() {
 		return nutValidityInSeconds;
 	}
@@ -271,6 +549,214 @@ public class SqrlConfig {
 		this.cleanupTaskExecInMinutes = cleanupTaskExecInMinutes;
 	}
 
+	public int getCleanupTaskBatchSize() {
+		return cleanupTaskBatchSize;
+	}
+
+	public void setCleanupTaskBatchSize(final int cleanupTaskBatchSize) {
+		this.cleanupTaskBatchSize = cleanupTaskBatchSize;
+	}
+
+	public int getAsyncPersistenceThreadCount() {
+		return asyncPersistenceThreadCount;
+	}
+
+	public void setAsyncPersistenceThreadCount(final int asyncPersistenceThreadCount) {
+		this.asyncPersistenceThreadCount = asyncPersistenceThreadCount;
+	}
+
+	public int getAsyncPersistenceQueueSize() {
+		return asyncPersistenceQueueSize;
+	}
+
+	public void setAsyncPersistenceQueueSize(final int asyncPersistenceQueueSize) {
+		this.asyncPersistenceQueueSize = asyncPersistenceQueueSize;
+	}
+
+	public SqrlExecutionMode getExecutionMode() {
+		return executionMode;
+	}
+
+	public void setExecutionMode(final SqrlExecutionMode executionMode) {
+		this.executionMode = executionMode;
+	}
+
+	public int getPagePrepThreadCount() {
+		return pagePrepThreadCount;
+	}
+
+	public void setPagePrepThreadCount(final int pagePrepThreadCount) {
+		this.pagePrepThreadCount = pagePrepThreadCount;
+	}
+
+	public int getPagePrepQueueSize() {
+		return pagePrepQueueSize;
+	}
+
+	public void setPagePrepQueueSize(final int pagePrepQueueSize) {
+		this.pagePrepQueueSize = pagePrepQueueSize;
+	}
+
+	public int getBackchannelCpuThreadCount() {
+		return backchannelCpuThreadCount;
+	}
+
+	public void setBackchannelCpuThreadCount(final int backchannelCpuThreadCount) {
+		this.backchannelCpuThreadCount = backchannelCpuThreadCount;
+	}
+
+	public int getBackchannelCpuQueueSize() {
+		return backchannelCpuQueueSize;
+	}
+
+	public void setBackchannelCpuQueueSize(final int backchannelCpuQueueSize) {
+		this.backchannelCpuQueueSize = backchannelCpuQueueSize;
+	}
+
+	public long getBackchannelCpuStageTimeoutMillis() {
+		return backchannelCpuStageTimeoutMillis;
+	}
+
+	public void setBackchannelCpuStageTimeoutMillis(final long backchannelCpuStageTimeoutMillis) {
+		this.backchannelCpuStageTimeoutMillis = backchannelCpuStageTimeoutMillis;
+	}
+
+	public long getBackchannelPersistenceStageTimeoutMillis() {
+		return backchannelPersistenceStageTimeoutMillis;
+	}
+
+	public void setBackchannelPersistenceStageTimeoutMillis(final long backchannelPersistenceStageTimeoutMillis) {
+		this.backchannelPersistenceStageTimeoutMillis = backchannelPersistenceStageTimeoutMillis;
+	}
+
+	public boolean isRateLimitEnabled() {
+		return rateLimitEnabled;
+	}
+
+	public void setRateLimitEnabled(final boolean rateLimitEnabled) {
+		this.rateLimitEnabled = rateLimitEnabled;
+	}
+
+	public int getRateLimitIpRequestsPerMinute() {
+		return rateLimitIpRequestsPerMinute;
+	}
+
+	public void setRateLimitIpRequestsPerMinute(final int rateLimitIpRequestsPerMinute) {
+		this.rateLimitIpRequestsPerMinute = rateLimitIpRequestsPerMinute;
+	}
+
+	public int getRateLimitIpBurst() {
+		return rateLimitIpBurst;
+	}
+
+	public void setRateLimitIpBurst(final int rateLimitIpBurst) {
+		this.rateLimitIpBurst = rateLimitIpBurst;
+	}
+
+	public int getRateLimitCorrelatorRequestsPerMinute() {
+		return rateLimitCorrelatorRequestsPerMinute;
+	}
+
+	public void setRateLimitCorrelatorRequestsPerMinute(final int rateLimitCorrelatorRequestsPerMinute) {
+		this.rateLimitCorrelatorRequestsPerMinute = rateLimitCorrelatorRequestsPerMinute;
+	}
+
+	public int getRateLimitCorrelatorBurst() {
+		return rateLimitCorrelatorBurst;
+	}
+
+	public void setRateLimitCorrelatorBurst(final int rateLimitCorrelatorBurst) {
+		this.rateLimitCorrelatorBurst = rateLimitCorrelatorBurst;
+	}
+
+	public int getRateLimitTableSize() {
+		return rateLimitTableSize;
+	}
+
+	public void setRateLimitTableSize(final int rateLimitTableSize) {
+		this.rateLimitTableSize = rateLimitTableSize;
+	}
+
+	public boolean isBackchannelRawBodyParsingEnabled() {
+		return backchannelRawBodyParsingEnabled;
+	}
+
+	public void setBackchannelRawBodyParsingEnabled(final boolean backchannelRawBodyParsingEnabled) {
+		this.backchannelRawBodyParsingEnabled = backchannelRawBodyParsingEnabled;
+	}
+
+	public boolean isBackchannelReplyCacheEnabled() {
+		return backchannelReplyCacheEnabled;
+	}
+
+	public void setBackchannelReplyCacheEnabled(final boolean backchannelReplyCacheEnabled) {
+		this.backchannelReplyCacheEnabled = backchannelReplyCacheEnabled;
+	}
+
+	public int getBackchannelReplyCacheTtlSeconds() {
+		return backchannelReplyCacheTtlSeconds;
+	}
+
+	public void setBackchannelReplyCacheTtlSeconds(final int backchannelReplyCacheTtlSeconds) {
+		this.backchannelReplyCacheTtlSeconds = backchannelReplyCacheTtlSeconds;
+	}
+
+	public int getBackchannelReplyCacheSize() {
+		return backchannelReplyCacheSize;
+	}
+
+	public void setBackchannelReplyCacheSize(final int backchannelReplyCacheSize) {
+		this.backchannelReplyCacheSize = backchannelReplyCacheSize;
+	}
+
+	public int getBackchannelCorrelatorLockStripes() {
+		return backchannelCorrelatorLockStripes;
+	}
+
+	public void setBackchannelCorrelatorLockStripes(final int backchannelCorrelatorLockStripes) {
+		this.backchannelCorrelatorLockStripes = backchannelCorrelatorLockStripes;
+	}
+
+	public boolean isAdmissionControlEnabled() {
+		return admissionControlEnabled;
+	}
+
+	public void setAdmissionControlEnabled(final boolean admissionControlEnabled) {
+		this.admissionControlEnabled = admissionControlEnabled;
+	}
+
+	public int getAdmissionControlInitialLimit() {
+		return admissionControlInitialLimit;
+	}
+
+	public void setAdmissionControlInitialLimit(final int admissionControlInitialLimit) {
+		this.admissionControlInitialLimit = admissionControlInitialLimit;
+	}
+
+	public int getAdmissionControlMinLimit() {
+		return admissionControlMinLimit;
+	}
+
+	public void setAdmissionControlMinLimit(final int admissionControlMinLimit) {
+		this.admissionControlMinLimit = admissionControlMinLimit;
+	}
+
+	public int getAdmissionControlMaxLimit() {
+		return admissionControlMaxLimit;
+	}
+
+	public void setAdmissionControlMaxLimit(final int admissionControlMaxLimit) {
+		this.admissionControlMaxLimit = admissionControlMaxLimit;
+	}
+
+	public long getAdmissionControlTargetLatencyMillis() {
+		return admissionControlTargetLatencyMillis;
+	}
+
+	public void setAdmissionControlTargetLatencyMillis(final long admissionControlTargetLatencyMillis) {
+		this.admissionControlTargetLatencyMillis = admissionControlTargetLatencyMillis;
+	}
+
 	public String getClientAuthStateUpdaterClass() {
 		return clientAuthStateUpdaterClass;
 	}
@@ -6,18 +6,23 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.Key;
 import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
+import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 import javax.servlet.http.HttpServletRequest;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.dbadia.sqrl.server.backchannel.SqrlNutCounter;
+import com.github.dbadia.sqrl.server.backchannel.SqrlNutToken;
 import com.github.dbadia.sqrl.server.exception.SqrlConfigSettingException;
 import com.github.dbadia.sqrl.server.exception.SqrlException;
 import com.github.dbadia.sqrl.server.persistence.SqrlJpaPersistenceFactory;
@@ -32,11 +37,13 @@ import com.github.dbadia.sqrl.server.util.SqrlUtil;
  *
  */
 public class SqrlConfigOperations {
-	private static final Logger			logger				= LoggerFactory.getLogger(SqrlConfig.class);
+	private static final Logger			logger					= LoggerFactory.getLogger(SqrlConfig.class);
+	private static final String			NUT_CHECK_KEY_ALGORITHM	= "HmacSHA256";
+	private static final String			NUT_CHECK_KEY_LABEL		= "SQRL nut check";
 	/**
 	 * Set automatically but only used if this class is set on {@link SqrlConfig#setSqrlPersistenceFactoryClass(String)}
 	 */
-	private static SqrlServiceExecutor	sqrlServiceExecutor	= null;
+	private static SqrlServiceExecutor	sqrlServiceExecutor		= null;
 
 	private enum BackchannelSettingType {
 		FULL_URL, FULL_PATH, PARTIAL_PATH
@@ -46,6 +53,7 @@ public class SqrlConfigOperations {
 	private final SqrlConfig				config;
 
 	private final Key						aesKey;
+	private final Key						nutCheckKey;
 	private final BackchannelSettingType	backchannelSettingType;
 
 	private String	subsequentRequestPath;
@@ -87,6 +95,47 @@ public class SqrlConfigOperations {
 		}
 		aesKey = new SecretKeySpec(aesKeyBytes, 0, aesKeyBytes.length, "AES");
 
+		// Nut format
+		final int nutFormatVersion = config.getNutFormatVersion();
+		if (nutFormatVersion != SqrlNutToken.FORMAT_VERSION_1 && nutFormatVersion != SqrlNutToken.FORMAT_VERSION_2) {
+			throw new SqrlConfigSettingException("SqrlConfig nutFormatVersion must be "
+					+ SqrlNutToken.FORMAT_VERSION_1 + " or " + SqrlNutToken.FORMAT_VERSION_2 + ", found "
+					+ nutFormatVersion);
+		}
+		// Derive a separate key for the nut check value so the AES key is never used with two algorithms
+		try {
+			final Mac mac = Mac.getInstance(NUT_CHECK_KEY_ALGORITHM);
+			mac.init(new SecretKeySpec(aesKeyBytes, NUT_CHECK_KEY_ALGORITHM));
+			nutCheckKey = new SecretKeySpec(mac.doFinal(NUT_CHECK_KEY_LABEL.getBytes(StandardCharsets.US_ASCII)),
+					NUT_CHECK_KEY_ALGORITHM);
+		} catch (final GeneralSecurityException e) {
+			throw new SqrlConfigSettingException("Error deriving nut check key", e);
+		}
+		// Nut counter node id
+		final int nodeIdBits = config.getNutCounterNodeIdBits();
+		if (nodeIdBits < 0 || nodeIdBits > SqrlNutCounter.MAX_NODE_ID_BITS) {
+			throw new SqrlConfigSettingException("SqrlConfig nutCounterNodeIdBits must be between 0 and "
+					+ SqrlNutCounter.MAX_NODE_ID_BITS + ", found " + nodeIdBits);
+		}
+		if (config.getNutCounterNodeId() < 0 || config.getNutCounterNodeId() >= 1 << nodeIdBits) {
+			throw new SqrlConfigSettingException("SqrlConfig nutCounterNodeId must be between 0 and "
+					+ ((1 << nodeIdBits) - 1) + " for nutCounterNodeIdBits of " + nodeIdBits + ", found "
+					+ config.getNutCounterNodeId());
+		}
+		if (config.getNutRandomBufferSize() < 0) {
+			throw new SqrlConfigSettingException(
+					"SqrlConfig nutRandomBufferSize must not be negative, found " + config.getNutRandomBufferSize());
+		}
+
+		if (config.getIpForwardedForTrustedHops() < 1) {
+			throw new SqrlConfigSettingException("SqrlConfig ipForwardedForTrustedHops must be at least 1, found "
+					+ config.getIpForwardedForTrustedHops());
+		}
+		if (config.getBackchannelCorrelatorLockStripes() < 0) {
+			throw new SqrlConfigSettingException("SqrlConfig backchannelCorrelatorLockStripes must not be negative, found "
+					+ config.getBackchannelCorrelatorLockStripes());
+		}
+
 		// backchannelServletPath
 		final String backchannelServletPathSetting = config.getBackchannelServletPath();
 		backchannelSettingType = validateBackchannelSetting(backchannelServletPathSetting);
@@ -146,6 +195,19 @@ public class SqrlConfigOperations {
 		return aesKey;
 	}
 
+	/**
+	 * Internal use only.
+	 *
+	 * @return the HmacSHA256 key used for the check value of format 2 nuts, derived from the AES key
+	 */
+	public Key getNutCheckKey() {
+		return nutCheckKey;
+	}
+
+	public SqrlConfig getSqrlConfig() {
+		return config;
+	}
+
 	/**
 	 * Internal use only. Determines backchannel request URL based on the loginPageRequest
 	 *
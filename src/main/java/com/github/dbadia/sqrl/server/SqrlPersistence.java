@@ -47,6 +47,63 @@ public interface SqrlPersistence {
 	 */
 	public SqrlIdentity fetchSqrlIdentityByUserXref(final String appUserXref);
 
+	/**
+	 * Fetch the sqrl identity, including all of its flags and identity data, for the given idk in a single read. The
+	 * returned object can then be inspected without any further persistence calls
+	 * <p/>
+	 * The default implementation is built on {@link #doesSqrlIdentityExistByIdk(String)} and
+	 * {@link #fetchSqrlFlagForIdentity(String, SqrlIdentityFlag)}, so it costs one read per flag and only the flags
+	 * are populated; identity data remains available via {@link #fetchSqrlIdentityDataItem(String, String)}.
+	 * Implementations should override it with a single read
+	 *
+	 * @param sqrlIdk
+	 *            the idk of the SQRL identity
+	 * @return the SQRL identity or null if none exists for this idk
+	 */
+	public default SqrlIdentity fetchSqrlIdentityByIdk(final String sqrlIdk) {
+		if (!doesSqrlIdentityExistByIdk(sqrlIdk)) {
+			return null;
+		}
+		final SqrlIdentity sqrlIdentity = new SqrlIdentity(sqrlIdk);
+		for (final SqrlIdentityFlag flag : SqrlIdentityFlag.values()) {
+			if (fetchSqrlFlagForIdentity(sqrlIdk, flag)) {
+				sqrlIdentity.getEnabledFlagList().add(flag);
+			}
+		}
+		return sqrlIdentity;
+	}
+
+	/**
+	 * Applies all flag and identity data changes for the given SQRL identity in a single write
+	 * <p/>
+	 * The default implementation makes one {@link #setSqrlFlagForIdentity(String, SqrlIdentityFlag, boolean)} call
+	 * per flag followed by {@link #storeSqrlDataForSqrlIdentity(String, Map)}; implementations should override it
+	 * with a single write
+	 *
+	 * @param sqrlIdk
+	 *            the idk of the SQRL identity to update
+	 * @param flagsToSet
+	 *            the flags to change; a value of true enables the flag, false disables it. Flags not present in the map
+	 *            are left as is
+	 * @param dataToStore
+	 *            SQRL related data that must be persisted for this user and be retreivable via
+	 *            {@link #fetchSqrlIdentityDataItem(String, String)}
+	 * @throws SqrlPersistenceException
+	 *             if the identity does not exist or there was an error accessing the persistence store
+	 */
+	public default void updateSqrlIdentity(final String sqrlIdk, final Map<SqrlIdentityFlag, Boolean> flagsToSet,
+			final Map<String, String> dataToStore) {
+		if (!doesSqrlIdentityExistByIdk(sqrlIdk)) {
+			throw new SqrlPersistenceException("SqrlIdentity does not exist for idk=" + sqrlIdk);
+		}
+		for (final Map.Entry<SqrlIdentityFlag, Boolean> entry : flagsToSet.entrySet()) {
+			setSqrlFlagForIdentity(sqrlIdk, entry.getKey(), entry.getValue().booleanValue());
+		}
+		if (!dataToStore.isEmpty()) {
+			storeSqrlDataForSqrlIdentity(sqrlIdk, dataToStore);
+		}
+	}
+
 	/**
 	 * The user has updated their SQRL ID but this application is still using the old one. The application must lookup
 	 * the user by previousSqrlIdk, and replace that SQRL ID with newSqrlIdk
@@ -219,6 +276,33 @@ public interface SqrlPersistence {
 	 */
 	public SqrlCorrelator fetchSqrlCorrelator(String correlator);
 
+	/**
+	 * Fetch only the authentication status of the given correlator, which is cheaper than loading the entire
+	 * correlator object. The default implementation loads the correlator via {@link #fetchSqrlCorrelator(String)}
+	 *
+	 * @param correlator
+	 *            the string value to search for
+	 * @return the status or null if the correlator does not exist
+	 */
+	public default SqrlAuthenticationStatus fetchSqrlCorrelatorStatus(final String correlator) {
+		final SqrlCorrelator sqrlCorrelator = fetchSqrlCorrelator(correlator);
+		return sqrlCorrelator == null ? null : sqrlCorrelator.getAuthenticationStatus();
+	}
+
+	/**
+	 * Fetch only the hash of the server parrot value (the last server param sent to the SQRL client) of the given
+	 * correlator. The default implementation loads the correlator via {@link #fetchSqrlCorrelator(String)}
+	 *
+	 * @param correlator
+	 *            the string value to search for
+	 * @return the server parrot hash or null if the correlator or parrot does not exist
+	 * @see SqrlCorrelator#setServerParrot(String)
+	 */
+	public default String fetchServerParrotHash(final String correlator) {
+		final SqrlCorrelator sqrlCorrelator = fetchSqrlCorrelator(correlator);
+		return sqrlCorrelator == null ? null : sqrlCorrelator.getServerParrotHash();
+	}
+
 	/* ***************** TRANSACTION START / STOP *********************/
 
 	/**
@@ -241,6 +325,29 @@ public interface SqrlPersistence {
 	 */
 	public void cleanUpExpiredEntries();
 
+	/**
+	 * Delete a bounded number of expired objects in the persistence store so the work can be spread across multiple
+	 * transactions. The default implementation deletes everything in one call to {@link #cleanUpExpiredEntries()} and
+	 * returns 0 so the caller does not run another batch
+	 *
+	 * @param maxRowCount
+	 *            the maximum number of rows to delete from each table
+	 * @return the total number of rows deleted; if less than maxRowCount then no expired entries remain
+	 */
+	public default int cleanUpExpiredEntries(final int maxRowCount) {
+		cleanUpExpiredEntries();
+		return 0;
+	}
+
+	/**
+	 * Called once per cleanup run, in a transaction of its own, before the batches of
+	 * {@link #cleanUpExpiredEntries(int)}. Allows whole ranges of expired entries to be removed at once, for example
+	 * by truncating partitions, which some databases do as DDL that implicitly commits. Does nothing by default
+	 */
+	public default void truncateExpiredEntries() {
+		// Nothing to truncate unless the persistence store partitions its data
+	}
+
 	Map<String, SqrlCorrelator> fetchSqrlCorrelatorsDetached(Set<String> correlatorStringSet);
 
 	/**
@@ -9,24 +9,41 @@ import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Constructor;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import javax.imageio.ImageIO;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -34,9 +51,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.dbadia.sqrl.server.backchannel.SqrlClientReply;
+import com.github.dbadia.sqrl.server.backchannel.SqrlClientReplyCache;
 import com.github.dbadia.sqrl.server.backchannel.SqrlClientRequest;
+import com.github.dbadia.sqrl.server.backchannel.SqrlClientRequestForm;
 import com.github.dbadia.sqrl.server.backchannel.SqrlClientRequestLoggingUtil;
 import com.github.dbadia.sqrl.server.backchannel.SqrlClientRequestProcessor;
+import com.github.dbadia.sqrl.server.backchannel.SqrlClientRequestRateLimiter;
+import com.github.dbadia.sqrl.server.backchannel.SqrlClientRequestValidationStats;
+import com.github.dbadia.sqrl.server.backchannel.SqrlNutCounter;
 import com.github.dbadia.sqrl.server.backchannel.SqrlNutToken;
 import com.github.dbadia.sqrl.server.backchannel.SqrlNutTokenUtil;
 import com.github.dbadia.sqrl.server.backchannel.SqrlTif;
@@ -44,6 +66,7 @@ import com.github.dbadia.sqrl.server.backchannel.SqrlTif.SqrlTifBuilder;
 import com.github.dbadia.sqrl.server.backchannel.SqrlTifFlag;
 import com.github.dbadia.sqrl.server.enums.SqrlAuthenticationStatus;
 import com.github.dbadia.sqrl.server.enums.SqrlClientParam;
+import com.github.dbadia.sqrl.server.enums.SqrlExecutorType;
 import com.github.dbadia.sqrl.server.enums.SqrlInternalUserState;
 import com.github.dbadia.sqrl.server.enums.SqrlRequestCommand;
 import com.github.dbadia.sqrl.server.enums.SqrlRequestOpt;
@@ -52,12 +75,22 @@ import com.github.dbadia.sqrl.server.exception.SqrlClientRequestProcessingExcept
 import com.github.dbadia.sqrl.server.exception.SqrlException;
 import com.github.dbadia.sqrl.server.exception.SqrlInvalidRequestException;
 import com.github.dbadia.sqrl.server.exception.SqrlPersistenceException;
+import com.github.dbadia.sqrl.server.exception.SqrlServerOverloadedException;
 import com.github.dbadia.sqrl.server.persistence.SqrlAutoCloseablePersistence;
 import com.github.dbadia.sqrl.server.persistence.SqrlCorrelator;
+import com.github.dbadia.sqrl.server.persistence.SqrlExecutorAsyncPersistence;
 import com.github.dbadia.sqrl.server.persistence.SqrlIdentity;
 import com.github.dbadia.sqrl.server.persistence.SqrlPersistenceCleanupTask;
+import com.github.dbadia.sqrl.server.util.SqrlAdmissionController;
+import com.github.dbadia.sqrl.server.util.SqrlAsyncUtil;
+import com.github.dbadia.sqrl.server.util.SqrlBufferedRandom;
+import com.github.dbadia.sqrl.server.util.SqrlCommitDeadline;
 import com.github.dbadia.sqrl.server.util.SqrlConstants;
+import com.github.dbadia.sqrl.server.util.SqrlExecutorPoolMetrics;
+import com.github.dbadia.sqrl.server.util.SqrlExecutors;
+import com.github.dbadia.sqrl.server.util.SqrlIpAddressParser;
 import com.github.dbadia.sqrl.server.util.SqrlServiceExecutor;
+import com.github.dbadia.sqrl.server.util.SqrlStripedLocks;
 import com.github.dbadia.sqrl.server.util.SqrlUtil;
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.EncodeHintType;
@@ -76,17 +109,38 @@ import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
 public class SqrlServerOperations {
 	private static final Logger logger = LoggerFactory.getLogger(SqrlServerOperations.class);
 
-	private static final AtomicInteger COUNTER = new AtomicInteger(0);
-
 	static final long MAX_TIMESTAMP = Integer.toUnsignedLong(-1) * 1000L;
 
+	private static final long ASYNC_CONTEXT_TIMEOUT_MARGIN_MILLIS = 5000;
+
+	/**
+	 * HttpServletResponse has no constant for 429 Too Many Requests
+	 */
+	private static final int HTTP_STATUS_TOO_MANY_REQUESTS = 429;
+
+	/**
+	 * How long the sync backchannel path waits for another request for the same correlator; short since the container
+	 * thread is blocked meanwhile
+	 */
+	private static final long CORRELATOR_LOCK_WAIT_MILLIS = 100;
+
 	private static SqrlServiceExecutor sqrlServiceExecutor;
 
-	private final SqrlPersistenceFactory	persistenceFactory;
-	private final SqrlConfigOperations		configOperations;
-	private final SqrlConfig				config;
-	private final SqrlAuthStateMonitor		authStateMonitor;
-	private final boolean					cpsEnabled;
+	private final SqrlPersistenceFactory		persistenceFactory;
+	private final SqrlConfigOperations			configOperations;
+	private final SqrlConfig					config;
+	private final SqrlAuthStateMonitor			authStateMonitor;
+	private final boolean						cpsEnabled;
+	private final SqrlExecutors					executors;
+	private final SqrlExecutorAsyncPersistence	asyncPersistence;
+	private final SqrlAdmissionController		pagePrepAdmission;
+	private final SqrlAdmissionController		backchannelAdmission;
+	private final SqrlClientRequestRateLimiter	rateLimiter;
+	private final SqrlClientReplyCache			replyCache;
+	private final SqrlStripedLocks				correlatorLocks;
+	private final SqrlNutCounter				nutCounter;
+	private final SqrlBufferedRandom			nutRandom;
+	private final SqrlClientRequestValidationStats	validationStats	= new SqrlClientRequestValidationStats();
 
 	/**
 	 * Initializes the operations class with the given config, defaulting to the built in JPA persisentce provider.
@@ -104,6 +158,17 @@ public class SqrlServerOperations {
 		this.configOperations = new SqrlConfigOperations(config);
 		this.persistenceFactory = configOperations.getSqrlPersistenceFactory();
 		this.config = config;
+		this.executors = new SqrlExecutors(config);
+		this.asyncPersistence = new SqrlExecutorAsyncPersistence(persistenceFactory,
+				executors.getPool(SqrlExecutorType.PERSISTENCE));
+		this.pagePrepAdmission = new SqrlAdmissionController(config);
+		this.backchannelAdmission = new SqrlAdmissionController(config);
+		this.rateLimiter = config.isRateLimitEnabled() ? new SqrlClientRequestRateLimiter(config) : null;
+		this.replyCache = config.isBackchannelReplyCacheEnabled() ? new SqrlClientReplyCache(config) : null;
+		this.correlatorLocks = config.getBackchannelCorrelatorLockStripes() == 0 ? null
+				: new SqrlStripedLocks(config.getBackchannelCorrelatorLockStripes());
+		this.nutCounter = new SqrlNutCounter(config);
+		this.nutRandom = new SqrlBufferedRandom(config.getSecureRandom(), config.getNutRandomBufferSize());
 		final String classname = config.getClientAuthStateUpdaterClass();
 		if (config.getClientAuthStateUpdaterClass() == null) {
 			logger.warn("No ClientAuthStateUpdaterClass is set, auto client status refresh is disabled");
@@ -128,8 +193,8 @@ public class SqrlServerOperations {
 				clientAuthStateUpdater.initSqrl(config, authStateMonitor);
 				final long intervalInMilis = config.getAuthSyncCheckInMillis();
 				logger.info("Client auth state task scheduled to run every {} ms", intervalInMilis);
-				sqrlServiceExecutor.scheduleAtFixedRate(authStateMonitor, intervalInMilis, intervalInMilis,
-						TimeUnit.MILLISECONDS);
+				scheduleBackgroundTask(SqrlExecutorType.AUTH_STATE_MONITOR, authStateMonitor, intervalInMilis,
+						intervalInMilis, TimeUnit.MILLISECONDS);
 			} catch (final ReflectiveOperationException e) {
 				throw new IllegalStateException("SQRL: Error instantiating ClientAuthStateUpdaterClass of " + classname,
 						e);
@@ -144,12 +209,35 @@ public class SqrlServerOperations {
 			throw new IllegalArgumentException("config.getCleanupTaskExecInMinutes() must be -1 or > 0");
 		} else {
 			logger.info("Persistence cleanup task registered to run every {} minutes", cleanupIntervalInMinutes);
-			final SqrlPersistenceCleanupTask cleanupRunnable = new SqrlPersistenceCleanupTask(persistenceFactory);
-			sqrlServiceExecutor.scheduleAtFixedRate(cleanupRunnable, 0, cleanupIntervalInMinutes,
+			final SqrlPersistenceCleanupTask cleanupRunnable = new SqrlPersistenceCleanupTask(persistenceFactory,
+					config.getCleanupTaskBatchSize(), TimeUnit.MINUTES.toMillis(cleanupIntervalInMinutes));
+			scheduleBackgroundTask(SqrlExecutorType.CLEANUP, cleanupRunnable, 0, cleanupIntervalInMinutes,
 					TimeUnit.MINUTES);
 		}
 		// TODOCPS: set cpsEnabled
 		cpsEnabled = false;
+		if (sqrlServiceExecutor != null) {
+			sqrlServiceExecutor.addShutdownHook(this::shutdown);
+		}
+	}
+
+	/**
+	 * Stops accepting new work on the SQRL thread pools, including the async persistence pool; work which is already
+	 * queued will still run. Called automatically when the servlet context is destroyed
+	 */
+	public void shutdown() {
+		logger.info("Shutting down SQRL executor pools");
+		executors.shutdown();
+	}
+
+	/**
+	 * {@link SqrlServiceExecutor} only triggers the task, each run is handed off to the task's own pool so a slow
+	 * cleanup run can't delay status pushes to the browser
+	 */
+	private void scheduleBackgroundTask(final SqrlExecutorType executorType, final Runnable task,
+			final long initialDelay, final long period, final TimeUnit unit) {
+		sqrlServiceExecutor.scheduleAtFixedRate(
+				SqrlAsyncUtil.offloadPeriodicTask(task, executors.getPool(executorType)), initialDelay, period, unit);
 	}
 
 	/**
@@ -177,11 +265,76 @@ public class SqrlServerOperations {
 	 */
 	public SqrlAuthPageData prepareSqrlAuthPageData(final HttpServletRequest request, final HttpServletResponse response,
 			final InetAddress userInetAddress, final int qrCodeSizeInPixels) throws SqrlException {
+		if (!pagePrepAdmission.tryAcquire()) {
+			throw new SqrlServerOverloadedException(
+					"Rejected login page request, limit of " + pagePrepAdmission.getLimit() + " reached");
+		}
+		final long startNanos = System.nanoTime();
+		try {
+			final SqrlAuthPageData pageData = buildSqrlAuthPageData(request, userInetAddress, qrCodeSizeInPixels);
+			try (SqrlAutoCloseablePersistence sqrlPersistence = createSqrlPersistence()) {
+				storeCorrelator(sqrlPersistence, pageData);
+				sqrlPersistence.closeCommit();
+			}
+			addSqrlAuthCookies(request, response, pageData);
+			return pageData;
+		} finally {
+			pagePrepAdmission.release(System.nanoTime() - startNanos);
+		}
+	}
+
+	/**
+	 * Non-blocking version of {@link #prepareSqrlAuthPageData(HttpServletRequest, HttpServletResponse, InetAddress, int)}.
+	 * The nut and QR code are built on the {@link SqrlExecutorType#PAGE_PREP} pool while the correlator is stored via
+	 * {@link #getAsyncPersistence()}. The cookies are added to the response when the stage completes, so the request
+	 * and response must remain usable until then, for example by calling {@link HttpServletRequest#startAsync()}
+	 *
+	 * @return a stage which completes with the data the server needs to display to allow a user to authenticate via
+	 *         SQRL, or exceptionally with the {@link SqrlException} or {@link SqrlPersistenceException} which occurred.
+	 *         A {@link SqrlServerOverloadedException} indicates the request was rejected without being processed
+	 */
+	public CompletionStage<SqrlAuthPageData> prepareSqrlAuthPageDataAsync(final HttpServletRequest request,
+			final HttpServletResponse response, final InetAddress userInetAddress, final int qrCodeSizeInPixels) {
+		if (!pagePrepAdmission.tryAcquire()) {
+			final CompletableFuture<SqrlAuthPageData> future = new CompletableFuture<>();
+			future.completeExceptionally(new SqrlServerOverloadedException(
+					"Rejected login page request, limit of " + pagePrepAdmission.getLimit() + " reached"));
+			return future;
+		}
+		// Only the time spent running counts towards admission control, not the time spent queued for a thread
+		final AtomicLong serviceNanos = new AtomicLong(0);
+		CompletableFuture<SqrlAuthPageData> buildStage;
+		try {
+			buildStage = CompletableFuture.supplyAsync(() -> {
+				final long buildStartNanos = System.nanoTime();
+				try {
+					return buildSqrlAuthPageData(request, userInetAddress, qrCodeSizeInPixels);
+				} catch (final SqrlException e) {
+					throw new CompletionException(e);
+				} finally {
+					serviceNanos.addAndGet(System.nanoTime() - buildStartNanos);
+				}
+			}, executors.getPool(SqrlExecutorType.PAGE_PREP));
+		} catch (final RejectedExecutionException e) {
+			buildStage = new CompletableFuture<>();
+			buildStage.completeExceptionally(e);
+		}
+		return buildStage.thenCompose(pageData -> executeTimedTransaction(serviceNanos, sqrlPersistence -> {
+			storeCorrelator(sqrlPersistence, pageData);
+			return pageData;
+		})).thenApply(storedPageData -> {
+			addSqrlAuthCookies(request, response, storedPageData);
+			return storedPageData;
+		}).whenComplete((pageData, throwable) -> releaseAdmission(pagePrepAdmission, serviceNanos.get()));
+	}
+
+	private SqrlAuthPageData buildSqrlAuthPageData(final HttpServletRequest request,
+			final InetAddress userInetAddress, final int qrCodeSizeInPixels) throws SqrlException {
 		final URI backchannelUri = configOperations.getBackchannelRequestUrl(request);
 		final StringBuilder urlBuf = new StringBuilder(backchannelUri.toString());
 		// Now we append the nut and our SFN
 		// Even though urlBuf only contains the baseUrl, it's enough for NetUtil.inetAddressToInt
-		final SqrlNutToken nut = buildNut(backchannelUri, userInetAddress);
+		final SqrlNutToken nut = buildNut(SqrlNutTokenUtil.inetAddressToInt(backchannelUri, userInetAddress, config));
 		urlBuf.append("?nut=").append(nut.asSqrlBase64EncryptedNut());
 		// Append the SFN
 		String sfn = config.getServerFriendlyName();
@@ -191,7 +344,7 @@ public class SqrlServerOperations {
 			config.setServerFriendlyName(sfn);
 		}
 		urlBuf.append("&sfn=").append(SqrlUtil.sqrlBase64UrlEncode(sfn));
-		try (SqrlAutoCloseablePersistence sqrlPersistence = createSqrlPersistence()) {
+		try {
 			// Append our correlation id
 			// Need correlation id to be unique to each Nut, so sha-256 the nut
 			final MessageDigest digest = MessageDigest.getInstance("SHA-256");
@@ -201,33 +354,303 @@ public class SqrlServerOperations {
 
 			final String url = urlBuf.toString();
 			final ByteArrayOutputStream qrBaos = generateQrCode(config, url, qrCodeSizeInPixels);
-			// Store the url in the server parrot value so it will be there when the SQRL client makes the request
-			final Date expiryTime = new Date(System.currentTimeMillis() + (1000 * config.getNutValidityInSeconds()));
-			final SqrlCorrelator sqrlCorrelator = sqrlPersistence.createCorrelator(correlator, expiryTime);
-			sqrlCorrelator.getTransientAuthDataTable().put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT,
-					SqrlUtil.sqrlBase64UrlEncode(url));
-			sqrlPersistence.closeCommit();
-			final String cookieDomain = SqrlUtil.computeCookieDomain(request, config);
-			// Correlator outlives the nut so extend the cookie expiry
-			final int correlatorCookieAgeInSeconds = config.getNutValidityInSeconds() + 120;
-			response.addCookie(SqrlUtil.createOrUpdateCookie(request, cookieDomain, config.getCorrelatorCookieName(),
-					correlator, correlatorCookieAgeInSeconds, config));
-			response.addCookie(SqrlUtil.createOrUpdateCookie(request, cookieDomain, config.getFirstNutCookieName(),
-					nut.asSqrlBase64EncryptedNut(), config.getNutValidityInSeconds(), config));
 			return new SqrlAuthPageData(url, qrBaos, nut, correlator);
 		} catch (final NoSuchAlgorithmException e) {
 			throw new SqrlException(SqrlClientRequestLoggingUtil.getLogHeader() + "Caught exception during correlator create", e);
 		}
 	}
 
-	private SqrlNutToken buildNut(final URI backchannelUri, final InetAddress userInetAddress) throws SqrlException {
-		final int inetInt = SqrlNutTokenUtil.inetAddressToInt(backchannelUri, userInetAddress, config);
-		final int randomInt = config.getSecureRandom().nextInt();
+	private void storeCorrelator(final SqrlPersistence sqrlPersistence, final SqrlAuthPageData pageData) {
+		// Store the url in the server parrot value so it will be there when the SQRL client makes the request
+		final Date expiryTime = new Date(System.currentTimeMillis() + (1000 * config.getNutValidityInSeconds()));
+		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.createCorrelator(pageData.getCorrelator(), expiryTime);
+		sqrlCorrelator.setServerParrot(SqrlUtil.sqrlBase64UrlEncode(pageData.getUrl()));
+	}
+
+	private void addSqrlAuthCookies(final HttpServletRequest request, final HttpServletResponse response,
+			final SqrlAuthPageData pageData) {
+		final String cookieDomain = SqrlUtil.computeCookieDomain(request, config);
+		// Correlator outlives the nut so extend the cookie expiry
+		final int correlatorCookieAgeInSeconds = config.getNutValidityInSeconds() + 120;
+		response.addCookie(SqrlUtil.createOrUpdateCookie(request, cookieDomain, config.getCorrelatorCookieName(),
+				pageData.getCorrelator(), correlatorCookieAgeInSeconds, config));
+		response.addCookie(SqrlUtil.createOrUpdateCookie(request, cookieDomain, config.getFirstNutCookieName(),
+				pageData.getNut().asSqrlBase64EncryptedNut(), config.getNutValidityInSeconds(), config));
+	}
+
+	private SqrlNutToken buildNut(final int inetInt) throws SqrlException {
+		final int randomInt = nutRandom.nextInt();
 		final long timestamp = config.getCurrentTimeMs();
-		return new SqrlNutToken(inetInt, configOperations, COUNTER.getAndIncrement(), timestamp, randomInt);
+		return new SqrlNutToken(inetInt, configOperations, nutCounter.next(), timestamp, randomInt);
 	}
 
 
+	/**
+	 * Servlet 3 entry point for a backchannel servlet which is declared with {@code asyncSupported=true}. The request
+	 * is put into async mode and the container thread is released immediately; the work is then done as described in
+	 * {@link #handleSqrlClientRequestAsync(HttpServletRequest, HttpServletResponse)} and the {@link AsyncContext} is
+	 * completed once the reply has been written
+	 *
+	 * @param servletRequest
+	 *            the servlet request
+	 * @param servletResponse
+	 *            the servlet response which will be populated accordingly
+	 * @return the async context which was started for the request
+	 */
+	public AsyncContext startAsyncSqrlClientRequest(final HttpServletRequest servletRequest,
+			final HttpServletResponse servletResponse) {
+		final AsyncContext asyncContext = servletRequest.startAsync(servletRequest, servletResponse);
+		// Our stage timeouts always fire first, the container timeout is only a backstop
+		asyncContext.setTimeout(config.getBackchannelCpuStageTimeoutMillis()
+				+ (2 * config.getBackchannelPersistenceStageTimeoutMillis()) + ASYNC_CONTEXT_TIMEOUT_MARGIN_MILLIS);
+		asyncContext.addListener(new SqrlBackchannelAsyncListener());
+		handleSqrlClientRequestAsync(servletRequest, servletResponse).whenComplete((result, throwable) -> {
+			if (throwable != null) {
+				logger.error("Error sending async SQRL reply", SqrlAsyncUtil.unwrap(throwable));
+			}
+			try {
+				asyncContext.complete();
+			} catch (final IllegalStateException e) {
+				logger.warn("Async SQRL request was already completed by the container", e);
+			}
+		});
+		return asyncContext;
+	}
+
+	/**
+	 * Non-blocking version of {@link #handleSqrlClientRequest(HttpServletRequest, HttpServletResponse)}. Parsing and
+	 * signature verification run on a bounded pool sized by {@link SqrlConfig#getBackchannelCpuThreadCount()} while the
+	 * persistence transactions run on {@link #getAsyncPersistence()}, so slow persistence can't starve the crypto work
+	 * and vice versa. Each stage is bounded by {@link SqrlConfig#getBackchannelCpuStageTimeoutMillis()} or
+	 * {@link SqrlConfig#getBackchannelPersistenceStageTimeoutMillis()}; a stage which times out results in an error
+	 * reply. A persistence stage only times out if it hasn't reached its commit yet, and its transaction is then rolled
+	 * back, so an error reply is never sent for changes which were committed.
+	 * <p/>
+	 * The request and response must remain usable until the returned stage completes, for example by calling
+	 * {@link HttpServletRequest#startAsync()}, see {@link #startAsyncSqrlClientRequest(HttpServletRequest, HttpServletResponse)}
+	 *
+	 * @return a stage which completes once the reply has been sent to the SQRL client
+	 */
+	public CompletionStage<Void> handleSqrlClientRequestAsync(final HttpServletRequest servletRequest,
+			final HttpServletResponse servletResponse) {
+		SqrlClientRequestLoggingUtil.initLoggingHeader(servletRequest);
+		try {
+			if (config.isBackchannelRawBodyParsingEnabled()) {
+				try {
+					SqrlClientRequestForm.readBody(servletRequest);
+				} catch (final IOException e) {
+					final CompletableFuture<Void> future = new CompletableFuture<>();
+					future.completeExceptionally(e);
+					return future;
+				}
+			}
+			if (logger.isInfoEnabled()) {
+				logger.info(SqrlUtil.buildLogMessageForSqrlClientRequest(servletRequest).toString());
+			}
+			final boolean rateLimited = isSqrlClientRequestRateLimited(servletRequest);
+			final byte[] replyCacheKey = rateLimited ? null : computeReplyCacheKey(servletRequest);
+			try {
+				if (sendCachedReply(servletRequest, servletResponse, replyCacheKey)) {
+					return CompletableFuture.completedFuture(null);
+				}
+			} catch (final IOException e) {
+				final CompletableFuture<Void> future = new CompletableFuture<>();
+				future.completeExceptionally(e);
+				return future;
+			}
+			if (rateLimited || !backchannelAdmission.tryAcquire()) {
+				final CompletableFuture<Void> future = new CompletableFuture<>();
+				try {
+					if (rateLimited) {
+						rejectSqrlClientRequest(servletRequest, servletResponse, HTTP_STATUS_TOO_MANY_REQUESTS,
+								"rate limit exceeded");
+					} else {
+						rejectOverloadedSqrlClientRequest(servletRequest, servletResponse);
+					}
+					future.complete(null);
+				} catch (final IOException e) {
+					future.completeExceptionally(e);
+				}
+				return future;
+			}
+			// Only the time spent running counts towards admission control, not the time spent queued for a thread
+			final AtomicLong serviceNanos = new AtomicLong(0);
+			final String logHeader = SqrlClientRequestLoggingUtil.getLogHeader();
+			final long persistenceTimeoutMillis = config.getBackchannelPersistenceStageTimeoutMillis();
+			String parsedCorrelator = "unknown";
+			boolean correlatorParsed = false;
+			CompletableFuture<SqrlClientRequest> parseStage;
+			try {
+				// Get the correlator first. Then, if the request is invalid, we can update the auth page saying so
+				parsedCorrelator = SqrlClientRequest.parseCorrelatorOnly(servletRequest);
+				correlatorParsed = true;
+				parseStage = CompletableFuture.supplyAsync(() -> runStage(logHeader, null,
+						timed(serviceNanos, () -> parseAndVerifySignatures(servletRequest))),
+						executors.getPool(SqrlExecutorType.BACKCHANNEL));
+			} catch (final SqrlException | RejectedExecutionException e) {
+				parseStage = new CompletableFuture<>();
+				parseStage.completeExceptionally(e);
+			}
+			final String correlator = parsedCorrelator;
+			final CompletableFuture<SqrlClientRequest> verifyStage = parseStage;
+			// A timed out stage fails early but its transaction may still be running, see runTransactionalStage
+			final List<CompletableFuture<?>> transactions = new CopyOnWriteArrayList<>();
+			final ScheduledExecutorService timeoutScheduler = executors.getTimeoutScheduler();
+
+			final Supplier<CompletableFuture<Void>> pipeline = () -> SqrlAsyncUtil
+					.withTimeout(timeoutScheduler, verifyStage, config.getBackchannelCpuStageTimeoutMillis(), "parse")
+					.thenCompose(sqrlClientRequest -> SqrlAsyncUtil.withCommitTimeout(timeoutScheduler,
+							deadline -> track(transactions, executeTimedTransaction(serviceNanos,
+									sqrlPersistence -> runTransactionalStage(logHeader, sqrlClientRequest, deadline,
+											"process", () -> {
+												sqrlClientRequest.validateAgainstPersistence(sqrlPersistence);
+												return processClientRequest(servletRequest, correlator,
+														sqrlClientRequest, sqrlPersistence);
+											}))),
+							persistenceTimeoutMillis, "process"))
+					.handle((outcome, throwable) -> {
+						if (throwable == null) {
+							servletResponse.setStatus(HttpServletResponse.SC_OK);
+							return outcome;
+						}
+						final Throwable cause = SqrlAsyncUtil.unwrap(throwable);
+						final SqrlException exception = cause instanceof SqrlException ? (SqrlException) cause
+								: new SqrlException("Async SQRL client request failed: " + cause.getMessage(), cause);
+						SqrlClientRequestLoggingUtil.setLogHeader(logHeader);
+						try {
+							return handleClientRequestFailure(servletRequest, servletResponse, exception);
+						} finally {
+							SqrlClientRequestLoggingUtil.clearLogHeader();
+						}
+					}).thenCompose(outcome -> {
+						final SqrlTif tif = outcome.getTifBuilder().createTif();
+						final SqrlClientRequest sqrlClientRequest = outcome.getSqrlClientRequest();
+						return SqrlAsyncUtil.withCommitTimeout(timeoutScheduler, deadline -> track(transactions,
+								executeTimedTransaction(serviceNanos, sqrlPersistence -> runTransactionalStage(
+										logHeader, sqrlClientRequest, deadline, "reply",
+										() -> storeReply(servletRequest, correlator, outcome, tif, sqrlPersistence)))),
+								persistenceTimeoutMillis, "reply")
+								.handle((serverReply, throwable) -> {
+									restoreLogHeader(logHeader, sqrlClientRequest);
+									try {
+										if (throwable != null) {
+											logger.error("{}Error sending async SQRL reply",
+													SqrlClientRequestLoggingUtil.getLogHeader(),
+													SqrlAsyncUtil.unwrap(throwable));
+											servletResponse.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+										} else {
+											transmitReplyToSqrlClient(servletResponse, serverReply);
+											if (replyCacheKey != null && outcome.getException() == null) {
+												replyCache.put(replyCacheKey, serverReply);
+											}
+											logger.info("{}Processed sqrl client request replied with tif 0x{}",
+													SqrlClientRequestLoggingUtil.getLogHeader(), tif.toHexString());
+										}
+										return null;
+									} catch (final IOException e) {
+										throw new UncheckedIOException(e);
+									} finally {
+										SqrlClientRequestLoggingUtil.clearLogHeader();
+									}
+								});
+					});
+			final CompletableFuture<Void> replyStage;
+			if (correlatorLocks != null && correlatorParsed) {
+				// Signature verification has already started, only the persistence and reply stages wait their turn.
+				// The reply completes as soon as it is sent but the stripe is held until every transaction has ended
+				final CompletableFuture<Void> replied = new CompletableFuture<>();
+				correlatorLocks.runSerialized(correlator, () -> {
+					final CompletableFuture<Void> reply = sendCachedReplyAsync(servletRequest, servletResponse,
+							replyCacheKey, pipeline);
+					reply.whenComplete((result, throwable) -> completeWith(replied, result, throwable));
+					return reply.handle((result, throwable) -> null)
+							.thenCompose(ignored -> CompletableFuture
+									.allOf(transactions.toArray(new CompletableFuture<?>[0]))
+									.handle((result, throwable) -> null));
+				}).whenComplete((result, throwable) -> {
+					if (throwable != null) {
+						replied.completeExceptionally(throwable);
+					}
+				});
+				replyStage = replied;
+			} else {
+				replyStage = pipeline.get();
+			}
+			return replyStage
+					.whenComplete((result, throwable) -> releaseAdmission(backchannelAdmission, serviceNanos.get()));
+		} finally {
+			SqrlClientRequestLoggingUtil.clearLogHeader();
+		}
+	}
+
+	/**
+	 * @return the non-blocking persistence, whose work runs on a bounded pool sized by
+	 *         {@link SqrlConfig#getAsyncPersistenceThreadCount()}
+	 */
+	public SqrlAsyncPersistence getAsyncPersistence() {
+		return asyncPersistence;
+	}
+
+	/**
+	 * @return the admission controller for the login page methods, whose accepted and rejected counts can be monitored
+	 */
+	public SqrlAdmissionController getPagePrepAdmissionController() {
+		return pagePrepAdmission;
+	}
+
+	/**
+	 * @return the admission controller for the SQRL client request methods, whose accepted and rejected counts can be
+	 *         monitored
+	 */
+	public SqrlAdmissionController getBackchannelAdmissionController() {
+		return backchannelAdmission;
+	}
+
+	/**
+	 * @return the per IP and per correlator rate limiter for the SQRL client request methods, whose rejected counts can
+	 *         be monitored, or null if {@link SqrlConfig#isRateLimitEnabled()} is false
+	 */
+	public SqrlClientRequestRateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	/**
+	 * @return the cache which answers retried SQRL client requests, whose hit count can be monitored, or null if
+	 *         {@link SqrlConfig#isBackchannelReplyCacheEnabled()} is false
+	 */
+	public SqrlClientReplyCache getReplyCache() {
+		return replyCache;
+	}
+
+	/**
+	 * @return the locks which process SQRL client requests for the same correlator one at a time, or null if
+	 *         {@link SqrlConfig#getBackchannelCorrelatorLockStripes()} is 0
+	 */
+	public SqrlStripedLocks getCorrelatorLocks() {
+		return correlatorLocks;
+	}
+
+	/**
+	 * @return the source of nut counter values, which can also tell which node issued a nut
+	 */
+	public SqrlNutCounter getNutCounter() {
+		return nutCounter;
+	}
+
+	/**
+	 * @return how many SQRL client requests were rejected at each validation stage
+	 */
+	public SqrlClientRequestValidationStats getValidationStats() {
+		return validationStats;
+	}
+
+	/**
+	 * @return a snapshot of the active, queued, completed and rejected task counts of each of the SQRL thread pools
+	 */
+	public Map<SqrlExecutorType, SqrlExecutorPoolMetrics> getExecutorMetrics() {
+		return executors.getMetrics();
+	}
+
 	/**
 	 * The backchannel servlet which is accepting requests from SQRL clients should call this method to process the
 	 * request
@@ -241,102 +664,279 @@ public class SqrlServerOperations {
 	 */
 	public void handleSqrlClientRequest(final HttpServletRequest servletRequest,
 			final HttpServletResponse servletResponse) throws IOException {
+		if (config.isBackchannelRawBodyParsingEnabled()) {
+			SqrlClientRequestForm.readBody(servletRequest);
+		}
+		if (isSqrlClientRequestRateLimited(servletRequest)) {
+			SqrlClientRequestLoggingUtil.initLoggingHeader(servletRequest);
+			try {
+				rejectSqrlClientRequest(servletRequest, servletResponse, HTTP_STATUS_TOO_MANY_REQUESTS,
+						"rate limit exceeded");
+			} finally {
+				SqrlClientRequestLoggingUtil.clearLogHeader();
+			}
+			return;
+		}
+		final byte[] replyCacheKey = computeReplyCacheKey(servletRequest);
+		if (sendCachedReply(servletRequest, servletResponse, replyCacheKey)) {
+			return;
+		}
+		final Lock correlatorLock = findCorrelatorLock(servletRequest);
+		if (correlatorLock == null) {
+			handleSqrlClientRequestWithPermit(servletRequest, servletResponse, replyCacheKey);
+			return;
+		}
+		// The lock comes first so a request waiting on it doesn't hold an admission permit meanwhile
+		if (!tryLockCorrelator(correlatorLock)) {
+			SqrlClientRequestLoggingUtil.initLoggingHeader(servletRequest);
+			try {
+				rejectSqrlClientRequest(servletRequest, servletResponse, HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+						"another request for the same correlator is still in progress");
+			} finally {
+				SqrlClientRequestLoggingUtil.clearLogHeader();
+			}
+			return;
+		}
+		try {
+			// A duplicate which waited on the lock can be answered with the reply the first request cached
+			if (!sendCachedReply(servletRequest, servletResponse, replyCacheKey)) {
+				handleSqrlClientRequestWithPermit(servletRequest, servletResponse, replyCacheKey);
+			}
+		} finally {
+			correlatorLock.unlock();
+		}
+	}
+
+	private void handleSqrlClientRequestWithPermit(final HttpServletRequest servletRequest,
+			final HttpServletResponse servletResponse, final byte[] replyCacheKey) throws IOException {
+		if (!backchannelAdmission.tryAcquire()) {
+			SqrlClientRequestLoggingUtil.initLoggingHeader(servletRequest);
+			try {
+				rejectOverloadedSqrlClientRequest(servletRequest, servletResponse);
+			} finally {
+				SqrlClientRequestLoggingUtil.clearLogHeader();
+			}
+			return;
+		}
+		final long startNanos = System.nanoTime();
+		try {
+			handleAdmittedSqrlClientRequest(servletRequest, servletResponse, replyCacheKey);
+		} finally {
+			backchannelAdmission.release(System.nanoTime() - startNanos);
+		}
+	}
+
+	/**
+	 * A request none of whose work ran, because a pool rejected it or it failed before reaching a pool, says nothing
+	 * about latency so it must not adapt the limit
+	 */
+	private static void releaseAdmission(final SqrlAdmissionController admission, final long serviceNanos) {
+		if (serviceNanos == 0) {
+			admission.releaseIgnored();
+		} else {
+			admission.release(serviceNanos);
+		}
+	}
+
+	/**
+	 * @return the lock which serializes requests for the correlator of this request, or null if the locks are disabled
+	 *         or the correlator can't be parsed, in which case the request will fail validation anyway
+	 */
+	private Lock findCorrelatorLock(final HttpServletRequest servletRequest) {
+		if (correlatorLocks == null) {
+			return null;
+		}
+		try {
+			return correlatorLocks.getLock(SqrlClientRequest.parseCorrelatorOnly(servletRequest));
+		} catch (final SqrlException e) {
+			logger.debug("Skipping correlator lock, couldn't parse correlator", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Waits for any other request for the same correlator to finish so the two don't race on the same rows. The
+	 * container thread is blocked while waiting, for at most {@value #CORRELATOR_LOCK_WAIT_MILLIS}ms; if the other
+	 * request still hasn't finished by then the caller rejects this one with a transient error so the SQRL client
+	 * retries, by which time the reply to the first request is usually cached
+	 *
+	 * @return true if the lock was acquired and must be unlocked by the caller
+	 */
+	private boolean tryLockCorrelator(final Lock lock) {
+		try {
+			if (lock.tryLock(CORRELATOR_LOCK_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+				return true;
+			}
+			logger.warn("Timed out waiting for correlator lock");
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn("Interrupted waiting for correlator lock");
+		}
+		return false;
+	}
+
+	/**
+	 * Checks the per IP and then the per correlator rate. Only the IP address and the server param are looked at so
+	 * this is cheap enough to run before admission control. A request whose IP or correlator can't be determined is not
+	 * rate limited on that key; it will fail validation later anyway
+	 *
+	 * @return true if the request should be rejected
+	 */
+	private boolean isSqrlClientRequestRateLimited(final HttpServletRequest servletRequest) {
+		if (rateLimiter == null) {
+			return false;
+		}
+		try {
+			final byte[] clientIpAddress = new byte[SqrlIpAddressParser.IPV6_LENGTH];
+			final int clientIpAddressLength = determineClientIpAddress(servletRequest, config, clientIpAddress);
+			if (!rateLimiter.tryAcquireForIp(clientIpAddress, clientIpAddressLength)) {
+				return true;
+			}
+		} catch (final SqrlException e) {
+			logger.debug("Skipping IP rate limit check, couldn't determine client IP", e);
+		}
+		try {
+			return !rateLimiter.tryAcquireForCorrelator(SqrlClientRequest.parseCorrelatorOnly(servletRequest));
+		} catch (final SqrlException e) {
+			logger.debug("Skipping correlator rate limit check, couldn't parse correlator", e);
+			return false;
+		}
+	}
+
+	private void rejectOverloadedSqrlClientRequest(final HttpServletRequest servletRequest,
+			final HttpServletResponse servletResponse) throws IOException {
+		rejectSqrlClientRequest(servletRequest, servletResponse, HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+				"limit of " + backchannelAdmission.getLimit() + " concurrent requests reached");
+	}
+
+	/**
+	 * Replies to the SQRL client without doing any crypto or persistence work. The TRANSIENT_ERROR tif tells the client
+	 * it may retry
+	 */
+	private void rejectSqrlClientRequest(final HttpServletRequest servletRequest,
+			final HttpServletResponse servletResponse, final int httpStatus, final String reason) throws IOException {
+		logger.warn("{}Rejected SQRL client request, {}", SqrlClientRequestLoggingUtil.getLogHeader(), reason);
+		final SqrlTif tif = new SqrlTifBuilder().addFlag(SqrlTifFlag.COMMAND_FAILED)
+				.addFlag(SqrlTifFlag.TRANSIENT_ERROR).createTif();
+		servletResponse.setStatus(httpStatus);
+		try {
+			final SqrlClientReply reply = new SqrlClientReply(SqrlConstants.ERROR, tif,
+					configOperations.getSubsequentRequestPath(servletRequest), SqrlConstants.ERROR,
+					Collections.emptyMap());
+			transmitReplyToSqrlClient(servletResponse, reply.toBase64Bytes());
+		} catch (final SqrlException e) {
+			logger.error("{}Error sending rejected reply to SQRL client", SqrlClientRequestLoggingUtil.getLogHeader(),
+					e);
+		}
+	}
+
+	/**
+	 * @return the key of this request in the {@link #replyCache} or null if the cache is disabled or the request
+	 *         can't be keyed
+	 */
+	private byte[] computeReplyCacheKey(final HttpServletRequest servletRequest) {
+		if (replyCache == null) {
+			return null;
+		}
+		try {
+			final byte[] clientIpAddress = new byte[SqrlIpAddressParser.IPV6_LENGTH];
+			final int clientIpAddressLength = determineClientIpAddress(servletRequest, config, clientIpAddress);
+			return replyCache.computeKey(servletRequest, clientIpAddress, clientIpAddressLength);
+		} catch (final SqrlException e) {
+			logger.debug("Skipping reply cache, couldn't determine client IP", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Answers an exact duplicate of a recently processed request with the reply that was sent the first time. No
+	 * validation or persistence work is needed since the cache key covers every SQRL field of the request
+	 *
+	 * @return true if the reply was sent from the cache
+	 */
+	private boolean sendCachedReply(final HttpServletRequest servletRequest, final HttpServletResponse servletResponse,
+			final byte[] replyCacheKey) throws IOException {
+		final byte[] cachedReply = replyCacheKey == null ? null : replyCache.get(replyCacheKey);
+		if (cachedReply == null) {
+			return false;
+		}
+		SqrlClientRequestLoggingUtil.initLoggingHeader(servletRequest);
+		try {
+			logger.info("{}Answered duplicate SQRL client request from the reply cache",
+					SqrlClientRequestLoggingUtil.getLogHeader());
+			servletResponse.setStatus(HttpServletResponse.SC_OK);
+			transmitReplyToSqrlClient(servletResponse, cachedReply);
+			return true;
+		} finally {
+			SqrlClientRequestLoggingUtil.clearLogHeader();
+		}
+	}
+
+	/**
+	 * Async version of {@link #sendCachedReply(HttpServletRequest, HttpServletResponse, byte[])}, runs the pipeline if
+	 * the reply wasn't cached
+	 */
+	private CompletableFuture<Void> sendCachedReplyAsync(final HttpServletRequest servletRequest,
+			final HttpServletResponse servletResponse, final byte[] replyCacheKey,
+			final Supplier<CompletableFuture<Void>> pipeline) {
+		try {
+			if (sendCachedReply(servletRequest, servletResponse, replyCacheKey)) {
+				return CompletableFuture.completedFuture(null);
+			}
+		} catch (final IOException e) {
+			final CompletableFuture<Void> future = new CompletableFuture<>();
+			future.completeExceptionally(e);
+			return future;
+		}
+		return pipeline.get();
+	}
+
+	private void handleAdmittedSqrlClientRequest(final HttpServletRequest servletRequest,
+			final HttpServletResponse servletResponse, final byte[] replyCacheKey) throws IOException {
 		SqrlClientRequestLoggingUtil.initLoggingHeader(servletRequest);
 		if (logger.isInfoEnabled()) {
 			logger.info(SqrlUtil.buildLogMessageForSqrlClientRequest(servletRequest).toString());
 		}
 		String correlator = "unknown";
-		final SqrlTifBuilder tifBuilder = new SqrlTifBuilder();
-		SqrlInternalUserState sqrlInternalUserState = null;
 		String requestState = "invalid";
 		try {
-			String logHeader = "";
-			SqrlClientRequest sqrlClientRequest = null;
+			SqrlClientRequestOutcome outcome;
 			// Per the spec, SQRL transactions are atomic; so we create our persistence here and only commit after all
 			// processing is completed successfully
 			SqrlPersistence sqrlPersistence = createSqrlPersistence();
-			Exception exception = null;
 			try {
 				// Get the correlator first. Then, if the request is invalid, we can update the auth page saying so
 				correlator = SqrlClientRequest.parseCorrelatorOnly(servletRequest);
 
-				sqrlClientRequest = new SqrlClientRequest(servletRequest, sqrlPersistence, configOperations);
-				final SqrlClientRequestProcessor processor = new SqrlClientRequestProcessor(sqrlClientRequest,
-						sqrlPersistence);
-
-				logHeader = SqrlClientRequestLoggingUtil.updateLogHeader(
-						new StringBuilder(sqrlClientRequest.getNegotiatedSqrlProtocolVersion()).append(" ")
-						.append(sqrlClientRequest.getClientCommand()).append(":: ").toString());
-
-				if (checkIfIpsMatch(sqrlClientRequest.getNut(), servletRequest)) {
-					tifBuilder.addFlag(SqrlTifFlag.IPS_MATCHED);
-				}
-				SqrlNutTokenUtil.validateNut(correlator, sqrlClientRequest.getNut(), config, sqrlPersistence);
-				sqrlInternalUserState = processor.processClientCommand();
-				if (sqrlInternalUserState == IDK_EXISTS) {
-					tifBuilder.addFlag(SqrlTifFlag.CURRENT_ID_MATCH);
-				} else if (sqrlInternalUserState == PIDK_EXISTS) {
-					tifBuilder.addFlag(SqrlTifFlag.PREVIOUS_ID_MATCH);
-				}
+				final SqrlClientRequest sqrlClientRequest = new SqrlClientRequest(servletRequest, configOperations,
+						validationStats);
+				SqrlClientRequestLoggingUtil.updateLogHeader(buildLogHeaderSuffix(sqrlClientRequest));
+				sqrlClientRequest.validate(sqrlPersistence);
+				outcome = processClientRequest(servletRequest, correlator, sqrlClientRequest, sqrlPersistence);
 				servletResponse.setStatus(HttpServletResponse.SC_OK);
 				requestState = "OK";
 				sqrlPersistence.closeCommit();
 			} catch (final SqrlException e) {
-				exception = e;
 				sqrlPersistence.closeRollback();
-				tifBuilder.clearAllFlags().addFlag(SqrlTifFlag.COMMAND_FAILED);
-				if (e instanceof SqrlClientRequestProcessingException) {
-					tifBuilder.addFlag(((SqrlClientRequestProcessingException) e).getTifToAdd());
-					logger.error("{}Received invalid SQRL request: {} of {}", SqrlClientRequestLoggingUtil.getLogHeader(),
-							e.getMessage(), SqrlUtil.buildLogMessageForSqrlClientRequest(servletRequest), e);
-				} else {
-					logger.error("{}Generate exception processing SQRL request: {} of {}",
-							SqrlClientRequestLoggingUtil.getLogHeader(), e.getMessage(),
-							SqrlUtil.buildLogMessageForSqrlClientRequest(servletRequest), e);
-				}
-				// The SQRL spec is unclear about HTTP return codes. It mentions returning a 404 for an invalid request
-				// but 404 is for page not found. We leave the use of 404 for an actual page not found condition and use
-				// 500 here
-				servletResponse.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+				outcome = handleClientRequestFailure(servletRequest, servletResponse, e);
 			}
 
 			// We have processed the request, success or failure. Now prep and transmit the reply
-			String serverReplyString = ""; // for logging
+			final String logHeader = SqrlClientRequestLoggingUtil.getLogHeader();
+			byte[] serverReply = new byte[0]; // for logging
 			sqrlPersistence = persistenceFactory.createSqrlPersistence();
 			try {
-				final SqrlTif tif = tifBuilder.createTif();
-				final boolean isInErrorState = exception != null;
-				serverReplyString = buildReply(servletRequest, sqrlClientRequest,
-						tif, correlator, sqrlInternalUserState, isInErrorState);
-				// Don't use AutoClosable here, we will handle it ourselves
-				final SqrlCorrelator sqrlCorrelator = sqrlPersistence.fetchSqrlCorrelatorRequired(correlator);
-				if (isInErrorState || sqrlInternalUserState == DISABLED) {
-					tifBuilder.addFlag(SqrlTifFlag.COMMAND_FAILED);
-					// update the correlator with the proper error state
-					SqrlAuthenticationStatus authErrorState = SqrlAuthenticationStatus.ERROR_SQRL_INTERNAL;
-					if (exception instanceof SqrlInvalidRequestException) {
-						authErrorState = SqrlAuthenticationStatus.ERROR_BAD_REQUEST;
-					} else if (sqrlInternalUserState == DISABLED) {
-						authErrorState = SqrlAuthenticationStatus.SQRL_USER_DISABLED;
-					}
-					sqrlCorrelator.setAuthenticationStatus(authErrorState);
-					// There should be no further requests so remove the parrot value
-					if (sqrlCorrelator.getTransientAuthDataTable()
-							.remove(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT) == null) {
-						logger.warn("{}Tried to remove server parrot since we are in error state but it doesn't exist",
-								SqrlClientRequestLoggingUtil.getLogHeader());
-					}
-				} else {
-					// Store the serverReplyString in the server parrot value so we can validate it on the clients next
-					// request
-					sqrlCorrelator.getTransientAuthDataTable().put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT,
-							serverReplyString);
-				}
+				final SqrlTif tif = outcome.getTifBuilder().createTif();
+				serverReply = storeReply(servletRequest, correlator, outcome, tif, sqrlPersistence);
 				sqrlPersistence.closeCommit();
-				transmitReplyToSqrlClient(servletResponse, serverReplyString);
+				transmitReplyToSqrlClient(servletResponse, serverReply);
+				if (replyCacheKey != null && outcome.getException() == null) {
+					replyCache.put(replyCacheKey, serverReply);
+				}
 				logger.info("{}Processed sqrl client request replied with tif 0x{}", logHeader, tif.toHexString());
 			} catch (final SqrlException e) {
 				sqrlPersistence.closeRollback();
+				final String serverReplyString = new String(serverReply, StandardCharsets.US_ASCII);
 				logger.error("{}Error sending SQRL reply with param: {}", logHeader, requestState,
 						SqrlUtil.base64UrlDecodeToStringOrErrorMessage(serverReplyString), e);
 				logger.debug("{}Request {}, responded with   B64: {}", logHeader, requestState, serverReplyString);
@@ -346,11 +946,106 @@ public class SqrlServerOperations {
 		}
 	}
 
-	private String buildReply(final HttpServletRequest servletRequest, final SqrlClientRequest sqrlRequest,
+	/**
+	 * The CPU bound part of the async pipeline. Signatures are verified here, before the persistence stages, so that
+	 * Ed25519 work never holds a persistence thread
+	 */
+	private SqrlClientRequest parseAndVerifySignatures(final HttpServletRequest servletRequest) throws SqrlException {
+		final SqrlClientRequest sqrlClientRequest = new SqrlClientRequest(servletRequest, configOperations,
+				validationStats);
+		sqrlClientRequest.validateSignatures();
+		return sqrlClientRequest;
+	}
+
+	/**
+	 * Marks the nut as used, then executes the client command. The request must have been fully validated within the
+	 * same transaction. The caller is responsible for committing or rolling back the given persistence
+	 */
+	private SqrlClientRequestOutcome processClientRequest(final HttpServletRequest servletRequest,
+			final String correlator, final SqrlClientRequest sqrlClientRequest, final SqrlPersistence sqrlPersistence)
+					throws SqrlException {
+		final SqrlTifBuilder tifBuilder = new SqrlTifBuilder();
+		final SqrlClientRequestProcessor processor = new SqrlClientRequestProcessor(sqrlClientRequest,
+				sqrlPersistence);
+		if (checkIfIpsMatch(sqrlClientRequest.getNut(), servletRequest)) {
+			tifBuilder.addFlag(SqrlTifFlag.IPS_MATCHED);
+		}
+		SqrlNutTokenUtil.markNutAsUsed(sqrlClientRequest.getNut(), config, sqrlPersistence);
+		final SqrlInternalUserState sqrlInternalUserState = processor.processClientCommand();
+		if (sqrlInternalUserState == IDK_EXISTS) {
+			tifBuilder.addFlag(SqrlTifFlag.CURRENT_ID_MATCH);
+		} else if (sqrlInternalUserState == PIDK_EXISTS) {
+			tifBuilder.addFlag(SqrlTifFlag.PREVIOUS_ID_MATCH);
+		}
+		return new SqrlClientRequestOutcome(sqrlClientRequest, sqrlInternalUserState, tifBuilder, null);
+	}
+
+	private SqrlClientRequestOutcome handleClientRequestFailure(final HttpServletRequest servletRequest,
+			final HttpServletResponse servletResponse, final SqrlException e) {
+		final SqrlTifBuilder tifBuilder = new SqrlTifBuilder().addFlag(SqrlTifFlag.COMMAND_FAILED);
+		if (e instanceof SqrlClientRequestProcessingException) {
+			tifBuilder.addFlag(((SqrlClientRequestProcessingException) e).getTifToAdd());
+			logger.error("{}Received invalid SQRL request: {} of {}", SqrlClientRequestLoggingUtil.getLogHeader(),
+					e.getMessage(), SqrlUtil.buildLogMessageForSqrlClientRequest(servletRequest), e);
+		} else {
+			logger.error("{}Generate exception processing SQRL request: {} of {}",
+					SqrlClientRequestLoggingUtil.getLogHeader(), e.getMessage(),
+					SqrlUtil.buildLogMessageForSqrlClientRequest(servletRequest), e);
+		}
+		// The SQRL spec is unclear about HTTP return codes. It mentions returning a 404 for an invalid request
+		// but 404 is for page not found. We leave the use of 404 for an actual page not found condition and use
+		// 500 here
+		servletResponse.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		return new SqrlClientRequestOutcome(null, null, tifBuilder, e);
+	}
+
+	/**
+	 * Builds the reply for the SQRL client and stores it as the server parrot, or records the error state on the
+	 * correlator. The caller is responsible for committing or rolling back the given persistence
+	 *
+	 * @return the encoded reply to be sent to the SQRL client
+	 */
+	private byte[] storeReply(final HttpServletRequest servletRequest, final String correlator,
+			final SqrlClientRequestOutcome outcome, final SqrlTif tif, final SqrlPersistence sqrlPersistence)
+					throws SqrlException {
+		final Exception exception = outcome.getException();
+		final SqrlInternalUserState sqrlInternalUserState = outcome.getSqrlInternalUserState();
+		final boolean isInErrorState = exception != null;
+		final byte[] serverReply = buildReply(servletRequest, outcome.getSqrlClientRequest(), tif, correlator,
+				sqrlInternalUserState, isInErrorState, sqrlPersistence);
+		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.fetchSqrlCorrelatorRequired(correlator);
+		if (isInErrorState || sqrlInternalUserState == DISABLED) {
+			outcome.getTifBuilder().addFlag(SqrlTifFlag.COMMAND_FAILED);
+			// update the correlator with the proper error state
+			SqrlAuthenticationStatus authErrorState = SqrlAuthenticationStatus.ERROR_SQRL_INTERNAL;
+			if (exception instanceof SqrlInvalidRequestException) {
+				authErrorState = SqrlAuthenticationStatus.ERROR_BAD_REQUEST;
+			} else if (sqrlInternalUserState == DISABLED) {
+				authErrorState = SqrlAuthenticationStatus.SQRL_USER_DISABLED;
+			}
+			sqrlCorrelator.setAuthenticationStatus(authErrorState);
+			// There should be no further requests so remove the parrot value, including the one a correlator created
+			// before the serverParrotHash column existed has in the transient data
+			@SuppressWarnings("deprecation")
+			final boolean legacyParrotRemoved = sqrlCorrelator.getTransientAuthDataTable()
+					.remove(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT) != null;
+			if (sqrlCorrelator.getServerParrotHash() == null && !legacyParrotRemoved) {
+				logger.warn("{}Tried to remove server parrot since we are in error state but it doesn't exist",
+						SqrlClientRequestLoggingUtil.getLogHeader());
+			}
+			sqrlCorrelator.setServerParrot(null);
+		} else {
+			// Store the serverReply in the server parrot value so we can validate it on the clients next
+			// request
+			sqrlCorrelator.setEncodedServerParrot(serverReply);
+		}
+		return serverReply;
+	}
+
+	private byte[] buildReply(final HttpServletRequest servletRequest, final SqrlClientRequest sqrlRequest,
 			final SqrlTif tif, final String correlator, final SqrlInternalUserState sqrlInternalUserState,
-			final boolean isInErrorState) throws SqrlException {
+			final boolean isInErrorState, final SqrlPersistence sqrlPersistence) throws SqrlException {
 		final String logHeader = SqrlClientRequestLoggingUtil.getLogHeader();
-		final SqrlPersistence sqrlPersistence = createSqrlPersistence();
 		try {
 			final URI sqrlServerUrl = new URI(servletRequest.getRequestURL().toString());
 			final String subsequentRequestPath = configOperations.getSubsequentRequestPath(servletRequest);
@@ -362,7 +1057,10 @@ public class SqrlServerOperations {
 						Collections.emptyMap());
 			} else {
 				// Nut is one time use, so generate a new one for the reply
-				final SqrlNutToken replyNut = buildNut(sqrlServerUrl, determineClientIpAddress(servletRequest, config));
+				final byte[] clientIpAddress = new byte[SqrlIpAddressParser.IPV6_LENGTH];
+				final int clientIpAddressLength = determineClientIpAddress(servletRequest, config, clientIpAddress);
+				final SqrlNutToken replyNut = buildNut(SqrlNutTokenUtil.ipAddressToInt(sqrlServerUrl, clientIpAddress,
+						clientIpAddressLength, config));
 
 				final Map<String, String> additionalDataTable = buildReplyAdditionalDataTable(sqrlRequest,
 						sqrlInternalUserState, sqrlPersistence);
@@ -371,12 +1069,13 @@ public class SqrlServerOperations {
 						additionalDataTable);
 			}
 
-			final String serverReplyString = reply.toBase64();
-			logger.debug("{}Build serverReplyString: {}", logHeader, serverReplyString);
-			sqrlPersistence.closeCommit();
-			return serverReplyString;
+			final byte[] serverReply = reply.toBase64Bytes();
+			if (logger.isDebugEnabled()) {
+				logger.debug("{}Build serverReplyString: {}", logHeader,
+						new String(serverReply, StandardCharsets.US_ASCII));
+			}
+			return serverReply;
 		} catch (final URISyntaxException e) {
-			sqrlPersistence.closeRollback();
 			throw new SqrlException(
 					SqrlClientRequestLoggingUtil.getLogHeader() + "Error converting servletRequest.getRequestURL() to URI.  "
 							+ "servletRequest.getRequestURL()=" + servletRequest.getRequestURL(),
@@ -384,6 +1083,99 @@ public class SqrlServerOperations {
 		}
 	}
 
+	private static String buildLogHeaderSuffix(final SqrlClientRequest sqrlClientRequest) {
+		return new StringBuilder(sqrlClientRequest.getNegotiatedSqrlProtocolVersion()).append(" ")
+				.append(sqrlClientRequest.getClientCommand()).append(":: ").toString();
+	}
+
+	/**
+	 * Async stages run on pool threads, so the log header must be carried over from the request thread
+	 */
+	private static void restoreLogHeader(final String logHeader, final SqrlClientRequest sqrlClientRequest) {
+		SqrlClientRequestLoggingUtil.setLogHeader(logHeader);
+		if (sqrlClientRequest != null) {
+			SqrlClientRequestLoggingUtil.updateLogHeader(buildLogHeaderSuffix(sqrlClientRequest));
+		}
+	}
+
+	private static <T> T runStage(final String logHeader, final SqrlClientRequest sqrlClientRequest,
+			final SqrlStage<T> stage) {
+		restoreLogHeader(logHeader, sqrlClientRequest);
+		try {
+			return stage.run();
+		} catch (final SqrlException e) {
+			throw new CompletionException(e);
+		} finally {
+			SqrlClientRequestLoggingUtil.clearLogHeader();
+		}
+	}
+
+	/**
+	 * @return a stage which runs the given one and adds how long it ran for to serviceNanos
+	 */
+	private static <T> SqrlStage<T> timed(final AtomicLong serviceNanos, final SqrlStage<T> stage) {
+		return () -> {
+			final long stageStartNanos = System.nanoTime();
+			try {
+				return stage.run();
+			} finally {
+				serviceNanos.addAndGet(System.nanoTime() - stageStartNanos);
+			}
+		};
+	}
+
+	/**
+	 * Runs the work via {@link #getAsyncPersistence()}, adding the time from when it starts running until its
+	 * transaction has ended to serviceNanos. Time spent queued for a persistence thread is not counted
+	 */
+	private <T> CompletionStage<T> executeTimedTransaction(final AtomicLong serviceNanos,
+			final Function<SqrlPersistence, T> work) {
+		final AtomicLong workStartNanos = new AtomicLong(Long.MIN_VALUE);
+		return asyncPersistence.executeInTransaction(sqrlPersistence -> {
+			workStartNanos.set(System.nanoTime());
+			return work.apply(sqrlPersistence);
+		}).whenComplete((result, throwable) -> {
+			final long startNanos = workStartNanos.get();
+			if (startNanos != Long.MIN_VALUE) {
+				serviceNanos.addAndGet(System.nanoTime() - startNanos);
+			}
+		});
+	}
+
+	private static <T> CompletableFuture<T> track(final List<CompletableFuture<?>> transactions,
+			final CompletionStage<T> transaction) {
+		final CompletableFuture<T> future = transaction.toCompletableFuture();
+		transactions.add(future);
+		return future;
+	}
+
+	private static <T> void completeWith(final CompletableFuture<T> future, final T result,
+			final Throwable throwable) {
+		if (throwable == null) {
+			future.complete(result);
+		} else {
+			future.completeExceptionally(throwable);
+		}
+	}
+
+	/**
+	 * Runs a persistence stage of the async pipeline. The stage is skipped if it timed out while queued, and its
+	 * transaction is rolled back if it timed out while running, see {@link SqrlCommitDeadline}
+	 */
+	private static <T> T runTransactionalStage(final String logHeader, final SqrlClientRequest sqrlClientRequest,
+			final SqrlCommitDeadline deadline, final String stageName, final SqrlStage<T> stage) {
+		return runStage(logHeader, sqrlClientRequest, () -> {
+			if (deadline.isExpired()) {
+				throw new SqrlException("SQRL " + stageName + " stage timed out before it started");
+			}
+			final T result = stage.run();
+			if (!deadline.tryCommit()) {
+				throw new SqrlException("SQRL " + stageName + " stage timed out, rolling back");
+			}
+			return result;
+		});
+	}
+
 	private Map<String, String> buildReplyAdditionalDataTable(final SqrlClientRequest sqrlRequest,
 			final SqrlInternalUserState sqrlInternalUserState,
 			final SqrlPersistence sqrlPersistence) {
@@ -418,35 +1210,65 @@ public class SqrlServerOperations {
 
 	static InetAddress determineClientIpAddress(final HttpServletRequest servletRequest, final SqrlConfig config)
 			throws SqrlException {
+		final byte[] address = new byte[SqrlIpAddressParser.IPV6_LENGTH];
+		final int length = determineClientIpAddress(servletRequest, config, address);
+		try {
+			// getByAddress never does a lookup
+			return InetAddress.getByAddress(Arrays.copyOf(address, length));
+		} catch (final UnknownHostException e) {
+			throw new SqrlException("Caught exception trying to determine clients IP address", e);
+		}
+	}
+
+	/**
+	 * Finds the users IP from the first of {@link SqrlConfig#getIpForwardedForHeaders()} which holds a valid IP
+	 * address literal, else from the remote address. Values are parsed as literals only so a hostname in a header can
+	 * never trigger a DNS lookup on the request thread
+	 *
+	 * @param address
+	 *            receives the address, must have room for {@link SqrlIpAddressParser#IPV6_LENGTH} bytes
+	 * @return the number of bytes written to address
+	 * @throws SqrlException
+	 *             if no IP address could be determined
+	 */
+	static int determineClientIpAddress(final HttpServletRequest servletRequest, final SqrlConfig config,
+			final byte[] address) throws SqrlException {
 		final String[] headersToCheck = config.getIpForwardedForHeaders();
-		String ipToParse = null;
 		if (headersToCheck != null) {
 			for (final String headerToFind : headersToCheck) {
-				ipToParse = servletRequest.getHeader(headerToFind);
-				if (SqrlUtil.isNotBlank(ipToParse)) {
-					break;
+				final String headerValue = servletRequest.getHeader(headerToFind);
+				if (SqrlUtil.isBlank(headerValue)) {
+					continue;
 				}
+				final int length = SqrlIpAddressParser.parseForwardedFor(headerValue,
+						config.getIpForwardedForTrustedHops(), address);
+				if (length > 0) {
+					return length;
+				}
+				logger.warn("{}Ignoring {} header without a valid IP address: {}",
+						SqrlClientRequestLoggingUtil.getLogHeader(), headerToFind, headerValue);
 			}
 		}
-		if (SqrlUtil.isBlank(ipToParse)) {
-			ipToParse = servletRequest.getRemoteAddr();
-		}
-		try {
-			return InetAddress.getByName(ipToParse);
-		} catch (final UnknownHostException e) {
-			throw new SqrlException("Caught exception trying to determine clients IP address", e);
+		final String remoteAddr = servletRequest.getRemoteAddr();
+		final int length = remoteAddr == null ? -1 : SqrlIpAddressParser.parse(remoteAddr, address);
+		if (length < 0) {
+			throw new SqrlException("Could not determine clients IP address from remote address " + remoteAddr);
 		}
+		return length;
 	}
 
-	private void transmitReplyToSqrlClient(final HttpServletResponse response, final String serverReplyString)
+	/**
+	 * Writes the already encoded reply straight to the output stream; base64URL is pure ASCII so no charset encoding is
+	 * needed
+	 */
+	private void transmitReplyToSqrlClient(final HttpServletResponse response, final byte[] serverReply)
 			throws IOException {
 		// Send the reply to the SQRL client
 		response.setContentType("text/html;charset=utf-8");
-		response.setContentLength(serverReplyString.length());
-		try (PrintWriter writer = response.getWriter()) {
-			writer.write(serverReplyString);
-			writer.flush();
-			writer.close();
+		response.setContentLength(serverReply.length);
+		try (ServletOutputStream outputStream = response.getOutputStream()) {
+			outputStream.write(serverReply);
+			outputStream.flush();
 		}
 	}
 
@@ -456,8 +1278,13 @@ public class SqrlServerOperations {
 		if (SqrlUtil.isBlank(ipAddressString)) {
 			throw new SqrlException(SqrlClientRequestLoggingUtil.getLogHeader() + "No ip address found in sqrl request");
 		}
-		final InetAddress requesterIpAddress = SqrlUtil.ipStringToInetAddresss(servletRequest.getRemoteAddr());
-		return SqrlNutTokenUtil.validateInetAddress(requesterIpAddress, nut.getInetInt(), config);
+		final byte[] requesterIpAddress = new byte[SqrlIpAddressParser.IPV6_LENGTH];
+		final int length = SqrlIpAddressParser.parse(ipAddressString, requesterIpAddress);
+		if (length < 0) {
+			throw new SqrlException(
+					SqrlClientRequestLoggingUtil.getLogHeader() + "Not an IP address literal <" + ipAddressString + ">");
+		}
+		return SqrlNutTokenUtil.validateIpAddress(requesterIpAddress, length, nut.getInetInt(), config);
 
 	}
 
@@ -578,6 +1405,24 @@ public class SqrlServerOperations {
 		}
 	}
 
+	/**
+	 * Lightweight alternative to {@link #fetchSqrlCorrelator(HttpServletRequest)} for browser status polling, which
+	 * only needs the authentication status
+	 *
+	 * @return the status or null if the correlator cookie was not present or the correlator does not exist
+	 */
+	public SqrlAuthenticationStatus fetchSqrlCorrelatorStatus(final HttpServletRequest request) {
+		final String correlatorString = extractSqrlCorrelatorStringFromRequestCookie(request);
+		if (SqrlUtil.isBlank(correlatorString)) {
+			return null;
+		}
+		try (SqrlAutoCloseablePersistence sqrlPersistence = createSqrlPersistence()) {
+			final SqrlAuthenticationStatus status = sqrlPersistence.fetchSqrlCorrelatorStatus(correlatorString);
+			sqrlPersistence.closeCommit();
+			return status;
+		}
+	}
+
 	/**
 	 * Invoked to see if a web app user has a corresponding SQRL identity registered
 	 *
@@ -627,4 +1472,89 @@ public class SqrlServerOperations {
 		deleteSqrlAuthCookies(request, response);
 		deleteSqrlCorrelator(sqrlCorrelator);
 	}
+
+	/**
+	 * A unit of async work which may fail with a {@link SqrlException}
+	 */
+	@FunctionalInterface
+	private interface SqrlStage<T> {
+		T run() throws SqrlException;
+	}
+
+	/**
+	 * The result of processing a SQRL client request, which is needed to build the reply
+	 *
+	 * @author Dave Badia
+	 *
+	 */
+	private static class SqrlClientRequestOutcome {
+		private final SqrlClientRequest		sqrlClientRequest;
+		private final SqrlInternalUserState	sqrlInternalUserState;
+		private final SqrlTifBuilder		tifBuilder;
+		private final SqrlException			exception;
+
+		private SqrlClientRequestOutcome(final SqrlClientRequest sqrlClientRequest,
+				final SqrlInternalUserState sqrlInternalUserState, final SqrlTifBuilder tifBuilder,
+				final SqrlException exception) {
+			this.sqrlClientRequest = sqrlClientRequest;
+			this.sqrlInternalUserState = sqrlInternalUserState;
+			this.tifBuilder = tifBuilder;
+			this.exception = exception;
+		}
+
+		/**
+		 * @return the parsed request or null if processing failed
+		 */
+		private SqrlClientRequest getSqrlClientRequest() {
+			return sqrlClientRequest;
+		}
+
+		private SqrlInternalUserState getSqrlInternalUserState() {
+			return sqrlInternalUserState;
+		}
+
+		private SqrlTifBuilder getTifBuilder() {
+			return tifBuilder;
+		}
+
+		/**
+		 * @return the exception which caused processing to fail or null if it succeeded
+		 */
+		private SqrlException getException() {
+			return exception;
+		}
+	}
+
+	/**
+	 * Backstop in case the container times out an async request before our own stage timeouts fire
+	 *
+	 * @author Dave Badia
+	 *
+	 */
+	private static class SqrlBackchannelAsyncListener implements AsyncListener {
+		@Override
+		public void onTimeout(final AsyncEvent event) throws IOException {
+			logger.error("Container timed out async SQRL request before a reply was sent");
+			final ServletResponse response = event.getAsyncContext().getResponse();
+			if (response instanceof HttpServletResponse && !response.isCommitted()) {
+				((HttpServletResponse) response).setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			}
+			event.getAsyncContext().complete();
+		}
+
+		@Override
+		public void onError(final AsyncEvent event) throws IOException {
+			logger.error("Error during async SQRL request", event.getThrowable());
+		}
+
+		@Override
+		public void onComplete(final AsyncEvent event) throws IOException {
+			// Nothing to do
+		}
+
+		@Override
+		public void onStartAsync(final AsyncEvent event) throws IOException {
+			// Nothing to do
+		}
+	}
 }
@@ -1,9 +1,12 @@
 package com.github.dbadia.sqrl.server.backchannel;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Map;
 
 import com.github.dbadia.sqrl.server.enums.SqrlClientParam;
-import com.github.dbadia.sqrl.server.util.SqrlUtil;
+import com.github.dbadia.sqrl.server.util.SqrlBase64Url;
+import com.github.dbadia.sqrl.server.util.SqrlBufferPool;
 
 // @formatter:off
 /**
@@ -16,6 +19,11 @@ public class SqrlClientReply {
 	private static final String	VERSION_1	= "1";
 	public static final String	SEPARATOR	= "\r\n";
 
+	/**
+	 * Replies are typically a few hundred bytes, larger ones get a temporary buffer
+	 */
+	private static final SqrlBufferPool	BUFFER_POOL	= new SqrlBufferPool(1024, 64);
+
 	private final String				nut;
 	private final String				tifInHex;
 	private final String				queryWithoutNut;
@@ -43,17 +51,75 @@ public class SqrlClientReply {
 		this.additionalDataTable = additionalDataTable;
 	}
 
+	/**
+	 * @return the reply in SQRL base64URL format
+	 * @see #toBase64Bytes()
+	 */
 	public String toBase64() {
-		final StringBuilder buf = new StringBuilder();
-		buf.append("ver=").append(VERSION_1).append(SEPARATOR);
-		buf.append("nut=").append(nut).append(SEPARATOR);
-		buf.append("tif=").append(tifInHex).append(SEPARATOR);
-		buf.append("qry=").append(queryWithoutNut).append("?nut=").append(nut);
-		buf.append("&").append(SqrlClientParam.cor.toString()).append("=").append(correlator).append(SEPARATOR);
-		for (final Map.Entry<String, String> entry : additionalDataTable.entrySet()) {
-			buf.append(entry.getKey()).append("=").append(entry.getValue()).append(SEPARATOR);
+		return new String(toBase64Bytes(), StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Writes the reply fields into a pooled buffer and base64URL encodes them straight into the returned array, without
+	 * building any intermediate Strings. The result is both the response body and the server parrot value
+	 *
+	 * @return the reply in SQRL base64URL format as US-ASCII bytes
+	 */
+	public byte[] toBase64Bytes() {
+		final ReplyBuffer buf = new ReplyBuffer(BUFFER_POOL.acquire());
+		try {
+			buf.append("ver=").append(VERSION_1).append(SEPARATOR);
+			buf.append("nut=").append(nut).append(SEPARATOR);
+			buf.append("tif=").append(tifInHex).append(SEPARATOR);
+			buf.append("qry=").append(queryWithoutNut).append("?nut=").append(nut);
+			buf.append("&").append(SqrlClientParam.cor.toString()).append("=").append(correlator).append(SEPARATOR);
+			for (final Map.Entry<String, String> entry : additionalDataTable.entrySet()) {
+				buf.append(entry.getKey()).append("=").append(entry.getValue()).append(SEPARATOR);
+			}
+			final byte[] encoded = new byte[SqrlBase64Url.encodedLength(buf.length)];
+			SqrlBase64Url.encode(buf.bytes, 0, buf.length, encoded, 0);
+			return encoded;
+		} finally {
+			BUFFER_POOL.release(buf.bytes);
+		}
+	}
+
+	/**
+	 * Growable byte buffer which writes ASCII directly and only takes the slower path for other characters
+	 */
+	private static class ReplyBuffer {
+		private byte[]	bytes;
+		private int		length;
+
+		private ReplyBuffer(final byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		private ReplyBuffer append(final String toAppend) {
+			ensureCapacity(toAppend.length());
+			for (int i = 0; i < toAppend.length(); i++) {
+				final char c = toAppend.charAt(i);
+				if (c >= 0x80) {
+					// Rare, restart this string as UTF-8
+					final byte[] utf8 = toAppend.substring(i).getBytes(StandardCharsets.UTF_8);
+					ensureCapacity(utf8.length);
+					System.arraycopy(utf8, 0, bytes, length, utf8.length);
+					length += utf8.length;
+					return this;
+				}
+				bytes[length++] = (byte) c;
+			}
+			return this;
+		}
+
+		private void ensureCapacity(final int toAdd) {
+			if (length + toAdd > bytes.length) {
+				// Return the pooled array now; the larger replacement is dropped when released
+				final byte[] pooled = bytes;
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + toAdd));
+				BUFFER_POOL.release(pooled);
+			}
 		}
-		return SqrlUtil.sqrlBase64UrlEncode(buf.toString());
 	}
 
 }
@@ -0,0 +1,142 @@
+package com.github.dbadia.sqrl.server.backchannel;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.github.dbadia.sqrl.server.SqrlConfig;
+import com.github.dbadia.sqrl.server.enums.SqrlSignatureType;
+
+/**
+ * Internal use only.
+ * <p/>
+ * Remembers the replies to recently processed SQRL client requests so that a client which retries after a network
+ * hiccup gets the same reply again, instead of a nut replayed error or a second run through signature verification
+ * and persistence. Entries are keyed by a SHA-256 of the client IP and every SQRL field of the request; the server
+ * field contains the nut, so a request which differs in any way is a miss.
+ * <p/>
+ * The table is a fixed size array with one entry per slot, so memory use is bounded and a colliding put simply
+ * replaces the older entry
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlClientReplyCache {
+	private static final String[] KEY_FIELDS = buildKeyFields();
+
+	private final AtomicReferenceArray<Entry>	table;
+	private final int							mask;
+	private final long							ttlNanos;
+	private final AtomicLong					hitCount	= new AtomicLong(0);
+
+	public SqrlClientReplyCache(final SqrlConfig config) {
+		int size = Integer.highestOneBit(Math.max(config.getBackchannelReplyCacheSize(), 1));
+		if (size < config.getBackchannelReplyCacheSize()) {
+			size <<= 1;
+		}
+		this.table = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+		this.ttlNanos = TimeUnit.SECONDS.toNanos(config.getBackchannelReplyCacheTtlSeconds());
+	}
+
+	/**
+	 * @param clientIpAddress
+	 *            as returned by {@link com.github.dbadia.sqrl.server.util.SqrlIpAddressParser}
+	 * @return the cache key for the request or null if it is missing the client or server field, in which case it can't
+	 *         have been processed successfully
+	 */
+	public byte[] computeKey(final HttpServletRequest servletRequest, final byte[] clientIpAddress,
+			final int clientIpAddressLength) {
+		final SqrlClientRequestForm form = SqrlClientRequestForm.of(servletRequest);
+		final MessageDigest digest = newDigest();
+		digest.update(clientIpAddress, 0, clientIpAddressLength);
+		for (final String field : KEY_FIELDS) {
+			final String value = form.getParameter(field);
+			if (value == null) {
+				if (field.equals("client") || field.equals("server")) {
+					return null;
+				}
+				digest.update((byte) 0);
+				continue;
+			}
+			final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			// Length prefix so that values can't run into each other
+			digest.update((byte) 1);
+			digest.update((byte) (bytes.length >>> 24));
+			digest.update((byte) (bytes.length >>> 16));
+			digest.update((byte) (bytes.length >>> 8));
+			digest.update((byte) bytes.length);
+			digest.update(bytes);
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * @return the reply previously stored for this key or null if there is none or it has expired
+	 */
+	public byte[] get(final byte[] key) {
+		final Entry entry = table.get(slot(key));
+		if (entry == null || !MessageDigest.isEqual(entry.key, key) || System.nanoTime() - entry.expiresAtNanos > 0) {
+			return null;
+		}
+		hitCount.incrementAndGet();
+		return entry.reply;
+	}
+
+	/**
+	 * Stores the reply that was sent for the request with the given key. Only replies to successfully processed
+	 * requests should be stored
+	 */
+	public void put(final byte[] key, final byte[] reply) {
+		table.set(slot(key), new Entry(key, reply, System.nanoTime() + ttlNanos));
+	}
+
+	/**
+	 * @return the number of duplicate requests answered from the cache
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	private int slot(final byte[] key) {
+		// The key is a SHA-256 so any 4 bytes are uniformly distributed
+		final int hash = (key[0] & 0xff) << 24 | (key[1] & 0xff) << 16 | (key[2] & 0xff) << 8 | (key[3] & 0xff);
+		return hash & mask;
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
+
+	private static String[] buildKeyFields() {
+		final SqrlSignatureType[] signatureTypes = SqrlSignatureType.values();
+		final String[] fields = new String[2 + signatureTypes.length];
+		fields[0] = "client";
+		fields[1] = "server";
+		for (int i = 0; i < signatureTypes.length; i++) {
+			fields[2 + i] = signatureTypes[i].toString();
+		}
+		return fields;
+	}
+
+	private static class Entry {
+		private final byte[]	key;
+		private final byte[]	reply;
+		private final long		expiresAtNanos;
+
+		private Entry(final byte[] key, final byte[] reply, final long expiresAtNanos) {
+			this.key = key;
+			this.reply = reply;
+			this.expiresAtNanos = expiresAtNanos;
+		}
+	}
+}
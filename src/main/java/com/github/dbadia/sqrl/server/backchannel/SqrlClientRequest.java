@@ -1,12 +1,10 @@
 package com.github.dbadia.sqrl.server.backchannel;
 
-import java.io.BufferedReader;
-import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.http.HttpServletRequest;
@@ -14,6 +12,7 @@ import javax.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.dbadia.sqrl.server.SqrlConfig;
 import com.github.dbadia.sqrl.server.SqrlConfigOperations;
 import com.github.dbadia.sqrl.server.SqrlPersistence;
 import com.github.dbadia.sqrl.server.enums.SqrlClientParam;
@@ -21,6 +20,7 @@ import com.github.dbadia.sqrl.server.enums.SqrlRequestCommand;
 import com.github.dbadia.sqrl.server.enums.SqrlRequestOpt;
 import com.github.dbadia.sqrl.server.enums.SqrlServerSideKey;
 import com.github.dbadia.sqrl.server.enums.SqrlSignatureType;
+import com.github.dbadia.sqrl.server.enums.SqrlValidationStage;
 import com.github.dbadia.sqrl.server.exception.SqrlClientRequestProcessingException;
 import com.github.dbadia.sqrl.server.exception.SqrlException;
 import com.github.dbadia.sqrl.server.exception.SqrlInvalidDataException;
@@ -39,8 +39,6 @@ import com.github.dbadia.sqrl.server.util.SqrlVersionUtil;
 public class SqrlClientRequest {
 	private static final Logger logger = LoggerFactory.getLogger(SqrlClientRequest.class);
 
-	private static final String NUT_EQUALS = "nut=";
-
 	private final String logHeader;
 
 	private final Integer				negotiatedSqrlProtocolVersion;
@@ -54,120 +52,217 @@ public class SqrlClientRequest {
 	private final String				clientParam;
 	private final String				serverParam;
 	private final String				correlator;
+	private final Map<SqrlSignatureType, String>	signatureParamTable	= new EnumMap<>(SqrlSignatureType.class);
+	private final SqrlClientRequestValidationStats	validationStats;
 
 	public SqrlClientRequest(final HttpServletRequest servletRequest, final SqrlPersistence persistence,
 			final SqrlConfigOperations configOps) throws SqrlClientRequestProcessingException {
+		this(servletRequest, configOps, new SqrlClientRequestValidationStats());
+		try {
+			validate(persistence);
+		} catch (final SqrlClientRequestProcessingException e) {
+			throw e;
+		} catch (final SqrlException e) {
+			throw new SqrlClientRequestProcessingException(SqrlTifFlag.COMMAND_FAILED,
+					"Error validating SQRL client request: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Runs the {@link SqrlValidationStage#FORMAT} and {@link SqrlValidationStage#NUT} stages, neither of which access
+	 * persistence or verify signatures. The caller must then invoke {@link #validate(SqrlPersistence)}, or
+	 * {@link #validateAgainstPersistence(SqrlPersistence)} and {@link #validateSignatures()}, before acting on the
+	 * request
+	 *
+	 * @param validationStats
+	 *            where rejections are counted
+	 */
+	public SqrlClientRequest(final HttpServletRequest servletRequest, final SqrlConfigOperations configOps,
+			final SqrlClientRequestValidationStats validationStats) throws SqrlClientRequestProcessingException {
 		this.logHeader = SqrlClientRequestLoggingUtil.getLogHeader();
 		this.servletRequest = servletRequest;
-		this.clientParam = getRequiredParameter(servletRequest, "client");
-		this.serverParam = getRequiredParameter(servletRequest, "server");
-		this.nut = new SqrlNutToken(configOps, extractFromSqrlCsvString(serverParam, NUT_EQUALS));
-		final String decoded = SqrlUtil.base64UrlDecodeDataFromSqrlClientToString(clientParam);
-		// parse server - not a name value pair, just the query string we gave
-		this.correlator = extractFromSqrlCsvString(serverParam, SqrlClientParam.cor.toString());
-
-		// parse client
-		final Map<String, String> clientNameValuePairTable = parseLinesToNameValueMap(decoded);
-		// clientVersionString format is 1[,n],[n-m]
-		final String clientVersionString = clientNameValuePairTable.get(SqrlClientParam.ver.toString());
-		final Collection<Integer> clientVersionsSupported = SqrlVersionUtil
-				.parseClientVersionString(clientVersionString);
-		final Integer commonProtocolVersion= SqrlVersionUtil.findHighestCommonVersion(SqrlConstants.SUPPORTED_SQRL_VERSIONS,
-				clientVersionsSupported);
-		if (commonProtocolVersion == null) {
-			throw new SqrlClientRequestProcessingException("No common SQRL protocl version found");
-		}
-		// Sanity check; we probably need to take different actions for different versions so account for that here
-		if (!SqrlConstants.SQRL_VERSION_1.equals(commonProtocolVersion)) {
-			throw new SqrlClientRequestProcessingException(
-					"Unable to process SQRL protcol version " + commonProtocolVersion);
-		}
-		this.negotiatedSqrlProtocolVersion = commonProtocolVersion;
-
-		// parse opt
-		final String optListString = clientNameValuePairTable.get(SqrlClientParam.opt.toString());
-		if (SqrlUtil.isNotBlank(optListString)) {
-			for (final String optString : optListString.split("~")) {
-				try {
-					final SqrlRequestOpt clientOpt = SqrlRequestOpt.valueOf(optString);
-					if(!optList.add(clientOpt)) {
-						logger.warn("{}Client sent opt {} more than once in clientParam of {}", logHeader, clientOpt, clientParam);
+		this.validationStats = validationStats;
+		SqrlValidationStage stage = SqrlValidationStage.FORMAT;
+		try {
+			this.clientParam = getRequiredParameter(servletRequest, "client");
+			this.serverParam = getRequiredParameter(servletRequest, "server");
+			for (final SqrlSignatureType aSignatureType : SqrlSignatureType.values()) {
+				final String signatureParamValue = SqrlClientRequestForm.of(servletRequest)
+						.getParameter(aSignatureType.toString());
+				if (SqrlUtil.isNotBlank(signatureParamValue)) {
+					signatureParamTable.put(aSignatureType, getRequiredParameter(servletRequest,
+							aSignatureType.toString()));
+				}
+			}
+			// All requests must have the ids signature
+			if (!signatureParamTable.containsKey(SqrlSignatureType.ids)) {
+				throw new SqrlInvalidRequestException("ids was missing in SQRL client request: " + clientParam);
+			}
+			// parse server - not a name value pair, just the query string we gave
+			final SqrlClientRequestParser parser = new SqrlClientRequestParser();
+			parser.parseServerParam(serverParam);
+			this.correlator = parser.getCorrelator();
+
+			// parse client
+			parser.parseClientParam(clientParam);
+			final Map<SqrlClientParam, String> clientValueTable = parser.getClientValueTable();
+			// clientVersionString format is 1[,n],[n-m]
+			final String clientVersionString = clientValueTable.get(SqrlClientParam.ver);
+			final Collection<Integer> clientVersionsSupported = SqrlVersionUtil
+					.parseClientVersionString(clientVersionString);
+			final Integer commonProtocolVersion = SqrlVersionUtil
+					.findHighestCommonVersion(SqrlConstants.SUPPORTED_SQRL_VERSIONS, clientVersionsSupported);
+			if (commonProtocolVersion == null) {
+				throw new SqrlClientRequestProcessingException("No common SQRL protocl version found");
+			}
+			// Sanity check; we probably need to take different actions for different versions so account for that
+			// here
+			if (!SqrlConstants.SQRL_VERSION_1.equals(commonProtocolVersion)) {
+				throw new SqrlClientRequestProcessingException(
+						"Unable to process SQRL protcol version " + commonProtocolVersion);
+			}
+			this.negotiatedSqrlProtocolVersion = commonProtocolVersion;
+
+			// parse opt
+			final String optListString = clientValueTable.get(SqrlClientParam.opt);
+			if (SqrlUtil.isNotBlank(optListString)) {
+				int optStart = 0;
+				while (optStart <= optListString.length()) {
+					int optEnd = optListString.indexOf('~', optStart);
+					if (optEnd == -1) {
+						optEnd = optListString.length();
+					}
+					final String optString = optListString.substring(optStart, optEnd);
+					optStart = optEnd + 1;
+					if (optString.isEmpty()) {
+						continue;
+					}
+					try {
+						final SqrlRequestOpt clientOpt = SqrlRequestOpt.valueOf(optString);
+						if (!optList.add(clientOpt)) {
+							logger.warn("{}Client sent opt {} more than once in clientParam of {}", logHeader,
+									clientOpt, clientParam);
+						}
+					} catch (final IllegalArgumentException e) {
+						throw new SqrlInvalidRequestException("Unknown SQRL client option '" + optString + "'", e);
 					}
-				} catch (final IllegalArgumentException e) {
-					throw new SqrlInvalidRequestException("Unknown SQRL client option '" + optString + "'", e);
 				}
 			}
-		}
 
-		// parse keys
-		for (final Map.Entry<String, String> entry : parseLinesToNameValueMap(decoded).entrySet()) {
-			final SqrlServerSideKey keyType = SqrlServerSideKey.valueOfOrNull(entry.getKey());
-			if (keyType == null) {
-				continue;
+			// parse keys, the parser has already rejected keys sent more than once with different values
+			for (final Map.Entry<SqrlServerSideKey, String> entry : parser.getKeyTable().entrySet()) {
+				requestKeyTableRaw.put(entry.getKey(), SqrlUtil.base64UrlDecodeDataFromSqrlClient(entry.getValue()));
+				requestKeyTableBase64.put(entry.getKey(), entry.getValue());
 			}
-			final String keyBase64 = entry.getValue();
-			// Sanity check for a client sending the same key more than once
-			if (requestKeyTableRaw.containsKey(keyType)) {
-				// Uh oh, is the value different?
-				if (requestKeyTableBase64.get(keyType).equals(entry.getValue())) {
-					logger.info("Client sent the key " + keyType
-							+ " multiple times but with the same value; this should be reported as a minor bug to the client author.  clientParam="
-							+ clientParam);
-				} else {
-					throw new SqrlInvalidRequestException("Client sent the key " + keyType
-							+ " multiple times in the same request, each with different values: " + clientParam);
-				}
-			} else {
-				// Store the keys in our tables
-				final byte[] keyBytes = SqrlUtil.base64UrlDecodeDataFromSqrlClient(entry.getValue());
-				requestKeyTableRaw.put(keyType, keyBytes);
-				requestKeyTableBase64.put(keyType, keyBase64);
+			logger.debug("{}keys found in request: {}", logHeader, requestKeyTableBase64.keySet());
+
+			final String clientCommandString = clientValueTable.get(SqrlClientParam.cmd);
+			try {
+				this.clientCommand = SqrlRequestCommand.valueOf(clientCommandString.toUpperCase());
+			} catch (final IllegalArgumentException | NullPointerException e) {
+				// We handle all SQRL v1 verbs, so don't set FUNCTIONS_NOT_SUPPORTED, treat it as an invalid
+				// request
+				// instead
+				throw new SqrlInvalidRequestException(
+						logHeader + "Recevied invalid SQRL command from client: '" + clientCommandString + "'");
 			}
+
+			stage = SqrlValidationStage.NUT;
+			this.nut = new SqrlNutToken(configOps, parser.getNut());
+			SqrlNutTokenUtil.validateNutExpiry(nut, configOps.getSqrlConfig());
+		} catch (final SqrlClientRequestProcessingException e) {
+			validationStats.recordRejection(stage);
+			throw e;
 		}
-		logger.debug("{}keys found in request: {}", logHeader, requestKeyTableBase64.keySet());
+	}
 
-		// Per the SQRL spec, since the server response is not signed, we must check the value that comes
-		// back to ensure it wasn't tampered with
-		final String expectedServerValue = persistence.fetchTransientAuthData(correlator,
-				SqrlConstants.TRANSIENT_NAME_SERVER_PARROT);
-		if (SqrlUtil.isBlank(expectedServerValue)) {
-			throw new SqrlInvalidRequestException("Server parrot was not found in persistence");
+	/**
+	 * Runs the remaining validation stages in order of cost: {@link SqrlValidationStage#REPLAY},
+	 * {@link SqrlValidationStage#SERVER_PARROT} and then {@link SqrlValidationStage#SIGNATURE}
+	 *
+	 * @throws SqrlException
+	 *             if any validation fails
+	 */
+	public void validate(final SqrlPersistence persistence) throws SqrlException {
+		validateAgainstPersistence(persistence);
+		validateSignatures();
+	}
+
+	/**
+	 * Runs the {@link SqrlValidationStage#REPLAY} and {@link SqrlValidationStage#SERVER_PARROT} stages. The nut must
+	 * then be marked as used, see {@link SqrlNutTokenUtil#markNutAsUsed(SqrlNutToken, SqrlConfig, SqrlPersistence)}
+	 *
+	 * @throws SqrlException
+	 *             if the nut was replayed or the server parrot doesn't match
+	 */
+	public void validateAgainstPersistence(final SqrlPersistence persistence) throws SqrlException {
+		try {
+			SqrlNutTokenUtil.validateNutNotReplayed(nut, persistence);
+		} catch (final SqrlException e) {
+			validationStats.recordRejection(SqrlValidationStage.REPLAY);
+			throw e;
 		}
-		if (!expectedServerValue.equals(serverParam)) {
-			logger.warn("{}Server parrot mismatch: Expected={}, Received={}", logHeader, expectedServerValue,
-					serverParam);
-			throw new SqrlInvalidRequestException("Server parrot mismatch, possible tampering");
+		try {
+			validateServerParrot(persistence);
+		} catch (final SqrlException e) {
+			validationStats.recordRejection(SqrlValidationStage.SERVER_PARROT);
+			throw e;
 		}
+	}
 
-		// Validate the signatures
-		boolean idsFound = false;
-		for (final SqrlSignatureType aSignatureType : SqrlSignatureType.values()) {
-			final String signatureParamValue = servletRequest.getParameter(aSignatureType.toString());
-			if (SqrlUtil.isNotBlank(signatureParamValue)) {
-				// Validate the signature
-				validateSignature(SqrlSignatureType.getSignatureToKeyParamTable().get(aSignatureType),
-						signatureParamValue);
-				if (aSignatureType == SqrlSignatureType.ids) {
-					idsFound = true;
-				}
+	/**
+	 * Runs the {@link SqrlValidationStage#SIGNATURE} stage, which is CPU bound and does not access persistence
+	 *
+	 * @throws SqrlInvalidRequestException
+	 *             if any signature is invalid
+	 */
+	public void validateSignatures() throws SqrlInvalidRequestException {
+		try {
+			for (final Map.Entry<SqrlSignatureType, String> entry : signatureParamTable.entrySet()) {
+				validateSignature(SqrlSignatureType.getSignatureToKeyParamTable().get(entry.getKey()),
+						entry.getValue());
 			}
+		} catch (final SqrlInvalidRequestException e) {
+			validationStats.recordRejection(SqrlValidationStage.SIGNATURE);
+			throw e;
 		}
+	}
 
-		// All requests must have the ids signature
-		if (!idsFound) {
-			throw new SqrlInvalidRequestException(
-					"ids was missing in SQRL client request: " + clientNameValuePairTable);
+	/**
+	 * Per the SQRL spec, since the server response is not signed, we must check the value that comes back to ensure it
+	 * wasn't tampered with
+	 *
+	 * @throws SqrlInvalidRequestException
+	 *             if the server parrot is missing or does not match the value we sent
+	 */
+	private void validateServerParrot(final SqrlPersistence persistence) throws SqrlInvalidRequestException {
+		final String expectedServerParrotHash = persistence.fetchServerParrotHash(correlator);
+		if (SqrlUtil.isBlank(expectedServerParrotHash)) {
+			validateLegacyServerParrot(persistence);
+			return;
 		}
+		if (!expectedServerParrotHash.equals(SqrlUtil.hashServerParrot(serverParam))) {
+			logger.warn("{}Server parrot mismatch: Expected hash={}, Received={}", logHeader, expectedServerParrotHash,
+					serverParam);
+			throw new SqrlInvalidRequestException("Server parrot mismatch, possible tampering");
+		}
+	}
 
-		final String clientCommandString = clientNameValuePairTable.get(SqrlClientParam.cmd.toString());
-		try {
-			this.clientCommand = SqrlRequestCommand.valueOf(clientCommandString.toUpperCase());
-		} catch (final IllegalArgumentException e) {
-			// We handle all SQRL v1 verbs, so don't set FUNCTIONS_NOT_SUPPORTED, treat it as an invalid
-			// request
-			// instead
-			throw new SqrlInvalidRequestException(
-					logHeader + "Recevied invalid SQRL command from client: '" + clientCommandString + "'");
+	/**
+	 * Correlators created before the upgrade which added sqrl_correlator.serverParrotHash still have the plain server
+	 * parrot in their transient data
+	 */
+	@SuppressWarnings("deprecation")
+	private void validateLegacyServerParrot(final SqrlPersistence persistence) throws SqrlInvalidRequestException {
+		final String expectedServerValue = persistence.fetchSqrlCorrelator(correlator) == null ? null
+				: persistence.fetchTransientAuthData(correlator, SqrlConstants.TRANSIENT_NAME_SERVER_PARROT);
+		if (SqrlUtil.isBlank(expectedServerValue)) {
+			throw new SqrlInvalidRequestException("Server parrot was not found in persistence");
+		}
+		if (!expectedServerValue.equals(serverParam)) {
+			logger.warn("{}Server parrot mismatch: Expected={}, Received={}", logHeader, expectedServerValue,
+					serverParam);
+			throw new SqrlInvalidRequestException("Server parrot mismatch, possible tampering");
 		}
 	}
 
@@ -175,49 +270,18 @@ public class SqrlClientRequest {
 	 * The correlator is our only key to determining which user this is, so it's critical we parse this out first
 	 */
 	public static String parseCorrelatorOnly(final HttpServletRequest servletRequest) throws SqrlException {
-		final String serverParam = getRequiredParameter(servletRequest, "server");
-		// parse server - not a name value pair, just the query string we gave
-		return extractFromSqrlCsvString(serverParam, SqrlClientParam.cor.toString());
+		final SqrlClientRequestParser parser = new SqrlClientRequestParser();
+		parser.parseServerParam(getRequiredParameter(servletRequest, "server"));
+		return parser.getCorrelator();
 	}
 
 	private static String getRequiredParameter(final HttpServletRequest servletRequest, final String requiredParamName)
 			throws SqrlInvalidRequestException {
-		final String value = servletRequest.getParameter(requiredParamName);
+		final SqrlClientRequestForm form = SqrlClientRequestForm.of(servletRequest);
+		final String value = form.getParameter(requiredParamName);
 		if (value == null || value.trim().length() == 0) {
-			throw new SqrlInvalidRequestException("Missing required parameter " + requiredParamName
-					+ ".  Request contained: " + SqrlUtil.buildRequestParamList(servletRequest));
-		}
-		try {
-			SqrlSanitize.inspectIncomingSqrlData(value);
-		} catch (final SqrlInvalidDataException e) {
-			// Convert to SqrlInvalidRequestException since it came from a SQRL client app
-			throw new SqrlInvalidRequestException(e.getMessage(), e);
-		}
-		return value;
-	}
-
-	static String extractFromSqrlCsvString(final String serverParam, final String variableToFind)
-			throws SqrlInvalidRequestException {
-		final String toSearch = SqrlUtil.base64UrlDecodeDataFromSqrlClientToString(serverParam);
-		String toFind = variableToFind;
-		if (!variableToFind.endsWith("=")) {
-			toFind += "=";
-		}
-		// Find the nut param
-		int index = toSearch.indexOf(toFind);
-		if (index == -1) {
-			throw new SqrlInvalidRequestException("Could not find " + toFind + " in server param: " + toSearch);
-		}
-		String value = toSearch.substring(index + toFind.length());
-		// Need to find the end of the nut string - could be & if from our login page URL or SqrlServerReply.SEPARATOR
-		// if from a server reply
-		index = value.indexOf(SqrlClientReply.SEPARATOR);
-		if (index > -1) {
-			value = value.substring(0, index);
-		}
-		index = value.indexOf('&');
-		if (index > -1) {
-			value = value.substring(0, index);
+			throw new SqrlInvalidRequestException(
+					"Missing required parameter " + requiredParamName + ".  Request contained: " + form);
 		}
 		try {
 			SqrlSanitize.inspectIncomingSqrlData(value);
@@ -251,26 +315,6 @@ public class SqrlClientRequest {
 		}
 	}
 
-	private Map<String, String> parseLinesToNameValueMap(final String decoded) throws SqrlInvalidRequestException {
-		final Map<String, String> table = new TreeMap<>();
-		final BufferedReader reader = new BufferedReader(new StringReader(decoded));
-		try {
-			String line = reader.readLine();
-			while (line != null) {
-				final String[] data = line.split("=");
-				if (data.length != 2) {
-					logger.info("Received empty param " + line);
-				} else {
-					table.put(data[0], data[1]);
-				}
-				line = reader.readLine();
-			}
-			return table;
-		} catch (final Exception e) {
-			throw new SqrlInvalidRequestException("Exception parsing decoded <" + decoded + ">", e);
-		}
-	}
-
 	public SqrlRequestCommand getClientCommand() {
 		return clientCommand;
 	}
@@ -314,6 +358,6 @@ public class SqrlClientRequest {
 	 * @return true if the request contained a valid urs signature
 	 */
 	public boolean containsUrs() {
-		return SqrlUtil.isNotBlank(servletRequest.getParameter(SqrlSignatureType.urs.toString()));
+		return signatureParamTable.containsKey(SqrlSignatureType.urs);
 	}
 }
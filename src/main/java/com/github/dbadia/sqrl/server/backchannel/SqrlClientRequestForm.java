@@ -0,0 +1,258 @@
+package com.github.dbadia.sqrl.server.backchannel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dbadia.sqrl.server.enums.SqrlSignatureType;
+import com.github.dbadia.sqrl.server.util.SqrlBufferPool;
+import com.github.dbadia.sqrl.server.util.SqrlConstants;
+import com.github.dbadia.sqrl.server.util.SqrlUtil;
+
+/**
+ * Internal use only.
+ * <p/>
+ * The handful of form fields a SQRL client sends. {@link #readBody(HttpServletRequest)} reads them straight from the
+ * application/x-www-form-urlencoded body into a pooled buffer, which avoids the container building its generic
+ * parameter map. Otherwise the fields come from {@link HttpServletRequest#getParameter(String)} as usual
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlClientRequestForm {
+	private static final Logger logger = LoggerFactory.getLogger(SqrlClientRequestForm.class);
+
+	private static final String		REQUEST_ATTRIBUTE	= SqrlClientRequestForm.class.getName();
+	private static final String		FORM_CONTENT_TYPE	= "application/x-www-form-urlencoded";
+	private static final String[]	FIELD_NAMES			= buildFieldNames();
+	private static final byte[][]	FIELD_NAME_BYTES	= toBytes(FIELD_NAMES);
+	/**
+	 * Each field is limited to {@link SqrlConstants#MAX_SQRL_TOKEN_SIZE}, allow for the names and separators too
+	 */
+	static final int				MAX_BODY_BYTES		= FIELD_NAMES.length * (SqrlConstants.MAX_SQRL_TOKEN_SIZE + 16);
+	/**
+	 * Large enough for typical SQRL client requests, larger ones get a temporary buffer
+	 */
+	private static final int		POOLED_BUFFER_SIZE	= 8192;
+	private static final int		MAX_POOLED_BUFFERS	= 64;
+
+	private static final SqrlBufferPool BUFFER_POOL = new SqrlBufferPool(POOLED_BUFFER_SIZE, MAX_POOLED_BUFFERS);
+
+	private final HttpServletRequest	servletRequest;
+	private final String[]				values	= new String[FIELD_NAMES.length];
+
+	private SqrlClientRequestForm(final HttpServletRequest servletRequest) {
+		this.servletRequest = servletRequest;
+	}
+
+	/**
+	 * Reads the SQRL fields from the body of the request and stores the result on the request so that
+	 * {@link #of(HttpServletRequest)} returns it. Must be called before anything calls
+	 * {@link HttpServletRequest#getParameter(String)} and, once called, the other parameters of the request are no
+	 * longer available. If the request is not a form post, or the body was already consumed, the fields come from
+	 * {@link HttpServletRequest#getParameter(String)} instead
+	 *
+	 * @throws IOException
+	 *             if the body could not be read
+	 */
+	public static SqrlClientRequestForm readBody(final HttpServletRequest servletRequest) throws IOException {
+		final String contentType = servletRequest.getContentType();
+		if (contentType == null || !contentType.toLowerCase().startsWith(FORM_CONTENT_TYPE)) {
+			return of(servletRequest);
+		}
+		final int contentLength = servletRequest.getContentLength();
+		if (contentLength > MAX_BODY_BYTES) {
+			logger.warn("{}SQRL client request body of {} bytes exceeds max of {}, ignoring",
+					SqrlClientRequestLoggingUtil.getLogHeader(), contentLength, MAX_BODY_BYTES);
+			return store(servletRequest, new SqrlClientRequestForm(null));
+		}
+		final byte[] pooled = BUFFER_POOL.acquire();
+		byte[] buffer = contentLength > pooled.length ? new byte[contentLength] : pooled;
+		try {
+			final InputStream is = servletRequest.getInputStream();
+			int length = 0;
+			while (true) {
+				if (length == buffer.length) {
+					// Usually the body exactly fills a buffer sized from the content length, so only grow the buffer
+					// if there really is more to read
+					final int next = is.read();
+					if (next == -1) {
+						break;
+					}
+					if (length >= MAX_BODY_BYTES) {
+						logger.warn("{}SQRL client request body exceeds max of {} bytes, ignoring",
+								SqrlClientRequestLoggingUtil.getLogHeader(), MAX_BODY_BYTES);
+						return store(servletRequest, new SqrlClientRequestForm(null));
+					}
+					buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, MAX_BODY_BYTES));
+					buffer[length++] = (byte) next;
+				}
+				final int read = is.read(buffer, length, buffer.length - length);
+				if (read == -1) {
+					break;
+				}
+				length += read;
+			}
+			if (length == 0) {
+				// Someone already consumed the body, so the container has the parameters
+				return of(servletRequest);
+			}
+			final SqrlClientRequestForm form = new SqrlClientRequestForm(null);
+			form.parse(buffer, length);
+			return store(servletRequest, form);
+		} finally {
+			BUFFER_POOL.release(pooled);
+		}
+	}
+
+	/**
+	 * @return the form stored by {@link #readBody(HttpServletRequest)} or, if it was not called, one backed by
+	 *         {@link HttpServletRequest#getParameter(String)}
+	 */
+	public static SqrlClientRequestForm of(final HttpServletRequest servletRequest) {
+		final Object form = servletRequest.getAttribute(REQUEST_ATTRIBUTE);
+		return form instanceof SqrlClientRequestForm ? (SqrlClientRequestForm) form
+				: new SqrlClientRequestForm(servletRequest);
+	}
+
+	/**
+	 * @return true if the form was read from the body, in which case the servlet parameter map is not populated
+	 */
+	public static boolean isBodyRead(final HttpServletRequest servletRequest) {
+		return servletRequest.getAttribute(REQUEST_ATTRIBUTE) != null;
+	}
+
+	private static SqrlClientRequestForm store(final HttpServletRequest servletRequest,
+			final SqrlClientRequestForm form) {
+		servletRequest.setAttribute(REQUEST_ATTRIBUTE, form);
+		return form;
+	}
+
+	/**
+	 * @return the value of the given field or null if not present; only client, server and the signature
+	 *         fields are available when read from the body
+	 */
+	public String getParameter(final String name) {
+		if (servletRequest != null) {
+			return servletRequest.getParameter(name);
+		}
+		for (int i = 0; i < FIELD_NAMES.length; i++) {
+			if (FIELD_NAMES[i].equals(name)) {
+				return values[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Scans name=value pairs separated by &. Like {@link HttpServletRequest#getParameter(String)}, the first value
+	 * wins. Fields we don't use are skipped without creating Strings
+	 */
+	private void parse(final byte[] buffer, final int length) throws UnsupportedEncodingException {
+		int pairStart = 0;
+		while (pairStart < length) {
+			int pairEnd = pairStart;
+			int equalsIndex = -1;
+			while (pairEnd < length && buffer[pairEnd] != '&') {
+				if (equalsIndex == -1 && buffer[pairEnd] == '=') {
+					equalsIndex = pairEnd;
+				}
+				pairEnd++;
+			}
+			if (equalsIndex != -1) {
+				final int fieldIndex = findField(buffer, pairStart, equalsIndex - pairStart);
+				if (fieldIndex != -1 && values[fieldIndex] == null) {
+					values[fieldIndex] = decodeValue(buffer, equalsIndex + 1, pairEnd);
+				}
+			}
+			pairStart = pairEnd + 1;
+		}
+	}
+
+	private static int findField(final byte[] buffer, final int nameStart, final int nameLength) {
+		for (int i = 0; i < FIELD_NAME_BYTES.length; i++) {
+			final byte[] name = FIELD_NAME_BYTES[i];
+			if (name.length != nameLength) {
+				continue;
+			}
+			int j = 0;
+			while (j < nameLength && buffer[nameStart + j] == name[j]) {
+				j++;
+			}
+			if (j == nameLength) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * SQRL values are base64url so they rarely need URL decoding; only take the slow path if they do
+	 *
+	 * @return the value or null if it is not validly URL encoded
+	 */
+	private static String decodeValue(final byte[] buffer, final int start, final int end)
+			throws UnsupportedEncodingException {
+		final String value = new String(buffer, start, end - start, StandardCharsets.US_ASCII);
+		for (int i = start; i < end; i++) {
+			if (buffer[i] == '%' || buffer[i] == '+') {
+				try {
+					return URLDecoder.decode(value, SqrlConstants.UTF8);
+				} catch (final IllegalArgumentException e) {
+					logger.warn("{}Invalid URL encoding in SQRL client request: {}",
+							SqrlClientRequestLoggingUtil.getLogHeader(), value);
+					return null;
+				}
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * client, server and one per {@link SqrlSignatureType}
+	 */
+	private static String[] buildFieldNames() {
+		final SqrlSignatureType[] signatureTypes = SqrlSignatureType.values();
+		final String[] names = new String[2 + signatureTypes.length];
+		names[0] = "client";
+		names[1] = "server";
+		for (int i = 0; i < signatureTypes.length; i++) {
+			names[2 + i] = signatureTypes[i].toString();
+		}
+		return names;
+	}
+
+	private static byte[][] toBytes(final String[] strings) {
+		final byte[][] bytes = new byte[strings.length][];
+		for (int i = 0; i < strings.length; i++) {
+			bytes[i] = strings[i].getBytes(StandardCharsets.US_ASCII);
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return the fields for logging
+	 */
+	@Override
+	public String toString() {
+		if (servletRequest != null) {
+			return SqrlUtil.buildRequestParamList(servletRequest);
+		}
+		final StringBuilder buf = new StringBuilder();
+		for (final String name : FIELD_NAMES) {
+			final String value = getParameter(name);
+			if (value != null) {
+				buf.append(name).append("=").append(value).append("  ");
+			}
+		}
+		return buf.toString();
+	}
+}
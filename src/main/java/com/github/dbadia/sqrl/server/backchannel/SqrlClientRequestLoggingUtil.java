@@ -22,6 +22,10 @@ public class SqrlClientRequestLoggingUtil {
 		// util class
 	}
 
+	/**
+	 * Every entry point must call {@link #clearLogHeader()} when done: platform pool threads would otherwise carry the
+	 * header into the next request. Virtual threads are never reused, so there a header can only leak as garbage
+	 */
 	private static final ThreadLocal<String> threadLocalLogHeader = new ThreadLocal<String>() {
 		@Override
 		protected String initialValue() {
@@ -52,6 +56,17 @@ public class SqrlClientRequestLoggingUtil {
 		return logHeader;
 	}
 
+	/**
+	 * Internal use only.
+	 *
+	 * @param logHeader
+	 *            a header previously obtained from {@link #getLogHeader()}, typically on another thread when a request
+	 *            is processed asynchronously
+	 */
+	public static void setLogHeader(final String logHeader) {
+		threadLocalLogHeader.set(logHeader);
+	}
+
 	public static void clearLogHeader() {
 		threadLocalLogHeader.remove();
 	}
@@ -0,0 +1,225 @@
+package com.github.dbadia.sqrl.server.backchannel;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dbadia.sqrl.server.enums.SqrlClientParam;
+import com.github.dbadia.sqrl.server.enums.SqrlServerSideKey;
+import com.github.dbadia.sqrl.server.exception.SqrlInvalidDataException;
+import com.github.dbadia.sqrl.server.exception.SqrlInvalidRequestException;
+import com.github.dbadia.sqrl.server.util.SqrlBase64Url;
+import com.github.dbadia.sqrl.server.util.SqrlSanitize;
+
+/**
+ * Internal use only.
+ * <p/>
+ * Single pass parser for the SQRL client and server params. Each param is base64url decoded once into a buffer which
+ * is reused for the next param, then scanned byte by byte; only the values we actually need become Strings
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlClientRequestParser {
+	private static final Logger logger = LoggerFactory.getLogger(SqrlClientRequestParser.class);
+
+	private static final byte[]					NUT_EQUALS_BYTES	= "nut=".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[]					COR_EQUALS_BYTES	= "cor=".getBytes(StandardCharsets.US_ASCII);
+	private static final SqrlClientParam[]		CLIENT_PARAMS		= SqrlClientParam.values();
+	private static final byte[][]				CLIENT_PARAM_NAMES	= toNameBytes(CLIENT_PARAMS);
+	private static final SqrlServerSideKey[]	KEYS				= SqrlServerSideKey.values();
+	private static final byte[][]				KEY_NAMES			= toNameBytes(KEYS);
+	/**
+	 * Setting this bit converts an ASCII upper case letter to lower case
+	 */
+	private static final int					ASCII_LOWER_CASE_BIT	= 0x20;
+
+	private final Map<SqrlClientParam, String>		clientValueTable	= new EnumMap<>(SqrlClientParam.class);
+	private final Map<SqrlServerSideKey, String>	keyTable			= new EnumMap<>(SqrlServerSideKey.class);
+	private byte[]									buffer				= new byte[0];
+	private int										length;
+	private String									nut;
+	private String									correlator;
+
+	/**
+	 * Extracts the nut and correlator from the server param in a single scan
+	 *
+	 * @throws SqrlInvalidRequestException
+	 *             if the param can't be decoded or either value is missing or invalid
+	 */
+	public void parseServerParam(final String serverParam) throws SqrlInvalidRequestException {
+		decode(serverParam);
+		int nutStart = -1;
+		int corStart = -1;
+		for (int i = 0; i < length && (nutStart == -1 || corStart == -1); i++) {
+			if (nutStart == -1 && matchesAt(NUT_EQUALS_BYTES, i, false)) {
+				nutStart = i + NUT_EQUALS_BYTES.length;
+			} else if (corStart == -1 && matchesAt(COR_EQUALS_BYTES, i, false)) {
+				corStart = i + COR_EQUALS_BYTES.length;
+			}
+		}
+		this.nut = extractServerValue(nutStart, "nut=");
+		this.correlator = extractServerValue(corStart, "cor=");
+	}
+
+	/**
+	 * Scans the name value pair lines of the client param. ver, cmd and opt go into
+	 * {@link #getClientValueTable()} and keys into {@link #getKeyTable()}; anything else is ignored
+	 *
+	 * @throws SqrlInvalidRequestException
+	 *             if the param can't be decoded or contains the same key twice with different values
+	 */
+	public void parseClientParam(final String clientParam) throws SqrlInvalidRequestException {
+		decode(clientParam);
+		int lineStart = 0;
+		while (lineStart < length) {
+			int lineEnd = lineStart;
+			int equalsIndex = -1;
+			int equalsCount = 0;
+			while (lineEnd < length && buffer[lineEnd] != '\r' && buffer[lineEnd] != '\n') {
+				if (buffer[lineEnd] == '=') {
+					equalsIndex = equalsIndex == -1 ? lineEnd : equalsIndex;
+					equalsCount++;
+				}
+				lineEnd++;
+			}
+			// Only name=value is valid, ignore blank lines, empty values and anything with extra = signs
+			if (equalsCount == 1 && equalsIndex > lineStart && equalsIndex < lineEnd - 1) {
+				storeClientValue(lineStart, equalsIndex, lineEnd, clientParam);
+			} else if (lineEnd > lineStart) {
+				logger.info("Received empty param {}", toString(lineStart, lineEnd));
+			}
+			lineStart = lineEnd + 1;
+		}
+	}
+
+	private void storeClientValue(final int nameStart, final int equalsIndex, final int valueEnd,
+			final String clientParam) throws SqrlInvalidRequestException {
+		final int nameLength = equalsIndex - nameStart;
+		final int clientParamIndex = findName(CLIENT_PARAM_NAMES, nameStart, nameLength, false);
+		if (clientParamIndex >= 0) {
+			// If sent more than once, the last value wins
+			clientValueTable.put(CLIENT_PARAMS[clientParamIndex], toString(equalsIndex + 1, valueEnd));
+			return;
+		}
+		// Key names are case insensitive, see SqrlServerSideKey.valueOfOrNull
+		final int keyIndex = findName(KEY_NAMES, nameStart, nameLength, true);
+		if (keyIndex < 0) {
+			return;
+		}
+		final SqrlServerSideKey keyType = KEYS[keyIndex];
+		final String value = toString(equalsIndex + 1, valueEnd);
+		final String existing = keyTable.get(keyType);
+		if (existing == null) {
+			keyTable.put(keyType, value);
+		} else if (existing.equals(value)) {
+			logger.info("Client sent the key " + keyType
+					+ " multiple times but with the same value; this should be reported as a minor bug to the client author.  clientParam="
+					+ clientParam);
+		} else {
+			throw new SqrlInvalidRequestException("Client sent the key " + keyType
+					+ " multiple times in the same request, each with different values: " + clientParam);
+		}
+	}
+
+	/**
+	 * The value runs until & if from our login page URL or {@link SqrlClientReply#SEPARATOR} if from a server reply
+	 */
+	private String extractServerValue(final int valueStart, final String toFind) throws SqrlInvalidRequestException {
+		if (valueStart == -1) {
+			throw new SqrlInvalidRequestException(
+					"Could not find " + toFind + " in server param: " + toString(0, length));
+		}
+		int valueEnd = valueStart;
+		while (valueEnd < length && buffer[valueEnd] != '&'
+				&& !(buffer[valueEnd] == '\r' && valueEnd + 1 < length && buffer[valueEnd + 1] == '\n')) {
+			valueEnd++;
+		}
+		final String value = toString(valueStart, valueEnd);
+		try {
+			SqrlSanitize.inspectIncomingSqrlData(value);
+		} catch (final SqrlInvalidDataException e) {
+			// Convert to SqrlInvalidRequestException since it came from a SQRL client app
+			throw new SqrlInvalidRequestException(e.getMessage(), e);
+		}
+		return value;
+	}
+
+	private void decode(final String param) throws SqrlInvalidRequestException {
+		final int maxDecodedLength = SqrlBase64Url.maxDecodedLength(param.length());
+		if (buffer.length < maxDecodedLength) {
+			buffer = new byte[maxDecodedLength];
+		}
+		length = SqrlBase64Url.decode(param, buffer, 0);
+		if (length < 0) {
+			throw new SqrlInvalidRequestException("Error base64 decoding: " + param);
+		}
+	}
+
+	/**
+	 * @param ignoreCase
+	 *            if true, toMatch must be all lower case letters
+	 */
+	private boolean matchesAt(final byte[] toMatch, final int offset, final boolean ignoreCase) {
+		if (offset + toMatch.length > length) {
+			return false;
+		}
+		for (int i = 0; i < toMatch.length; i++) {
+			final int b = ignoreCase ? buffer[offset + i] | ASCII_LOWER_CASE_BIT : buffer[offset + i];
+			if (b != toMatch[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the index of the matching name or -1
+	 */
+	private int findName(final byte[][] names, final int nameStart, final int nameLength, final boolean ignoreCase) {
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].length == nameLength && matchesAt(names[i], nameStart, ignoreCase)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private String toString(final int start, final int end) {
+		return new String(buffer, start, end - start, StandardCharsets.UTF_8);
+	}
+
+	private static byte[][] toNameBytes(final Enum<?>[] values) {
+		final byte[][] names = new byte[values.length][];
+		for (int i = 0; i < values.length; i++) {
+			names[i] = values[i].toString().getBytes(StandardCharsets.US_ASCII);
+		}
+		return names;
+	}
+
+	public String getNut() {
+		return nut;
+	}
+
+	public String getCorrelator() {
+		return correlator;
+	}
+
+	/**
+	 * @return ver, cmd and opt from the client param, if present
+	 */
+	public Map<SqrlClientParam, String> getClientValueTable() {
+		return Collections.unmodifiableMap(clientValueTable);
+	}
+
+	/**
+	 * @return the base64url encoded keys from the client param, in {@link SqrlServerSideKey} order
+	 */
+	public Map<SqrlServerSideKey, String> getKeyTable() {
+		return Collections.unmodifiableMap(keyTable);
+	}
+}
@@ -6,7 +6,10 @@ import static com.github.dbadia.sqrl.server.enums.SqrlInternalUserState.PIDK_EXI
 import static com.github.dbadia.sqrl.server.enums.SqrlServerSideKey.idk;
 import static com.github.dbadia.sqrl.server.enums.SqrlServerSideKey.pidk;
 
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,6 +23,8 @@ import com.github.dbadia.sqrl.server.enums.SqrlRequestOpt;
 import com.github.dbadia.sqrl.server.exception.SqrlClientRequestProcessingException;
 import com.github.dbadia.sqrl.server.exception.SqrlException;
 import com.github.dbadia.sqrl.server.exception.SqrlInvalidRequestException;
+import com.github.dbadia.sqrl.server.exception.SqrlPersistenceException;
+import com.github.dbadia.sqrl.server.persistence.SqrlIdentity;
 
 public class SqrlClientRequestProcessor {
 	private static final Logger logger = LoggerFactory.getLogger(SqrlServerOperations.class);
@@ -31,6 +36,13 @@ public class SqrlClientRequestProcessor {
 	private final String			correlator;
 	private final SqrlPersistence	sqrlPersistence;
 	private SqrlInternalUserState	sqrlInternalUserState	= NONE_EXIST;
+	/**
+	 * The identity as loaded at the start of processing, or null if it does not exist. Changes are collected in
+	 * {@link #flagsToSet} and {@link #dataToStore} and written with a single persistence call once processing is done
+	 */
+	private SqrlIdentity					sqrlIdentity;
+	private final Map<SqrlIdentityFlag, Boolean>	flagsToSet	= new EnumMap<>(SqrlIdentityFlag.class);
+	private final Map<String, String>				dataToStore	= new HashMap<>();
 
 	public SqrlClientRequestProcessor(final SqrlClientRequest sqrlClientRequest,
 			final SqrlPersistence sqrlPersistence) throws SqrlInvalidRequestException {
@@ -51,10 +63,13 @@ public class SqrlClientRequestProcessor {
 	 */
 	public SqrlInternalUserState processClientCommand() throws SqrlException {
 		sqrlInternalUserState = NONE_EXIST;
+		flagsToSet.clear();
+		dataToStore.clear();
 
-		final boolean idkExistsInPersistence = sqrlPersistence.doesSqrlIdentityExistByIdk(sqrlIdk);
+		// Load the identity once, all flag checks below are made against this snapshot
+		sqrlIdentity = sqrlPersistence.fetchSqrlIdentityByIdk(sqrlIdk);
 		// Set IDK /PIDK Tifs
-		if (idkExistsInPersistence) {
+		if (sqrlIdentity != null) {
 			sqrlInternalUserState = IDK_EXISTS;
 		} else if (sqrlClientRequest.hasKey(pidk)
 				&& sqrlPersistence.doesSqrlIdentityExistByIdk(sqrlClientRequest.getKey(pidk))) {
@@ -65,17 +80,38 @@ public class SqrlClientRequestProcessor {
 		if (command.shouldProcessOpts()) {
 			processNonKeyOptions();
 		}
+		if (!flagsToSet.isEmpty() || !dataToStore.isEmpty()) {
+			sqrlPersistence.updateSqrlIdentity(requireSqrlIdentity().getIdk(), flagsToSet, dataToStore);
+		}
 		return sqrlInternalUserState;
 	}
 
+	private SqrlIdentity requireSqrlIdentity() {
+		if (sqrlIdentity == null) {
+			throw new SqrlPersistenceException("SqrlIdentity does not exist for idk=" + sqrlIdk);
+		}
+		return sqrlIdentity;
+	}
+
+	/**
+	 * @return the value of the flag including any changes made during this request that have not yet been written
+	 */
+	private boolean isFlagSet(final SqrlIdentityFlag flag) {
+		final Boolean pendingValue = flagsToSet.get(flag);
+		if (pendingValue != null) {
+			return pendingValue.booleanValue();
+		}
+		return requireSqrlIdentity().getEnabledFlagList().contains(flag);
+	}
+
 	private void updateOptValueAsNeeded(final SqrlIdentityFlag flag, final SqrlRequestOpt opt) {
 		if (opt != null) {
 			final boolean clientValue = sqrlClientRequest.getOptList().contains(opt);
-			final boolean dbValue = sqrlPersistence.fetchSqrlFlagForIdentity(sqrlIdk, flag);
+			final boolean dbValue = isFlagSet(flag);
 			if (clientValue != dbValue) { // update it
 				logger.debug("{}Updating SQRL flag {} from {} to {}", logHeader, opt, dbValue,
 						clientValue);
-				sqrlPersistence.setSqrlFlagForIdentity(sqrlIdk, flag, clientValue);
+				flagsToSet.put(flag, clientValue);
 				// TODO_AUDIT, client updated value to clientSet
 			}
 		}
@@ -121,11 +157,9 @@ public class SqrlClientRequestProcessor {
 				processIdentCommand();
 				return;
 			case ENABLE:
-				final Boolean sqrlEnabledForIdentity = sqrlPersistence.fetchSqrlFlagForIdentity(sqrlIdk,
-						SqrlIdentityFlag.SQRL_AUTH_ENABLED);
-				if (sqrlEnabledForIdentity == null || !sqrlEnabledForIdentity.booleanValue()) {
+				if (!isFlagSet(SqrlIdentityFlag.SQRL_AUTH_ENABLED)) {
 					if (sqrlClientRequest.containsUrs()) {
-						sqrlPersistence.setSqrlFlagForIdentity(sqrlIdk, SqrlIdentityFlag.SQRL_AUTH_ENABLED, true);
+						flagsToSet.put(SqrlIdentityFlag.SQRL_AUTH_ENABLED, Boolean.TRUE);
 					} else {
 						throw new SqrlInvalidRequestException(
 								logHeader + "Request was to enable SQRL but didn't contain urs signature");
@@ -135,7 +169,8 @@ public class SqrlClientRequestProcessor {
 				}
 				return;
 			case DISABLE:
-				sqrlPersistence.setSqrlFlagForIdentity(sqrlIdk, SqrlIdentityFlag.SQRL_AUTH_ENABLED, false);
+				requireSqrlIdentity();
+				flagsToSet.put(SqrlIdentityFlag.SQRL_AUTH_ENABLED, Boolean.FALSE);
 				return;
 			case REMOVE:
 				if (sqrlClientRequest.containsUrs()) {
@@ -156,21 +191,25 @@ public class SqrlClientRequestProcessor {
 		if (!sqrlInternalUserState.idExistsInPersistence()) {
 			// First time seeing this SQRL identity, store it and enable it
 			sqrlPersistence.createAndEnableSqrlIdentity(sqrlIdk);
-			sqrlPersistence.storeSqrlDataForSqrlIdentity(sqrlIdk, sqrlClientRequest.getKeysToBePersisted());
+			sqrlIdentity = sqrlPersistence.fetchSqrlIdentityByIdk(sqrlIdk);
+			dataToStore.putAll(sqrlClientRequest.getKeysToBePersisted());
+		} else if (sqrlInternalUserState == SqrlInternalUserState.PIDK_EXISTS) {
+			// Our snapshot is of the identity we are about to replace
+			sqrlIdentity = sqrlPersistence.fetchSqrlIdentityByIdk(sqrlClientRequest.getKey(pidk));
 		}
-		final boolean sqrlEnabledForIdentity = sqrlPersistence.fetchSqrlFlagForIdentity(sqrlIdk,
-				SqrlIdentityFlag.SQRL_AUTH_ENABLED);
+		final boolean sqrlEnabledForIdentity = isFlagSet(SqrlIdentityFlag.SQRL_AUTH_ENABLED);
 		final boolean performCpsCheck = false; // TODO_CPS: set this using sqrlServer
 		if (!sqrlEnabledForIdentity) {
 			sqrlInternalUserState = SqrlInternalUserState.DISABLED;
 		} else if (sqrlInternalUserState == SqrlInternalUserState.PIDK_EXISTS) {
 			sqrlPersistence.updateIdkForSqrlIdentity(sqrlClientRequest.getKey(pidk), sqrlIdk);
+			sqrlIdentity = sqrlPersistence.fetchSqrlIdentityByIdk(sqrlIdk);
 			logger.info("{}User SQRL authenticated, updating idk={} and to replace pidk",
 					logHeader, sqrlIdk);
 			// TODO_AUDIT
 		} else if (sqrlInternalUserState == SqrlInternalUserState.IDK_EXISTS) {
 			// TODO_AMBIGUOUS: do we really overwrite existing data, or only if they are new?
-			sqrlPersistence.storeSqrlDataForSqrlIdentity(sqrlIdk, sqrlClientRequest.getKeysToBePersisted());
+			dataToStore.putAll(sqrlClientRequest.getKeysToBePersisted());
 			sqrlInternalUserState = SqrlInternalUserState.IDK_EXISTS;
 			// TODO_AUDIT
 			logger.info("{}User SQRL authenticated idk={}", logHeader, sqrlIdk);
@@ -0,0 +1,123 @@
+package com.github.dbadia.sqrl.server.backchannel;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.dbadia.sqrl.server.SqrlConfig;
+import com.github.dbadia.sqrl.server.exception.SqrlException;
+import com.github.dbadia.sqrl.server.util.SqrlIpAddressParser;
+import com.github.dbadia.sqrl.server.util.SqrlTokenBucketTable;
+
+/**
+ * Internal use only.
+ * <p/>
+ * Rate limits SQRL client requests per IP address and per correlator. Checked before any decoding, decryption,
+ * persistence or signature work so that scanning bots can't make us do expensive work for garbage requests.
+ * <p/>
+ * IPv6 addresses are limited per /64 prefix since a single host is usually assigned an entire /64 and can rotate
+ * through it freely
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlClientRequestRateLimiter {
+	private static final double SECONDS_PER_MINUTE = 60.0;
+
+	private final SqrlTokenBucketTable	ipTable;
+	private final SqrlTokenBucketTable	correlatorTable;
+	/**
+	 * Random per instance so correlator hash collisions can't be precomputed to throttle someone else's login
+	 */
+	private final int					correlatorSeed;
+	/**
+	 * Random per instance so IPv6 prefixes which share a bucket can't be precomputed either
+	 */
+	private final int					ipv6Seed;
+	private final AtomicLong			ipRejectedCount			= new AtomicLong(0);
+	private final AtomicLong			correlatorRejectedCount	= new AtomicLong(0);
+
+	public SqrlClientRequestRateLimiter(final SqrlConfig config) {
+		final int tableSize = config.getRateLimitTableSize();
+		this.ipTable = new SqrlTokenBucketTable(tableSize,
+				config.getRateLimitIpRequestsPerMinute() / SECONDS_PER_MINUTE, config.getRateLimitIpBurst());
+		this.correlatorTable = new SqrlTokenBucketTable(tableSize,
+				config.getRateLimitCorrelatorRequestsPerMinute() / SECONDS_PER_MINUTE,
+				config.getRateLimitCorrelatorBurst());
+		this.correlatorSeed = config.getSecureRandom().nextInt();
+		this.ipv6Seed = config.getSecureRandom().nextInt();
+	}
+
+	/**
+	 * @return true if the IP address is within its rate, false if the request should be rejected
+	 * @throws SqrlException
+	 *             if the IP address could not be packed
+	 */
+	public boolean tryAcquireForIp(final InetAddress clientIpAddress) throws SqrlException {
+		final byte[] address = clientIpAddress.getAddress();
+		return tryAcquireForIp(address, address.length);
+	}
+
+	/**
+	 * @param address
+	 *            the IP address as parsed by {@link SqrlIpAddressParser}
+	 * @param length
+	 *            the number of bytes of address in use, 4 for IPv4 or 16 for IPv6
+	 * @return true if the IP address is within its rate, false if the request should be rejected
+	 * @throws SqrlException
+	 *             if the length is not that of an IPv4 or IPv6 address
+	 */
+	public boolean tryAcquireForIp(final byte[] address, final int length) throws SqrlException {
+		final int key;
+		if (length == SqrlIpAddressParser.IPV4_LENGTH) {
+			key = ByteBuffer.wrap(address, 0, length).getInt();
+		} else if (length == SqrlIpAddressParser.IPV6_LENGTH) {
+			key = hashIpv6Prefix(address);
+		} else {
+			throw new SqrlException("Unknown IP address length of " + length);
+		}
+		if (ipTable.tryAcquire(key, System.nanoTime())) {
+			return true;
+		}
+		ipRejectedCount.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * @return true if the correlator is within its rate, false if the request should be rejected
+	 */
+	public boolean tryAcquireForCorrelator(final String correlator) {
+		if (correlatorTable.tryAcquire(hashCorrelator(correlator), System.nanoTime())) {
+			return true;
+		}
+		correlatorRejectedCount.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Only the first 8 bytes, the /64 prefix, take part so every address within it shares one bucket
+	 */
+	private int hashIpv6Prefix(final byte[] address) {
+		final ByteBuffer prefix = ByteBuffer.wrap(address);
+		int hash = ipv6Seed;
+		hash = Integer.rotateLeft(hash ^ prefix.getInt(), 5) * 0x9E3779B1;
+		hash = Integer.rotateLeft(hash ^ prefix.getInt(), 5) * 0x9E3779B1;
+		return hash;
+	}
+
+	private int hashCorrelator(final String correlator) {
+		int hash = correlatorSeed;
+		for (int i = 0; i < correlator.length(); i++) {
+			hash = Integer.rotateLeft(hash ^ correlator.charAt(i), 5) * 0x9E3779B1;
+		}
+		return hash;
+	}
+
+	public long getIpRejectedCount() {
+		return ipRejectedCount.get();
+	}
+
+	public long getCorrelatorRejectedCount() {
+		return correlatorRejectedCount.get();
+	}
+}
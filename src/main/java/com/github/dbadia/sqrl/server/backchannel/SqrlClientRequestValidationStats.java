@@ -0,0 +1,44 @@
+package com.github.dbadia.sqrl.server.backchannel;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.dbadia.sqrl.server.enums.SqrlValidationStage;
+
+/**
+ * Counts how many SQRL client requests were rejected at each {@link SqrlValidationStage}
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlClientRequestValidationStats {
+	private final Map<SqrlValidationStage, AtomicLong> rejectedCountTable = new EnumMap<>(SqrlValidationStage.class);
+
+	public SqrlClientRequestValidationStats() {
+		// Populate every stage up front so the map is never modified after construction
+		for (final SqrlValidationStage stage : SqrlValidationStage.values()) {
+			rejectedCountTable.put(stage, new AtomicLong(0));
+		}
+	}
+
+	void recordRejection(final SqrlValidationStage stage) {
+		rejectedCountTable.get(stage).incrementAndGet();
+	}
+
+	public long getRejectedCount(final SqrlValidationStage stage) {
+		return rejectedCountTable.get(stage).get();
+	}
+
+	/**
+	 * @return a snapshot of the rejected count of every stage
+	 */
+	public Map<SqrlValidationStage, Long> getRejectedCounts() {
+		final Map<SqrlValidationStage, Long> snapshot = new EnumMap<>(SqrlValidationStage.class);
+		for (final Map.Entry<SqrlValidationStage, AtomicLong> entry : rejectedCountTable.entrySet()) {
+			snapshot.put(entry.getKey(), entry.getValue().get());
+		}
+		return Collections.unmodifiableMap(snapshot);
+	}
+}
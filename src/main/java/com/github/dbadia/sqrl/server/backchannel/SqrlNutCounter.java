@@ -0,0 +1,96 @@
+package com.github.dbadia.sqrl.server.backchannel;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dbadia.sqrl.server.SqrlConfig;
+
+/**
+ * Internal use only.
+ * <p/>
+ * Issues the 32 bit counter value of each nut. The high {@link SqrlConfig#getNutCounterNodeIdBits()} bits hold this
+ * server's {@link SqrlConfig#getNutCounterNodeId()} and the remaining w bits hold a sequence which is shared by every
+ * instance in the JVM with the same node id, so the counter is unique across the cluster until the sequence wraps
+ * after 2^w nuts.
+ * <p/>
+ * When node id bits are in use, the sequence starts from the clock instead of 0 so that a restarted server doesn't
+ * reissue counters of nuts which are still valid. The clock is read in ticks of nut validity / 2^w (at least 1ms), so
+ * the seed itself only wraps once per nut validity period or slower. Both guarantees, no repeat within the nut
+ * validity period and no repeat after a restart, hold as long as the node issues at most one sequence
+ * value per tick on average, see {@link #getMaxNutsPerSecond()}. Without node id bits the sequence starts at 0 and no
+ * guarantee is made across restarts
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlNutCounter {
+	private static final Logger								logger				= LoggerFactory
+			.getLogger(SqrlNutCounter.class);
+	public static final int									MAX_NODE_ID_BITS	= 16;
+	/**
+	 * The sequence used when there are no node id bits
+	 */
+	private static final AtomicInteger						SEQUENCE			= new AtomicInteger(0);
+	/**
+	 * The sequence of each node id, keyed by {@link #nodeKey(int, int)}, seeded once when first used
+	 */
+	private static final ConcurrentMap<Integer, AtomicInteger>	NODE_SEQUENCES		= new ConcurrentHashMap<>();
+
+	private final int			nodeIdBits;
+	private final int			nodeIdPrefix;
+	private final int			sequenceMask;
+	private final long			tickMillis;
+	private final AtomicInteger	sequence;
+
+	public SqrlNutCounter(final SqrlConfig config) {
+		this.nodeIdBits = config.getNutCounterNodeIdBits();
+		if (nodeIdBits == 0) {
+			// Shifting an int by 32 is a no-op in Java, so this case can't share the math below
+			this.nodeIdPrefix = 0;
+			this.sequenceMask = -1;
+			this.tickMillis = 0;
+			this.sequence = SEQUENCE;
+		} else {
+			final int nodeId = config.getNutCounterNodeId();
+			this.nodeIdPrefix = nodeId << (Integer.SIZE - nodeIdBits);
+			this.sequenceMask = -1 >>> nodeIdBits;
+			final long sequenceSize = 1L << (Integer.SIZE - nodeIdBits);
+			this.tickMillis = Math.max(1, (config.getNutValidityInMillis() + sequenceSize - 1) / sequenceSize);
+			final long seed = config.getCurrentTimeMs() / tickMillis;
+			this.sequence = NODE_SEQUENCES.computeIfAbsent(nodeKey(nodeIdBits, nodeId),
+					key -> new AtomicInteger((int) seed));
+			logger.info("Nut counter node id {} of {} bits, counters are unique while at most {} nuts/sec are issued",
+					nodeId, nodeIdBits, getMaxNutsPerSecond());
+		}
+	}
+
+	private static int nodeKey(final int nodeIdBits, final int nodeId) {
+		return nodeIdBits << MAX_NODE_ID_BITS | nodeId;
+	}
+
+	/**
+	 * @return the average rate at which this node can issue nuts without repeating a counter within the nut validity
+	 *         period or after a restart, or -1 if there are no node id bits and so no such guarantee
+	 */
+	public long getMaxNutsPerSecond() {
+		return tickMillis == 0 ? -1 : 1000 / tickMillis;
+	}
+
+	/**
+	 * @return the counter value for the next nut
+	 */
+	public int next() {
+		return nodeIdPrefix | (sequence.getAndIncrement() & sequenceMask);
+	}
+
+	/**
+	 * @return the node id of the server which issued the nut with this counter value
+	 */
+	public int getNodeId(final int counter) {
+		return nodeIdBits == 0 ? 0 : counter >>> (Integer.SIZE - nodeIdBits);
+	}
+}
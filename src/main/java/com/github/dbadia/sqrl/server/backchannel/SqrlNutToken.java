@@ -5,9 +5,11 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 
 import javax.crypto.Cipher;
+import javax.crypto.Mac;
 
 import com.github.dbadia.sqrl.server.SqrlConfig;
 import com.github.dbadia.sqrl.server.SqrlConfigOperations;
@@ -23,7 +25,26 @@ import com.github.dbadia.sqrl.server.util.SqrlUtil;
  *
  */
 public class SqrlNutToken {
+	/**
+	 * The format described in the SQRL spec
+	 */
+	public static final int		FORMAT_VERSION_1		= 1;
+	/**
+	 * Same as {@link #FORMAT_VERSION_1} except the D and D2 bits are replaced by the D2 flag bit, which is always set,
+	 * a 23 bit keyed check value and 8 bits of random noise. Since the nut is a single AES block, any change to the
+	 * encrypted nut scrambles all of the decrypted bits, so a forged nut only passes the check once in 2^24 tries
+	 */
+	public static final int		FORMAT_VERSION_2		= 2;
+	private static final int	FORMAT_2_FLAG			= 0x80000000;
+	private static final int	FORMAT_2_CHECK_MASK		= 0x7FFFFF;
+	private static final int	FORMAT_2_CHECK_SHIFT	= 8;
+	private static final int	FORMAT_2_NOISE_MASK		= 0xFF;
+	/**
+	 * A, B, C and the noise byte
+	 */
+	private static final int	FORMAT_2_CHECK_INPUT_BYTES	= (3 * Integer.BYTES) + 1;
 
+	private final int		formatVersion;
 	private final int		inetInt;
 	private final int		counter;
 	private final long		issuedTimestamp;
@@ -42,15 +63,17 @@ public class SqrlNutToken {
 	 *            The time at which the Nut was created, typically {@link System#currentTimeMillis()}. Note that the
 	 *            data in the Nut is only stored with second granularity
 	 * @param randomInt
+	 *            the random noise; only the lowest 8 bits are used for {@link #FORMAT_VERSION_2}
 	 * @throws SqrlException
 	 */
 	public SqrlNutToken(final int inetInt, final SqrlConfigOperations configOps, final int counter,
 			final long timestamp, final int randomInt) throws SqrlException {
+		this.formatVersion = configOps.getSqrlConfig().getNutFormatVersion();
 		this.inetInt = inetInt;
 		this.counter = counter;
 		// Convert the timestamp param from millis precision to second precision
 		this.issuedTimestamp = (timestamp / 1000) * 1000;
-		this.randomInt = randomInt;
+		this.randomInt = formatVersion == FORMAT_VERSION_2 ? randomInt & FORMAT_2_NOISE_MASK : randomInt;
 		try (final ByteArrayOutputStream baos = new ByteArrayOutputStream();
 				final DataOutputStream nutOs = new DataOutputStream(baos)) {
 			// Build the nut
@@ -62,9 +85,16 @@ public class SqrlNutToken {
 			nutOs.writeInt(unixTimeInSeconds);
 			// C) 32 bits: up-counter incremented once for every SQRL link generated.
 			nutOs.writeInt(counter);
-			// D) 31 bits: pseudo-random noise from system source.
-			nutOs.writeInt(randomInt);
-			// D2) FUTURE: 1 bit: flag bit to indicate source: QRcode or URL click
+			if (formatVersion == FORMAT_VERSION_2) {
+				// D2) 1 bit: always set, then the check value, then D) 8 bits of noise
+				final int checkValue = computeFormat2CheckValue(configOps, inetInt, unixTimeInSeconds, counter,
+						this.randomInt);
+				nutOs.writeInt(FORMAT_2_FLAG | (checkValue << FORMAT_2_CHECK_SHIFT) | this.randomInt);
+			} else {
+				// D) 31 bits: pseudo-random noise from system source.
+				nutOs.writeInt(randomInt);
+				// D2) FUTURE: 1 bit: flag bit to indicate source: QRcode or URL click
+			}
 
 			final byte[] nutBytes = baos.toByteArray();
 			// Encrypt and encode the nut
@@ -79,8 +109,16 @@ public class SqrlNutToken {
 		}
 	}
 
+	/**
+	 * Decrypts a nut we issued. For {@link #FORMAT_VERSION_2} the check value is verified immediately, so a forged or
+	 * corrupted nut is rejected before any persistence or signature work
+	 *
+	 * @throws SqrlInvalidRequestException
+	 *             if the nut can't be decrypted or fails the format 2 check
+	 */
 	public SqrlNutToken(final SqrlConfigOperations configOps, final String sqBase64EncryptedNut)
 			throws SqrlClientRequestProcessingException {
+		this.formatVersion = configOps.getSqrlConfig().getNutFormatVersion();
 		this.base64UrlEncryptedNut = sqBase64EncryptedNut;
 		// Decrypt the nut
 		byte[] cleartextBytes = null;
@@ -106,16 +144,51 @@ public class SqrlNutToken {
 			// C) 32 bits: up-counter incremented once for every SQRL link generated.
 			this.counter = nutIs.readInt();
 			// D) 31 bits: pseudo-random noise from system source.
-			this.randomInt = nutIs.readInt();
+			final int dBits = nutIs.readInt();
 
 			// D2) SQRL spec says "1 bit: flag bit to indicate source: QRcode or URL click"
 			// but there is no way we can know this when we issue the first nut and there are better
-			// ways to track this, so we ignored it
+			// ways to track this, so we ignored it. Format 2 uses it to mark the nut as carrying a check value
+			if (formatVersion == FORMAT_VERSION_2) {
+				this.randomInt = dBits & FORMAT_2_NOISE_MASK;
+				final int expectedCheckValue = computeFormat2CheckValue(configOps, inetInt, temp, counter, randomInt);
+				final int checkValue = (dBits >>> FORMAT_2_CHECK_SHIFT) & FORMAT_2_CHECK_MASK;
+				// Compare without branching on individual bits so the timing reveals nothing about the check value
+				final int mismatch = ((dBits & FORMAT_2_FLAG) ^ FORMAT_2_FLAG) | (checkValue ^ expectedCheckValue);
+				if (mismatch != 0) {
+					throw new SqrlInvalidRequestException(
+							"Nut failed format " + FORMAT_VERSION_2 + " check, forged or corrupted: "
+									+ sqBase64EncryptedNut);
+				}
+			} else {
+				this.randomInt = dBits;
+			}
+		} catch (final GeneralSecurityException e) {
+			throw new SqrlInvalidRequestException("Error computing nut check value for " + sqBase64EncryptedNut, e);
 		} catch (final IOException e) {
 			throw new SqrlClientRequestProcessingException(SqrlTifFlag.COMMAND_FAILED, "IO exception during read", e);
 		}
 	}
 
+	/**
+	 * @return the truncated HmacSHA256 of the other nut fields
+	 */
+	private static int computeFormat2CheckValue(final SqrlConfigOperations configOps, final int inetInt,
+			final int unixTimeInSeconds, final int counter, final int noise) throws GeneralSecurityException {
+		final Mac mac = Mac.getInstance(configOps.getNutCheckKey().getAlgorithm());
+		mac.init(configOps.getNutCheckKey());
+		final byte[] hmac = mac.doFinal(ByteBuffer.allocate(FORMAT_2_CHECK_INPUT_BYTES).putInt(inetInt)
+				.putInt(unixTimeInSeconds).putInt(counter).put((byte) noise).array());
+		return ByteBuffer.wrap(hmac).getInt() & FORMAT_2_CHECK_MASK;
+	}
+
+	/**
+	 * @return {@link #FORMAT_VERSION_1} or {@link #FORMAT_VERSION_2}
+	 */
+	public int getFormatVersion() {
+		return formatVersion;
+	}
+
 	public int getInetInt() {
 		return inetInt;
 	}
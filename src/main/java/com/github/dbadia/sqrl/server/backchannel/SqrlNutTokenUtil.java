@@ -1,10 +1,7 @@
 package com.github.dbadia.sqrl.server.backchannel;
 
-import java.net.Inet4Address;
-import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.URI;
-import java.net.UnknownHostException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Date;
@@ -18,6 +15,7 @@ import com.github.dbadia.sqrl.server.exception.SqrlClientRequestProcessingExcept
 import com.github.dbadia.sqrl.server.exception.SqrlException;
 import com.github.dbadia.sqrl.server.exception.SqrlNutTokenReplayedException;
 import com.github.dbadia.sqrl.server.util.SqrlConstants;
+import com.github.dbadia.sqrl.server.util.SqrlIpAddressParser;
 
 /**
  * Various util methods for the {@link SqrlNutToken}
@@ -34,6 +32,19 @@ public class SqrlNutTokenUtil {
 
 	public static int inetAddressToInt(final URI serverUrl, final InetAddress requesterIpAddress,
 			final SqrlConfig config) throws SqrlException {
+		final byte[] address = requesterIpAddress.getAddress();
+		return ipAddressToInt(serverUrl, address, address.length, config);
+	}
+
+	/**
+	 * Same as {@link #inetAddressToInt(URI, InetAddress, SqrlConfig)} for an address parsed by
+	 * {@link com.github.dbadia.sqrl.server.util.SqrlIpAddressParser}
+	 *
+	 * @param length
+	 *            the number of bytes of address in use, 4 for IPv4 or 16 for IPv6
+	 */
+	public static int ipAddressToInt(final URI serverUrl, final byte[] address, final int length,
+			final SqrlConfig config) throws SqrlException {
 		// From https://www.grc.com/sqrl/server.htm
 		// Although this 128-bit total nut size only provides 32 bits for an IPv4 IP address, our purpose is only to
 		// perform a match/no-match comparison to detect same-device phishing attacks. Therefore, any 128-bit IPv6
@@ -42,13 +53,7 @@ public class SqrlNutTokenUtil {
 		// used to encrypt and decrypt the nut.
 		final String serverUrlScheme = serverUrl.getScheme();
 		if (serverUrlScheme.equals(SqrlConstants.SCHEME_HTTPS) || serverUrlScheme.equals(SqrlConstants.SCHEME_SQRL)) {
-			if (requesterIpAddress instanceof Inet4Address) {
-				return SqrlNutTokenUtil.pack(requesterIpAddress.getAddress());
-			} else if (requesterIpAddress instanceof Inet6Address) {
-				return packInet6Address((Inet6Address) requesterIpAddress, config);
-			} else {
-				throw new SqrlException("Unknown InetAddress type of " + requesterIpAddress.getClass());
-			}
+			return packIpAddress(address, length, config);
 		} else if (serverUrlScheme.equals(SqrlConstants.SCHEME_HTTP)
 				|| serverUrlScheme.equals(SqrlConstants.SCHEME_QRL)) {
 			return 0;
@@ -57,6 +62,36 @@ public class SqrlNutTokenUtil {
 		}
 	}
 
+	/**
+	 * Packs an IP address into an int without regard to the server scheme: IPv4 addresses are packed as is while IPv6
+	 * addresses are hashed with the AES key as salt
+	 *
+	 * @see #inetAddressToInt(URI, InetAddress, SqrlConfig)
+	 */
+	public static int packInetAddress(final InetAddress requesterIpAddress, final SqrlConfig config)
+			throws SqrlException {
+		final byte[] address = requesterIpAddress.getAddress();
+		return packIpAddress(address, address.length, config);
+	}
+
+	/**
+	 * Same as {@link #packInetAddress(InetAddress, SqrlConfig)} for an address parsed by
+	 * {@link com.github.dbadia.sqrl.server.util.SqrlIpAddressParser}
+	 *
+	 * @param length
+	 *            the number of bytes of address in use, 4 for IPv4 or 16 for IPv6
+	 */
+	public static int packIpAddress(final byte[] address, final int length, final SqrlConfig config)
+			throws SqrlException {
+		if (length == SqrlIpAddressParser.IPV4_LENGTH) {
+			return pack(address, length);
+		} else if (length == SqrlIpAddressParser.IPV6_LENGTH) {
+			return packInet6Address(address, config);
+		} else {
+			throw new SqrlException("Unknown IP address length of " + length);
+		}
+	}
+
 	public static boolean validateInetAddress(final InetAddress requesterIpAddress, final int inetInt,
 			final SqrlConfig config)
 					throws SqrlException {
@@ -66,29 +101,28 @@ public class SqrlNutTokenUtil {
 		// addresses can be safely �compressed� to 32 bits by hashing the full IPv6 IP with a secret salt and
 		// retaining the least significant 32 bits of the hash result. The hash's salt can be the same AES key being
 		// used to encrypt and decrypt the nut.
-		if (inetInt == 0) {
-			return false;
-		}
-		if (requesterIpAddress instanceof Inet4Address) {
-			final byte[] bytes = SqrlNutTokenUtil.unpack(inetInt);
-			try {
-				final InetAddress fromNut = InetAddress.getByAddress(bytes);
-				return requesterIpAddress.equals(fromNut);
-			} catch (final UnknownHostException e) {
-				throw new SqrlException("Got UnknownHostException for inet " + inetInt, e);
-			}
-		} else if (requesterIpAddress instanceof Inet6Address) {
-			final int currentIpPacked = packInet6Address((Inet6Address) requesterIpAddress, config);
-			return currentIpPacked == inetInt;
-		} else {
-			throw new SqrlException("Unknown InetAddress type of " + requesterIpAddress.getClass());
-		}
+		final byte[] address = requesterIpAddress.getAddress();
+		return validateIpAddress(address, address.length, inetInt, config);
+	}
+
+	/**
+	 * Same as {@link #validateInetAddress(InetAddress, int, SqrlConfig)} for an address parsed by
+	 * {@link com.github.dbadia.sqrl.server.util.SqrlIpAddressParser}
+	 */
+	public static boolean validateIpAddress(final byte[] address, final int length, final int inetInt,
+			final SqrlConfig config) throws SqrlException {
+		// IPv4 is packed as is and IPv6 is hashed, so comparing the packed values is equivalent to comparing addresses
+		return inetInt != 0 && packIpAddress(address, length, config) == inetInt;
 	}
 
 	// From https://stackoverflow.com/questions/2241229/going-from-127-0-0-1-to-2130706433-and-back-again
 	static int pack(final byte[] bytes) {
+		return pack(bytes, bytes.length);
+	}
+
+	private static int pack(final byte[] bytes, final int length) {
 		int theInt = 0;
-		for (int i = 0; i < bytes.length; i++) {
+		for (int i = 0; i < length; i++) {
 			theInt <<= 8;
 			theInt |= bytes[i] & 0xff;
 		}
@@ -116,6 +150,20 @@ public class SqrlNutTokenUtil {
 	 */
 	public static void validateNut(final String correlator, final SqrlNutToken nutToken, final SqrlConfig config,
 			final SqrlPersistence sqrlPersistence) throws SqrlException {
+		validateNutExpiry(nutToken, config);
+		validateNutNotReplayed(nutToken, sqrlPersistence);
+		markNutAsUsed(nutToken, config, sqrlPersistence);
+	}
+
+	/**
+	 * Checks the timestamp embedded in the Nut. This needs no persistence access so it should be done before anything
+	 * which does
+	 *
+	 * @throws SqrlClientRequestProcessingException
+	 *             if the nut has expired
+	 */
+	public static void validateNutExpiry(final SqrlNutToken nutToken, final SqrlConfig config)
+			throws SqrlClientRequestProcessingException {
 		final long nutExpiryMs = computeNutExpiresAt(nutToken, config);
 		final long now = System.currentTimeMillis();
 		if (logger.isDebugEnabled()) {
@@ -128,14 +176,30 @@ public class SqrlNutTokenUtil {
 							+ (nutExpiryMs - now) + "ms, nut timetamp ms=" + nutToken.getIssuedTimestampMillis()
 							+ ", expiry is set to " + config.getNutValidityInSeconds() + " seconds");
 		}
-		// Mark the token as used since we will process this request
-		final String nutTokenString = nutToken.asSqrlBase64EncryptedNut();
-		if (sqrlPersistence.hasTokenBeenUsed(nutTokenString)) {
+	}
+
+	/**
+	 * Calls {@link SqrlPersistence} to see if the Nut has been replayed
+	 *
+	 * @throws SqrlNutTokenReplayedException
+	 *             if the nut has already been used
+	 */
+	public static void validateNutNotReplayed(final SqrlNutToken nutToken, final SqrlPersistence sqrlPersistence)
+			throws SqrlNutTokenReplayedException {
+		if (sqrlPersistence.hasTokenBeenUsed(nutToken.asSqrlBase64EncryptedNut())) {
 			throw new SqrlNutTokenReplayedException(
 					SqrlClientRequestLoggingUtil.getLogHeader() + "Nut token was replayed " + nutToken);
 		}
-		final Date nutExpiry = new Date(nutExpiryMs);
-		sqrlPersistence.markTokenAsUsed(nutTokenString, nutExpiry);
+	}
+
+	/**
+	 * Marks the token as used since we will process this request. The caller must have called
+	 * {@link #validateNutNotReplayed(SqrlNutToken, SqrlPersistence)} within the same transaction
+	 */
+	public static void markNutAsUsed(final SqrlNutToken nutToken, final SqrlConfig config,
+			final SqrlPersistence sqrlPersistence) {
+		final Date nutExpiry = new Date(computeNutExpiresAt(nutToken, config));
+		sqrlPersistence.markTokenAsUsed(nutToken.asSqrlBase64EncryptedNut(), nutExpiry);
 	}
 
 	/**
@@ -152,7 +216,7 @@ public class SqrlNutTokenUtil {
 		return nutToken.getIssuedTimestampMillis() + nutValidityMillis;
 	}
 
-	private static int packInet6Address(final Inet6Address requesterIpAddress, final SqrlConfig config)
+	private static int packInet6Address(final byte[] requesterIpAddress, final SqrlConfig config)
 			throws SqrlException {
 		// Compress per https://www.grc.com/sqrl/server.htm
 		// IPv6 addresses can be safely compressed to 32 bits by hashing the full IPv6 IP with a secret salt and
@@ -161,13 +225,15 @@ public class SqrlNutTokenUtil {
 			final MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
 			// salt with aes key bytes
 			messageDigest.update(config.getAESKeyBytes());
-			final byte[] result = messageDigest.digest(requesterIpAddress.getAddress());
+			messageDigest.update(requesterIpAddress, 0, SqrlIpAddressParser.IPV6_LENGTH);
+			final byte[] result = messageDigest.digest();
 			// Get the least significant 32 bits of the hash result
-			final byte[] toPack = new byte[IPV6_TO_PACK_BYTES];
 			final int start = result.length - IPV6_TO_PACK_BYTES;
-			System.arraycopy(result, start, toPack, 0, IPV6_TO_PACK_BYTES);
-			final int packed = SqrlNutTokenUtil.pack(toPack);
-			logger.debug("IPV6 {} compressed and packed to {}", requesterIpAddress, packed);
+			int packed = 0;
+			for (int i = start; i < result.length; i++) {
+				packed = packed << 8 | (result[i] & 0xff);
+			}
+			logger.debug("IPV6 compressed and packed to {}", packed);
 			return packed;
 		} catch (final NoSuchAlgorithmException e) {
 			throw new SqrlException("Error occured while hashing IPV6 address", e);
@@ -0,0 +1,21 @@
+package com.github.dbadia.sqrl.server.enums;
+
+/**
+ * Determines which kind of threads are used for blocking SQRL work such as persistence calls and status pushes to
+ * the browser
+ *
+ * @author Dave Badia
+ *
+ */
+public enum SqrlExecutionMode {
+	/**
+	 * Blocking work runs on bounded pools of platform threads
+	 */
+	PLATFORM,
+	/**
+	 * Blocking work runs on virtual threads, with concurrency still bounded by the configured thread counts. Requires
+	 * Java 21 or later; on older JVMs {@link #PLATFORM} is used instead. CPU bound work such as signature verification
+	 * always runs on platform threads
+	 */
+	VIRTUAL;
+}
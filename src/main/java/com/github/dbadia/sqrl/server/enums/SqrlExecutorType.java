@@ -0,0 +1,44 @@
+package com.github.dbadia.sqrl.server.enums;
+
+/**
+ * The independently sized thread pools used by the SQRL library, so that a slow dependency in one area can't starve
+ * the others
+ *
+ * @author Dave Badia
+ *
+ */
+public enum SqrlExecutorType {
+	/**
+	 * Nut and QR code generation for the login page
+	 */
+	PAGE_PREP("Page Prep"),
+	/**
+	 * Parsing and signature verification of SQRL client requests
+	 */
+	BACKCHANNEL("Backchannel"),
+	/**
+	 * Persistence transactions
+	 */
+	PERSISTENCE("Persistence"),
+	/**
+	 * Checking for correlator status changes and pushing them to the browser
+	 */
+	AUTH_STATE_MONITOR("Auth State Monitor"),
+	/**
+	 * Removal of expired persistence entries
+	 */
+	CLEANUP("Cleanup");
+
+	private final String poolName;
+
+	private SqrlExecutorType(final String poolName) {
+		this.poolName = poolName;
+	}
+
+	/**
+	 * @return the human readable name of the pool, used in thread names and metrics
+	 */
+	public String getPoolName() {
+		return poolName;
+	}
+}
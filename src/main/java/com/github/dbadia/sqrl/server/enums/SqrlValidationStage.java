@@ -0,0 +1,31 @@
+package com.github.dbadia.sqrl.server.enums;
+
+/**
+ * The stages a SQRL client request is validated in, listed in the order they run. Cheaper stages run first so a
+ * request which fails them never reaches persistence or signature verification
+ *
+ * @author Dave Badia
+ *
+ */
+public enum SqrlValidationStage {
+	/**
+	 * Required params are present, within the size limit, base64url and parseable
+	 */
+	FORMAT,
+	/**
+	 * The nut decrypts and has not expired
+	 */
+	NUT,
+	/**
+	 * The nut has not been used before; requires a persistence lookup
+	 */
+	REPLAY,
+	/**
+	 * The server param matches the one we sent; requires a persistence lookup
+	 */
+	SERVER_PARROT,
+	/**
+	 * All Ed25519 signatures are valid
+	 */
+	SIGNATURE;
+}
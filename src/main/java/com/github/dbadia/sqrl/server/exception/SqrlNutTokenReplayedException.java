@@ -4,12 +4,13 @@ import com.github.dbadia.sqrl.server.SqrlPersistence;
 
 /**
  * Indicates that the one time use Nut token received from the SQRL client was already used in a previous request as
- * determined by {@link SqrlPersistence#hasTokenBeenUsed(com.github.dbadia.sqrl.server.backchannel.Nut)}
+ * determined by {@link SqrlPersistence#hasTokenBeenUsed(com.github.dbadia.sqrl.server.backchannel.Nut)}. Results in
+ * {@link com.github.dbadia.sqrl.server.backchannel.SqrlTifFlag#CLIENT_FAILURE} on the SQRL response
  * 
  * @author Dave Badia
  *
  */
-public class SqrlNutTokenReplayedException extends SqrlException {
+public class SqrlNutTokenReplayedException extends SqrlInvalidRequestException {
 
 	private static final long serialVersionUID = 3262027974608634373L;
 
@@ -17,4 +17,8 @@ public class SqrlPersistenceException extends PersistenceException {
 		super(message);
 	}
 
+	public SqrlPersistenceException(final String message, final Throwable cause) {
+		super(message, cause);
+	}
+
 }
@@ -0,0 +1,21 @@
+package com.github.dbadia.sqrl.server.exception;
+
+/**
+ * Indicates that the request was rejected without being processed since the server is already handling as many
+ * concurrent requests as it can; the caller may retry later
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlServerOverloadedException extends SqrlException {
+
+	private static final long serialVersionUID = -2473613908826451176L;
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public SqrlServerOverloadedException(final String message) {
+		super(message);
+	}
+
+}
@@ -56,6 +56,17 @@ public class SqrlAutoCloseablePersistence implements SqrlPersistence, AutoClosea
 		return sqrlPersistence.fetchSqrlIdentityByUserXref(appUserXref);
 	}
 
+	@Override
+	public SqrlIdentity fetchSqrlIdentityByIdk(final String sqrlIdk) {
+		return sqrlPersistence.fetchSqrlIdentityByIdk(sqrlIdk);
+	}
+
+	@Override
+	public void updateSqrlIdentity(final String sqrlIdk, final Map<SqrlIdentityFlag, Boolean> flagsToSet,
+			final Map<String, String> dataToStore) {
+		sqrlPersistence.updateSqrlIdentity(sqrlIdk, flagsToSet, dataToStore);
+	}
+
 	@Override
 	public void updateIdkForSqrlIdentity(final String previousSqrlIdk, final String newSqrlIdk) {
 		sqrlPersistence.updateIdkForSqrlIdentity(previousSqrlIdk, newSqrlIdk);
@@ -146,6 +157,26 @@ public class SqrlAutoCloseablePersistence implements SqrlPersistence, AutoClosea
 		sqrlPersistence.cleanUpExpiredEntries();
 	}
 
+	@Override
+	public int cleanUpExpiredEntries(final int maxRowCount) {
+		return sqrlPersistence.cleanUpExpiredEntries(maxRowCount);
+	}
+
+	@Override
+	public void truncateExpiredEntries() {
+		sqrlPersistence.truncateExpiredEntries();
+	}
+
+	@Override
+	public SqrlAuthenticationStatus fetchSqrlCorrelatorStatus(final String correlator) {
+		return sqrlPersistence.fetchSqrlCorrelatorStatus(correlator);
+	}
+
+	@Override
+	public String fetchServerParrotHash(final String correlator) {
+		return sqrlPersistence.fetchServerParrotHash(correlator);
+	}
+
 	@Override
 	public Map<String, SqrlCorrelator> fetchSqrlCorrelatorsDetached(final Set<String> correlatorStringSet) {
 		return sqrlPersistence.fetchSqrlCorrelatorsDetached(correlatorStringSet);
@@ -0,0 +1,64 @@
+package com.github.dbadia.sqrl.server.persistence;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+import com.github.dbadia.sqrl.server.exception.SqrlException;
+import com.github.dbadia.sqrl.server.exception.SqrlPersistenceException;
+import com.github.dbadia.sqrl.server.util.SqrlUtil;
+
+/**
+ * Optional converter which stores SQRL base64url values (idk, correlator) as the raw bytes they encode,
+ * roughly halving the size of the column and its index. Not applied by default; it is enabled per attribute by
+ * installing datastore/orm-binary-keys.xml as META-INF/orm.xml.
+ * <p/>
+ * A value which isn't canonical SQRL base64url can't be stored, so writing one fails. Lookups must check
+ * {@link #isConvertible(String)} first and treat such a value as not found, since it may come straight from a client
+ *
+ * @author Dave Badia
+ *
+ */
+@Converter
+public class SqrlBinaryKeyConverter implements AttributeConverter<String, byte[]> {
+
+	/**
+	 * @return true if the value can be stored by this converter
+	 */
+	public static boolean isConvertible(final String base64UrlValue) {
+		return base64UrlValue == null || decodeCanonical(base64UrlValue) != null;
+	}
+
+	@Override
+	public byte[] convertToDatabaseColumn(final String base64UrlValue) {
+		if (base64UrlValue == null) {
+			return null;
+		}
+		final byte[] bytes = decodeCanonical(base64UrlValue);
+		if (bytes == null) {
+			throw new SqrlPersistenceException("Value is not canonical SQRL base64url: " + base64UrlValue);
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return the decoded bytes or null if the value is not canonical SQRL base64url
+	 */
+	private static byte[] decodeCanonical(final String base64UrlValue) {
+		try {
+			final byte[] bytes = SqrlUtil.base64UrlDecode(base64UrlValue);
+			// Only canonical values can be stored since the string must be rebuilt exactly on read
+			return SqrlUtil.sqrlBase64UrlEncode(bytes).equals(base64UrlValue) ? bytes : null;
+		} catch (final SqrlException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public String convertToEntityAttribute(final byte[] bytes) {
+		if (bytes == null) {
+			return null;
+		}
+		return SqrlUtil.sqrlBase64UrlEncode(bytes);
+	}
+
+}
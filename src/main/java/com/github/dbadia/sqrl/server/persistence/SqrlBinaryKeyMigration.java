@@ -0,0 +1,105 @@
+package com.github.dbadia.sqrl.server.persistence;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fills the binary key columns added by datastore/sqrl-binary-keys-migration.ddl from the existing base64url values.
+ * Rows are read in id order, one batch per transaction, so the tables stay available while a large table is
+ * converted. Only rows whose binary column is still null are read, so an interrupted run can simply be restarted
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlBinaryKeyMigration {
+	private static final Logger				logger				= LoggerFactory.getLogger(SqrlBinaryKeyMigration.class);
+	static final int						DEFAULT_BATCH_SIZE	= 1000;
+
+	private final EntityManagerFactory		entityManagerFactory;
+	private final int						batchSize;
+	private final SqrlBinaryKeyConverter	converter			= new SqrlBinaryKeyConverter();
+
+	public SqrlBinaryKeyMigration(final EntityManagerFactory entityManagerFactory, final int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be > 0");
+		}
+		this.entityManagerFactory = entityManagerFactory;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Converts sqrl_identity.idk and sqrl_correlator.value using the {@value SqrlJpaPersistenceProvider#PERSISTENCE_UNIT_NAME}
+	 * persistence unit
+	 *
+	 * @param args
+	 *            optional batch size, defaults to {@value #DEFAULT_BATCH_SIZE}
+	 */
+	public static void main(final String[] args) {
+		final int batchSize = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_BATCH_SIZE;
+		final EntityManagerFactory entityManagerFactory = Persistence
+				.createEntityManagerFactory(SqrlJpaPersistenceProvider.PERSISTENCE_UNIT_NAME);
+		try {
+			final SqrlBinaryKeyMigration migration = new SqrlBinaryKeyMigration(entityManagerFactory, batchSize);
+			migration.migrateColumn("sqrl_identity", "idk", "idk_bin");
+			migration.migrateColumn("sqrl_correlator", "value", "value_bin");
+		} finally {
+			entityManagerFactory.close();
+		}
+	}
+
+	/**
+	 * @param table
+	 *            the table to convert, which must have an id column
+	 * @param sourceColumn
+	 *            the existing base64url column
+	 * @param targetColumn
+	 *            the new binary column
+	 * @return the number of rows converted
+	 */
+	public long migrateColumn(final String table, final String sourceColumn, final String targetColumn) {
+		final String selectSql = new StringBuilder("SELECT id, ").append(sourceColumn).append(" FROM ").append(table)
+				.append(" WHERE id > ?1 AND ").append(targetColumn).append(" IS NULL ORDER BY id").toString();
+		final String updateSql = new StringBuilder("UPDATE ").append(table).append(" SET ").append(targetColumn)
+				.append(" = ?1 WHERE id = ?2").toString();
+		long lastId = Long.MIN_VALUE;
+		long rowCount = 0;
+		final long start = System.currentTimeMillis();
+		while (true) {
+			final EntityManager entityManager = entityManagerFactory.createEntityManager();
+			final int batchRowCount;
+			try {
+				entityManager.getTransaction().begin();
+				@SuppressWarnings("unchecked")
+				final List<Object[]> rowList = entityManager.createNativeQuery(selectSql).setParameter(1, lastId)
+				.setMaxResults(batchSize).getResultList();
+				for (final Object[] row : rowList) {
+					lastId = ((Number) row[0]).longValue();
+					entityManager.createNativeQuery(updateSql)
+					.setParameter(1, converter.convertToDatabaseColumn((String) row[1])).setParameter(2, lastId)
+					.executeUpdate();
+				}
+				entityManager.getTransaction().commit();
+				batchRowCount = rowList.size();
+			} finally {
+				if (entityManager.getTransaction().isActive()) {
+					entityManager.getTransaction().rollback();
+				}
+				entityManager.close();
+			}
+			rowCount += batchRowCount;
+			if (batchRowCount < batchSize) {
+				break;
+			}
+			logger.info("Converted {} rows of {}.{} so far", rowCount, table, sourceColumn);
+		}
+		logger.info("Converted {} rows of {}.{} in {} ms", rowCount, table, sourceColumn,
+				System.currentTimeMillis() - start);
+		return rowCount;
+	}
+}
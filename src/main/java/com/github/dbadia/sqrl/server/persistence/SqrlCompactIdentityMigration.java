@@ -0,0 +1,91 @@
+package com.github.dbadia.sqrl.server.persistence;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Populates sqrl_identity.compact_data from the sqrl_identity_flag and sqrl_identity_data tables ahead of switching
+ * to compact identity storage. Must be run with the default mapping, before datastore/orm-compact-identity.xml is
+ * installed. Identities are read in id order, one batch per transaction. Every identity is re-encoded, not just those
+ * without compact data, since a row which was changed with the default mapping after an earlier run has had its
+ * compact data cleared or, if written by an older version, may hold stale compact data. An interrupted run can simply
+ * be restarted
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlCompactIdentityMigration {
+	private static final Logger			logger				= LoggerFactory
+			.getLogger(SqrlCompactIdentityMigration.class);
+	static final int					DEFAULT_BATCH_SIZE	= 500;
+
+	private final EntityManagerFactory	entityManagerFactory;
+	private final int					batchSize;
+
+	public SqrlCompactIdentityMigration(final EntityManagerFactory entityManagerFactory, final int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be > 0");
+		}
+		this.entityManagerFactory = entityManagerFactory;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @param args
+	 *            optional batch size, defaults to {@value #DEFAULT_BATCH_SIZE}
+	 */
+	public static void main(final String[] args) {
+		final int batchSize = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_BATCH_SIZE;
+		final EntityManagerFactory entityManagerFactory = Persistence
+				.createEntityManagerFactory(SqrlJpaPersistenceProvider.PERSISTENCE_UNIT_NAME);
+		try {
+			new SqrlCompactIdentityMigration(entityManagerFactory, batchSize).migrate();
+		} finally {
+			entityManagerFactory.close();
+		}
+	}
+
+	/**
+	 * @return the number of identities converted
+	 */
+	public long migrate() {
+		long lastId = Long.MIN_VALUE;
+		long rowCount = 0;
+		final long start = System.currentTimeMillis();
+		while (true) {
+			final EntityManager entityManager = entityManagerFactory.createEntityManager();
+			final int batchRowCount;
+			try {
+				entityManager.getTransaction().begin();
+				final List<SqrlIdentity> identityList = entityManager
+						.createQuery("SELECT i FROM SqrlIdentity i WHERE i.id > :lastId ORDER BY i.id",
+								SqrlIdentity.class)
+						.setParameter("lastId", lastId).setMaxResults(batchSize).getResultList();
+				for (final SqrlIdentity sqrlIdentity : identityList) {
+					sqrlIdentity.encodeCompactData();
+					lastId = sqrlIdentity.getId();
+				}
+				entityManager.getTransaction().commit();
+				batchRowCount = identityList.size();
+			} finally {
+				if (entityManager.getTransaction().isActive()) {
+					entityManager.getTransaction().rollback();
+				}
+				entityManager.close();
+			}
+			rowCount += batchRowCount;
+			if (batchRowCount < batchSize) {
+				break;
+			}
+			logger.info("Converted {} SqrlIdentity rows so far", rowCount);
+		}
+		logger.info("Converted {} SqrlIdentity rows in {} ms", rowCount, System.currentTimeMillis() - start);
+		return rowCount;
+	}
+}
@@ -21,9 +21,12 @@ import javax.persistence.Table;
 import javax.persistence.TableGenerator;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
+import javax.persistence.Transient;
 
 import com.github.dbadia.sqrl.server.enums.SqrlAuthenticationStatus;
 import com.github.dbadia.sqrl.server.exception.SqrlPersistenceException;
+import com.github.dbadia.sqrl.server.util.SqrlConstants;
+import com.github.dbadia.sqrl.server.util.SqrlUtil;
 
 /**
  * Represents a correlator which is used to track the multiple transactions required in a SQRL authentication
@@ -38,7 +41,7 @@ public class SqrlCorrelator implements Serializable {
 
 	@Id
 	@TableGenerator(name = "correlator_gen", table = "sqrl_db_id_gen", pkColumnName = "name", valueColumnName = "value",
-	allocationSize = 1)
+	allocationSize = SqrlConstants.DB_ID_ALLOCATION_SIZE)
 	@GeneratedValue(generator = "correlator_gen")
 	@Column(name = "id")
 	private long id;
@@ -54,6 +57,20 @@ public class SqrlCorrelator implements Serializable {
 	@Temporal(TemporalType.TIMESTAMP)
 	private Date expiryTime;
 
+	/**
+	 * Hash of the last server param sent to the SQRL client, see {@link SqrlUtil#hashServerParrot(String)}. Kept on
+	 * the correlator row so it can be read and updated without touching sqrl_transient_auth_data
+	 */
+	@Column(name = "serverParrotHash", length = 43)
+	private String serverParrotHash;
+
+	/**
+	 * Optimistic lock version, only mapped when the version overlay from the datastore directory is used. A concurrent
+	 * update from another server then fails the commit instead of silently overwriting this one
+	 */
+	@Transient
+	private long version;
+
 	@ElementCollection(fetch = FetchType.EAGER)
 	@CollectionTable(name = "sqrl_transient_auth_data",
 	joinColumns = @JoinColumn(name = "id", referencedColumnName = "id"))
@@ -86,6 +103,34 @@ public class SqrlCorrelator implements Serializable {
 		return transientAuthDataTable;
 	}
 
+	/**
+	 * @param serverParrot
+	 *            the server param sent to the SQRL client, which it must echo back on its next request, or null if
+	 *            no further requests are expected
+	 */
+	public void setServerParrot(final String serverParrot) {
+		this.serverParrotHash = serverParrot == null ? null : SqrlUtil.hashServerParrot(serverParrot);
+	}
+
+	/**
+	 * @param serverParrot
+	 *            the encoded server param sent to the SQRL client, see {@link #setServerParrot(String)}
+	 */
+	public void setEncodedServerParrot(final byte[] serverParrot) {
+		this.serverParrotHash = serverParrot == null ? null : SqrlUtil.hashServerParrot(serverParrot);
+	}
+
+	public String getServerParrotHash() {
+		return serverParrotHash;
+	}
+
+	/**
+	 * @return the optimistic lock version, always 0 unless the version column is mapped
+	 */
+	public long getVersion() {
+		return version;
+	}
+
 	public SqrlIdentity getAuthenticatedIdentity() {
 		if (getAuthenticationStatus() != SqrlAuthenticationStatus.AUTH_COMPLETE) {
 			throw new SqrlPersistenceException(
@@ -121,6 +166,8 @@ public class SqrlCorrelator implements Serializable {
 		builder.append(authenticationStatus);
 		builder.append(", expiryTime=");
 		builder.append(expiryTime);
+		builder.append(", serverParrotHash=");
+		builder.append(serverParrotHash);
 		builder.append(", transientAuthDataTable=");
 		builder.append(transientAuthDataTable);
 		builder.append(", authenticatedIdentity=");
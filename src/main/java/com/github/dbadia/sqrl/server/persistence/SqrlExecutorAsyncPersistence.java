@@ -0,0 +1,96 @@
+package com.github.dbadia.sqrl.server.persistence;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+import com.github.dbadia.sqrl.server.SqrlAsyncPersistence;
+import com.github.dbadia.sqrl.server.SqrlPersistence;
+import com.github.dbadia.sqrl.server.SqrlPersistenceFactory;
+import com.github.dbadia.sqrl.server.enums.SqrlExecutionMode;
+import com.github.dbadia.sqrl.server.exception.SqrlPersistenceException;
+import com.github.dbadia.sqrl.server.util.SqrlAsyncUtil;
+
+/**
+ * Adapts any blocking {@link SqrlPersistenceFactory} to {@link SqrlAsyncPersistence} by running each unit of work on
+ * a dedicated, bounded thread pool. The pool and its queue are both bounded so a slow persistence store results in
+ * rejected work rather than an ever growing backlog
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlExecutorAsyncPersistence implements SqrlAsyncPersistence {
+	private final SqrlPersistenceFactory	persistenceFactory;
+	private final ExecutorService			executor;
+
+	/**
+	 * @param threadCount
+	 *            the maximum number of concurrent persistence transactions, typically the size of the DB connection
+	 *            pool
+	 * @param queueSize
+	 *            the maximum number of units of work waiting for a thread before new work is rejected
+	 */
+	public SqrlExecutorAsyncPersistence(final SqrlPersistenceFactory persistenceFactory, final int threadCount,
+			final int queueSize) {
+		this(persistenceFactory, threadCount, queueSize, SqrlExecutionMode.PLATFORM);
+	}
+
+	/**
+	 * @param executionMode
+	 *            whether the work runs on platform or virtual threads; the limits apply in either case
+	 */
+	public SqrlExecutorAsyncPersistence(final SqrlPersistenceFactory persistenceFactory, final int threadCount,
+			final int queueSize, final SqrlExecutionMode executionMode) {
+		this(persistenceFactory,
+				SqrlAsyncUtil.newBlockingExecutor("Sqrl Persistence #", threadCount, queueSize, executionMode));
+	}
+
+	/**
+	 * @param executor
+	 *            the bounded executor on which persistence work will run
+	 */
+	public SqrlExecutorAsyncPersistence(final SqrlPersistenceFactory persistenceFactory,
+			final ExecutorService executor) {
+		this.persistenceFactory = persistenceFactory;
+		this.executor = executor;
+	}
+
+	@Override
+	public <T> CompletionStage<T> executeInTransaction(final Function<SqrlPersistence, T> work) {
+		final CompletableFuture<T> future = new CompletableFuture<>();
+		try {
+			executor.execute(() -> {
+				try (SqrlAutoCloseablePersistence sqrlPersistence = new SqrlAutoCloseablePersistence(
+						persistenceFactory.createSqrlPersistence())) {
+					final T result = work.apply(sqrlPersistence);
+					sqrlPersistence.closeCommit();
+					future.complete(result);
+				} catch (final Throwable e) {
+					// Anything else, including an Error, would leave the caller waiting forever
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			future.completeExceptionally(new SqrlPersistenceException("Async persistence queue is full", e));
+		}
+		return future;
+	}
+
+	/**
+	 * @return the executor on which persistence work runs, for callers which need to run blocking work that spans
+	 *         multiple transactions
+	 */
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Stops accepting new work; work which is already queued will still run
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+}
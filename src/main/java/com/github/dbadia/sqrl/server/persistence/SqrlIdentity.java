@@ -20,6 +20,7 @@ import javax.persistence.Table;
 import javax.persistence.TableGenerator;
 
 import com.github.dbadia.sqrl.server.enums.SqrlIdentityFlag;
+import com.github.dbadia.sqrl.server.util.SqrlConstants;
 
 /**
  * Represents a users SQRL identity including a String id the users native app identity
@@ -34,7 +35,7 @@ public class SqrlIdentity implements Serializable {
 
 	@Id
 	@TableGenerator(name = "identity_gen", table = "sqrl_db_id_gen", pkColumnName = "name", valueColumnName = "value",
-	allocationSize = 1)
+	allocationSize = SqrlConstants.DB_ID_ALLOCATION_SIZE)
 	@GeneratedValue(generator = "identity_gen")
 	@Column(name = "id")
 	private long id;
@@ -60,6 +61,13 @@ public class SqrlIdentity implements Serializable {
 	@Column(name = "name")
 	private final HashSet<SqrlIdentityFlag> enabledFlagList = new HashSet<SqrlIdentityFlag>();
 
+	/**
+	 * The flags and data in a single column, only populated when compact identity storage is in use. See
+	 * {@link SqrlJpaPersistenceProvider#PROPERTY_IDENTITY_STORAGE}
+	 */
+	@Column(name = "compact_data", nullable = true, length = 4000)
+	private String compactData;
+
 	public SqrlIdentity() {
 		// Required by JPA
 	}
@@ -100,6 +108,31 @@ public class SqrlIdentity implements Serializable {
 		return enabledFlagList;
 	}
 
+	/**
+	 * Post load callback which is only registered by datastore/orm-compact-identity.xml. With the default mapping the
+	 * flags and data come from their own tables and compact_data, if present, must not overwrite them
+	 */
+	void decodeCompactData() {
+		if (compactData != null) {
+			SqrlIdentityDataCodec.decode(compactData, enabledFlagList, identityDataTable);
+		}
+	}
+
+	/**
+	 * Must be called after the flags or data are changed when compact identity storage is in use
+	 */
+	void encodeCompactData() {
+		compactData = SqrlIdentityDataCodec.encode(enabledFlagList, identityDataTable);
+	}
+
+	/**
+	 * Must be called after the flags or data are changed when compact identity storage is not in use, so that a
+	 * previously migrated row can't hold stale flags or data
+	 */
+	void clearCompactData() {
+		compactData = null;
+	}
+
 	@Override
 	public String toString() {
 		final StringBuilder builder = new StringBuilder();
@@ -0,0 +1,103 @@
+package com.github.dbadia.sqrl.server.persistence;
+
+import java.util.Map;
+import java.util.Set;
+
+import com.github.dbadia.sqrl.server.enums.SqrlIdentityFlag;
+import com.github.dbadia.sqrl.server.exception.SqrlPersistenceException;
+
+/**
+ * Encodes the flags and data of a {@link SqrlIdentity} into a single string for compact identity storage. The format
+ * is a version number, the comma separated flag names and then each data entry as length prefixed name and value:
+ * <p>
+ * {@code 1|SQRL_AUTH_ENABLED,HARDLOCK|3:suk43:mC5wBKDX...}
+ *
+ * @author Dave Badia
+ *
+ */
+class SqrlIdentityDataCodec {
+	private static final String	VERSION_1			= "1";
+	private static final char	SEPARATOR			= '|';
+	private static final char	FLAG_SEPARATOR		= ',';
+	private static final char	LENGTH_SEPARATOR	= ':';
+
+	private SqrlIdentityDataCodec() {
+		// Util class
+	}
+
+	static String encode(final Set<SqrlIdentityFlag> flagSet, final Map<String, String> dataTable) {
+		final StringBuilder buf = new StringBuilder(64 + dataTable.size() * 64);
+		buf.append(VERSION_1).append(SEPARATOR);
+		boolean first = true;
+		for (final SqrlIdentityFlag flag : flagSet) {
+			if (!first) {
+				buf.append(FLAG_SEPARATOR);
+			}
+			buf.append(flag.name());
+			first = false;
+		}
+		buf.append(SEPARATOR);
+		for (final Map.Entry<String, String> entry : dataTable.entrySet()) {
+			appendLengthPrefixed(buf, entry.getKey());
+			appendLengthPrefixed(buf, entry.getValue());
+		}
+		return buf.toString();
+	}
+
+	private static void appendLengthPrefixed(final StringBuilder buf, final String value) {
+		buf.append(value.length()).append(LENGTH_SEPARATOR).append(value);
+	}
+
+	/**
+	 * Replaces the contents of flagSet and dataTable with those from the encoded string
+	 */
+	static void decode(final String encoded, final Set<SqrlIdentityFlag> flagSet, final Map<String, String> dataTable) {
+		flagSet.clear();
+		dataTable.clear();
+		final int flagStart = encoded.indexOf(SEPARATOR) + 1;
+		if (flagStart == 0 || !VERSION_1.equals(encoded.substring(0, flagStart - 1))) {
+			throw new SqrlPersistenceException("Unsupported SqrlIdentity compact data version: " + encoded);
+		}
+		final int dataStart = encoded.indexOf(SEPARATOR, flagStart) + 1;
+		if (dataStart == 0) {
+			throw new SqrlPersistenceException("Corrupt SqrlIdentity compact data: " + encoded);
+		}
+		try {
+			int index = flagStart;
+			while (index < dataStart - 1) {
+				int end = encoded.indexOf(FLAG_SEPARATOR, index);
+				if (end < 0 || end > dataStart - 1) {
+					end = dataStart - 1;
+				}
+				flagSet.add(SqrlIdentityFlag.valueOf(encoded.substring(index, end)));
+				index = end + 1;
+			}
+			index = dataStart;
+			while (index < encoded.length()) {
+				final int nameEnd = readLengthPrefixedEnd(encoded, index);
+				final String name = encoded.substring(encoded.indexOf(LENGTH_SEPARATOR, index) + 1, nameEnd);
+				final int valueEnd = readLengthPrefixedEnd(encoded, nameEnd);
+				final String value = encoded.substring(encoded.indexOf(LENGTH_SEPARATOR, nameEnd) + 1, valueEnd);
+				dataTable.put(name, value);
+				index = valueEnd;
+			}
+		} catch (final IllegalArgumentException | IndexOutOfBoundsException e) {
+			throw new SqrlPersistenceException("Corrupt SqrlIdentity compact data: " + encoded, e);
+		}
+	}
+
+	/**
+	 * @return the index just past the length prefixed value which starts at index
+	 */
+	private static int readLengthPrefixedEnd(final String encoded, final int index) {
+		final int lengthEnd = encoded.indexOf(LENGTH_SEPARATOR, index);
+		if (lengthEnd < 0) {
+			throw new IllegalArgumentException("Length separator not found");
+		}
+		final int end = lengthEnd + 1 + Integer.parseInt(encoded.substring(index, lengthEnd));
+		if (end > encoded.length()) {
+			throw new IllegalArgumentException("Length exceeds data");
+		}
+		return end;
+	}
+}
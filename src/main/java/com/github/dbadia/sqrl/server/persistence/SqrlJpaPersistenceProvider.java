@@ -2,6 +2,8 @@ package com.github.dbadia.sqrl.server.persistence;
 
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -40,6 +42,40 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 	public static final String	PERSISTENCE_UNIT_NAME	= "javasqrl-persistence";
 	private static final String	PARAM_CORRELATOR		= "correlator";
 
+	/**
+	 * Optional persistence.xml property. When set to {@value #NUT_TOKEN_CLEANUP_PARTITION}, expired used nut tokens
+	 * are removed by truncating the partition that holds an entire expired generation instead of by a DELETE. Requires
+	 * the partitioned sqrl_used_nut_token table from sqrl.ddl and datastore/orm-used-nut-token-partition.xml to be
+	 * installed as META-INF/orm.xml
+	 */
+	public static final String	PROPERTY_NUT_TOKEN_CLEANUP				= "sqrl.usedNutTokenCleanup";
+	public static final String	NUT_TOKEN_CLEANUP_PARTITION				= "partition";
+	/**
+	 * Optional persistence.xml property. The length of time, in minutes, covered by each used nut token generation;
+	 * defaults to 60. Must be greater than or equal to the nut validity time in SqrlConfig
+	 */
+	public static final String	PROPERTY_NUT_TOKEN_GENERATION_MINUTES	= "sqrl.usedNutTokenGenerationMinutes";
+	/**
+	 * Tokens expire at most one generation from now, so only the current and next generations can hold live tokens.
+	 * Two more are kept so the previous generation can be truncated without racing new inserts
+	 */
+	static final int			NUT_TOKEN_GENERATION_COUNT				= 4;
+	/**
+	 * Optional persistence.xml property. When set to {@value #IDENTITY_STORAGE_COMPACT}, identity flags and data are
+	 * read and written as the single sqrl_identity.compact_data column instead of the sqrl_identity_flag and
+	 * sqrl_identity_data tables. Requires datastore/orm-compact-identity.xml to be installed as META-INF/orm.xml
+	 */
+	public static final String	PROPERTY_IDENTITY_STORAGE				= "sqrl.identityStorage";
+	public static final String	IDENTITY_STORAGE_COMPACT				= "compact";
+	/**
+	 * Optional persistence.xml property. Must be set to {@value #KEY_STORAGE_BINARY} when
+	 * datastore/orm-binary-keys.xml is installed as META-INF/orm.xml, so that lookups by an idk or correlator which
+	 * {@link SqrlBinaryKeyConverter} can't convert find nothing instead of failing
+	 */
+	public static final String	PROPERTY_KEY_STORAGE					= "sqrl.keyStorage";
+	public static final String	KEY_STORAGE_BINARY						= "binary";
+	private static final long	DEFAULT_NUT_TOKEN_GENERATION_MINUTES	= 60;
+
 	private static EntityManagerFactory				entityManagerFactory	= Persistence
 			.createEntityManagerFactory(SqrlJpaPersistenceProvider.PERSISTENCE_UNIT_NAME);
 	private static final Map<EntityManager, Long>	LAST_USED_TIME_TABLE	= new WeakHashMap<>();
@@ -47,6 +83,15 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 	private static final Map<EntityManager, Exception> CREATED_BY_STACK_TABLE = new ConcurrentHashMap<>();
 
 	private final EntityManager entityManager;
+	/**
+	 * Identities loaded by this instance keyed by idk. Each instance is scoped to a single transaction, so this saves
+	 * re-querying the same identity several times while processing one SQRL request
+	 */
+	private final Map<String, SqrlIdentity>	identityCache	= new HashMap<>();
+	private final boolean					nutTokenPartitionCleanup;
+	private final long						nutTokenGenerationMillis;
+	private final boolean					compactIdentityStorage;
+	private final boolean					binaryKeyStorage;
 
 	/**
 	 * @deprecated do not invoke this constructor directly
@@ -55,6 +100,14 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 	public SqrlJpaPersistenceProvider() {
 		entityManager = entityManagerFactory.createEntityManager();
 		entityManager.getTransaction().begin();
+		final Map<String, Object> propertyTable = entityManagerFactory.getProperties();
+		nutTokenPartitionCleanup = NUT_TOKEN_CLEANUP_PARTITION
+				.equals(propertyTable.get(PROPERTY_NUT_TOKEN_CLEANUP));
+		final Object generationMinutes = propertyTable.get(PROPERTY_NUT_TOKEN_GENERATION_MINUTES);
+		nutTokenGenerationMillis = TimeUnit.MINUTES.toMillis(generationMinutes == null
+				? DEFAULT_NUT_TOKEN_GENERATION_MINUTES : Long.parseLong(generationMinutes.toString()));
+		compactIdentityStorage = IDENTITY_STORAGE_COMPACT.equals(propertyTable.get(PROPERTY_IDENTITY_STORAGE));
+		binaryKeyStorage = KEY_STORAGE_BINARY.equals(propertyTable.get(PROPERTY_KEY_STORAGE));
 		LAST_USED_TIME_TABLE.put(entityManager, System.currentTimeMillis());
 		CREATED_BY_STACK_TABLE.put(entityManager, new Exception("create SqrlJpaPersistenceProvider trace"));
 	}
@@ -63,6 +116,40 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 		LAST_USED_TIME_TABLE.put(entityManger, System.currentTimeMillis());
 	}
 
+	/**
+	 * With binary key storage a value which can't be converted can't have been stored either, and binding it to a
+	 * query would make the converter throw, so lookups treat it as not found
+	 */
+	private boolean isUnstorableKey(final String value) {
+		return binaryKeyStorage && !SqrlBinaryKeyConverter.isConvertible(value);
+	}
+
+	private Set<String> withoutUnstorableKeys(final Set<String> valueSet) {
+		if (!binaryKeyStorage) {
+			return valueSet;
+		}
+		final Set<String> storableSet = new HashSet<>();
+		for (final String value : valueSet) {
+			if (!isUnstorableKey(value)) {
+				storableSet.add(value);
+			}
+		}
+		return storableSet;
+	}
+
+	private <V> Map<String, V> withoutUnstorableKeys(final Map<String, V> valueTable) {
+		if (!binaryKeyStorage) {
+			return valueTable;
+		}
+		final Map<String, V> storableTable = new HashMap<>();
+		for (final Map.Entry<String, V> entry : valueTable.entrySet()) {
+			if (!isUnstorableKey(entry.getKey())) {
+				storableTable.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return storableTable;
+	}
+
 	@Override
 	public boolean doesSqrlIdentityExistByIdk(final String sqrlIdk) {
 		updateLastUsed(entityManager);
@@ -74,13 +161,87 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 		updateLastUsed(entityManager);
 		final SqrlIdentity sqrlIdentity = fetchRequiredSqrlIdentity(previousSqrlIdk);
 		sqrlIdentity.setIdk(newSqrlIdk);
+		identityCache.remove(previousSqrlIdk);
+		identityCache.put(newSqrlIdk, sqrlIdentity);
 	}
 
 	private SqrlIdentity fetchSqrlIdentity(final String sqrlIdk) {
 		updateLastUsed(entityManager);
-		return (SqrlIdentity) returnOneOrNull(
-				entityManager.createQuery("SELECT i FROM SqrlIdentity i WHERE i.idk = :sqrlIdk")
-				.setParameter("sqrlIdk", sqrlIdk).getResultList());
+		if (isUnstorableKey(sqrlIdk)) {
+			return null;
+		}
+		SqrlIdentity sqrlIdentity = fetchCachedSqrlIdentity(sqrlIdk);
+		if (sqrlIdentity == null) {
+			sqrlIdentity = (SqrlIdentity) returnOneOrNull(
+					entityManager.createQuery("SELECT i FROM SqrlIdentity i WHERE i.idk = :sqrlIdk")
+					.setParameter("sqrlIdk", sqrlIdk).getResultList());
+			cacheSqrlIdentity(sqrlIdentity);
+		}
+		return sqrlIdentity;
+	}
+
+	private SqrlIdentity fetchCachedSqrlIdentity(final String sqrlIdk) {
+		final SqrlIdentity sqrlIdentity = identityCache.get(sqrlIdk);
+		if (sqrlIdentity != null && !entityManager.contains(sqrlIdentity)) {
+			// Removed or detached since we cached it
+			identityCache.remove(sqrlIdk);
+			return null;
+		}
+		return sqrlIdentity;
+	}
+
+	private void cacheSqrlIdentity(final SqrlIdentity sqrlIdentity) {
+		if (sqrlIdentity != null) {
+			identityCache.put(sqrlIdentity.getIdk(), sqrlIdentity);
+		}
+	}
+
+	@Override
+	public SqrlIdentity fetchSqrlIdentityByIdk(final String sqrlIdk) {
+		updateLastUsed(entityManager);
+		if (compactIdentityStorage || isUnstorableKey(sqrlIdk)) {
+			// Flags and data are already part of the identity row
+			return fetchSqrlIdentity(sqrlIdk);
+		}
+		SqrlIdentity sqrlIdentity = fetchCachedSqrlIdentity(sqrlIdk);
+		if (sqrlIdentity == null) {
+			// Fetch join the collections so the flags and data come back with the identity row in one query
+			final List<SqrlIdentity> resultList = entityManager
+					.createQuery("SELECT DISTINCT i FROM SqrlIdentity i LEFT JOIN FETCH i.enabledFlagList "
+							+ "LEFT JOIN FETCH i.identityDataTable WHERE i.idk = :sqrlIdk", SqrlIdentity.class)
+					.setParameter("sqrlIdk", sqrlIdk).getResultList();
+			sqrlIdentity = (SqrlIdentity) returnOneOrNull(resultList);
+			cacheSqrlIdentity(sqrlIdentity);
+		}
+		return sqrlIdentity;
+	}
+
+	@Override
+	public void updateSqrlIdentity(final String sqrlIdk, final Map<SqrlIdentityFlag, Boolean> flagsToSet,
+			final Map<String, String> dataToStore) {
+		updateLastUsed(entityManager);
+		final SqrlIdentity sqrlIdentity = fetchRequiredSqrlIdentity(sqrlIdk);
+		final Set<SqrlIdentityFlag> enabledFlagSet = sqrlIdentity.getEnabledFlagList();
+		for (final Map.Entry<SqrlIdentityFlag, Boolean> entry : flagsToSet.entrySet()) {
+			if (entry.getValue().booleanValue()) {
+				enabledFlagSet.add(entry.getKey());
+			} else {
+				enabledFlagSet.remove(entry.getKey());
+			}
+		}
+		if (!dataToStore.isEmpty()) {
+			sqrlIdentity.getIdentityDataTable().putAll(dataToStore);
+		}
+		persistSqrlIdentity(sqrlIdentity);
+	}
+
+	private void persistSqrlIdentity(final SqrlIdentity sqrlIdentity) {
+		if (compactIdentityStorage) {
+			sqrlIdentity.encodeCompactData();
+		} else {
+			sqrlIdentity.clearCompactData();
+		}
+		entityManager.persist(sqrlIdentity);
 	}
 
 	private SqrlIdentity fetchRequiredSqrlIdentity(final String sqrlIdk) {
@@ -109,6 +270,7 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 			logger.warn("Can't find idk " + sqrlIdk + " to delete");
 		} else {
 			entityManager.remove(sqrlIdentity);
+			identityCache.remove(sqrlIdk);
 		}
 	}
 
@@ -134,6 +296,9 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 	@Override
 	public SqrlCorrelator fetchSqrlCorrelator(final String sqrlCorrelatorString) {
 		updateLastUsed(entityManager);
+		if (isUnstorableKey(sqrlCorrelatorString)) {
+			return null;
+		}
 		return (SqrlCorrelator) returnOneOrNull(
 				entityManager.createQuery("SELECT i FROM SqrlCorrelator i WHERE i.value = :correlator")
 				.setParameter(PARAM_CORRELATOR, sqrlCorrelatorString).getResultList());
@@ -151,8 +316,34 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 	}
 
 	@Override
-	public Map<String, SqrlCorrelator> fetchSqrlCorrelatorsDetached(final Set<String> correlatorStringSet) {
+	public SqrlAuthenticationStatus fetchSqrlCorrelatorStatus(final String sqrlCorrelatorString) {
 		updateLastUsed(entityManager);
+		if (isUnstorableKey(sqrlCorrelatorString)) {
+			return null;
+		}
+		// Projection avoids the transient data join and managing the entity
+		return (SqrlAuthenticationStatus) returnOneOrNull(entityManager
+				.createQuery("SELECT i.authenticationStatus FROM SqrlCorrelator i WHERE i.value = :correlator",
+						SqrlAuthenticationStatus.class)
+				.setParameter(PARAM_CORRELATOR, sqrlCorrelatorString).getResultList());
+	}
+
+	@Override
+	public String fetchServerParrotHash(final String sqrlCorrelatorString) {
+		updateLastUsed(entityManager);
+		if (isUnstorableKey(sqrlCorrelatorString)) {
+			return null;
+		}
+		return (String) returnOneOrNull(entityManager
+				.createQuery("SELECT i.serverParrotHash FROM SqrlCorrelator i WHERE i.value = :correlator",
+						String.class)
+				.setParameter(PARAM_CORRELATOR, sqrlCorrelatorString).getResultList());
+	}
+
+	@Override
+	public Map<String, SqrlCorrelator> fetchSqrlCorrelatorsDetached(final Set<String> requestedCorrelatorStringSet) {
+		updateLastUsed(entityManager);
+		final Set<String> correlatorStringSet = withoutUnstorableKeys(requestedCorrelatorStringSet);
 		if (correlatorStringSet.isEmpty()) {
 			return Collections.emptyMap();
 		}
@@ -179,12 +370,15 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 
 	@Override
 	public Map<String, SqrlAuthenticationStatus> fetchSqrlCorrelatorStatusUpdates(
-			final Map<String, SqrlAuthenticationStatus> correlatorToCurrentStatusTable) {
+			final Map<String, SqrlAuthenticationStatus> requestedCorrelatorToCurrentStatusTable) {
 		updateLastUsed(entityManager);
+		final Map<String, SqrlAuthenticationStatus> correlatorToCurrentStatusTable = withoutUnstorableKeys(
+				requestedCorrelatorToCurrentStatusTable);
 		if (correlatorToCurrentStatusTable.isEmpty()) {
 			return Collections.emptyMap();
 		}
-		final StringBuilder buf = new StringBuilder("SELECT i FROM SqrlCorrelator i WHERE ");
+		final StringBuilder buf = new StringBuilder(
+				"SELECT i.value, i.authenticationStatus FROM SqrlCorrelator i WHERE ");
 
 		int counter = 0;
 		for (final Map.Entry<String, SqrlAuthenticationStatus> entry : correlatorToCurrentStatusTable.entrySet()) {
@@ -197,7 +391,7 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 			counter++;
 		}
 		buf.replace(buf.length() - 2, buf.length(), ""); // Remove "OR"
-		final TypedQuery<SqrlCorrelator> query = entityManager.createQuery(buf.toString(), SqrlCorrelator.class);
+		final TypedQuery<Object[]> query = entityManager.createQuery(buf.toString(), Object[].class);
 		counter = 0;
 		final StringBuilder debugBuf = new StringBuilder(buf);
 		for (final Map.Entry<String, SqrlAuthenticationStatus> entry : correlatorToCurrentStatusTable.entrySet()) {
@@ -213,8 +407,8 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 		logger.debug("monitor correaltor for change SQL: {}", debugBuf.toString());
 		// Parse the result into a table
 		final Map<String, SqrlAuthenticationStatus> resultTable = new ConcurrentHashMap<>();
-		for (final SqrlCorrelator correlator : query.getResultList()) {
-			resultTable.put(correlator.getCorrelatorString(), correlator.getAuthenticationStatus());
+		for (final Object[] row : query.getResultList()) {
+			resultTable.put((String) row[0], (SqrlAuthenticationStatus) row[1]);
 		}
 		return resultTable;
 	}
@@ -241,7 +435,7 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 		if (!dataToStore.isEmpty()) {
 			sqrlIdentity.getIdentityDataTable().putAll(dataToStore);
 		}
-		entityManager.persist(sqrlIdentity);
+		persistSqrlIdentity(sqrlIdentity);
 	}
 
 	@Override
@@ -264,10 +458,45 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 	@Override
 	public void markTokenAsUsed(final String nutTokenString, final Date expiryTime) {
 		updateLastUsed(entityManager);
-		final SqrlUsedNutToken sqrlUsedNutToken = new SqrlUsedNutToken(nutTokenString, expiryTime);
+		final long generation = expiryTime.getTime() / nutTokenGenerationMillis;
+		final long currentGeneration = System.currentTimeMillis() / nutTokenGenerationMillis;
+		if (nutTokenPartitionCleanup && generation > currentGeneration + 1) {
+			// The token would land in a generation which may be truncated before it expires, allowing a replay
+			throw new SqrlPersistenceException("Used nut token expiry of " + expiryTime + " is more than one generation "
+					+ "out, " + PROPERTY_NUT_TOKEN_GENERATION_MINUTES + " must be >= the nut validity time");
+		}
+		final SqrlUsedNutToken sqrlUsedNutToken = new SqrlUsedNutToken(nutTokenString, expiryTime,
+				toGenerationIndex(generation));
 		entityManager.persist(sqrlUsedNutToken);
 	}
 
+	static int toGenerationIndex(final long generation) {
+		return (int) (generation % NUT_TOKEN_GENERATION_COUNT);
+	}
+
+	/**
+	 * @return the index of the generation before the current one. Every token in it has expired and no new tokens
+	 *         will be written to it until the current generation has fully passed
+	 */
+	static int computeExpiredGenerationIndex(final long nowMillis, final long generationMillis) {
+		return toGenerationIndex(nowMillis / generationMillis + NUT_TOKEN_GENERATION_COUNT - 1);
+	}
+
+	/**
+	 * @return the indexes of every generation which holds only expired tokens and can be truncated now: the previous
+	 *         generation and, during the first half of the current generation, the one before it. That one becomes
+	 *         the next generation once the current one passes, so it is left alone near the end of the current
+	 *         generation in case new tokens arrive while the truncate is running. Truncating both on every run means
+	 *         a partition is still reclaimed when a cleanup run is missed or the server was down
+	 */
+	static int[] computeExpiredGenerationIndexes(final long nowMillis, final long generationMillis) {
+		final int previous = computeExpiredGenerationIndex(nowMillis, generationMillis);
+		if (nowMillis % generationMillis >= generationMillis / 2) {
+			return new int[] { previous };
+		}
+		return new int[] { previous, toGenerationIndex(nowMillis / generationMillis + NUT_TOKEN_GENERATION_COUNT - 2) };
+	}
+
 	@Override
 	public String fetchTransientAuthData(final String correlator, final String dataName) {
 		updateLastUsed(entityManager);
@@ -325,7 +554,7 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 					new SqrlDebugException());
 			return; // Don't call entityManager.persist(sqrlIdentity);
 		}
-		entityManager.persist(sqrlIdentity);
+		persistSqrlIdentity(sqrlIdentity);
 	}
 
 	@Override
@@ -333,7 +562,8 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 		updateLastUsed(entityManager);
 		final SqrlIdentity sqrlIdentity = new SqrlIdentity(sqrlIdk);
 		sqrlIdentity.getEnabledFlagList().add(SqrlIdentityFlag.SQRL_AUTH_ENABLED);
-		entityManager.persist(sqrlIdentity);
+		persistSqrlIdentity(sqrlIdentity);
+		cacheSqrlIdentity(sqrlIdentity);
 	}
 
 	@Override
@@ -374,6 +604,10 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 			logger.info("SqrlCorrelatorc cleanup deleted {} rows", rowsDeleted);
 		}
 
+		if (nutTokenPartitionCleanup) {
+			truncateExpiredNutTokenGeneration(now);
+			return;
+		}
 		rowsDeleted = entityManager.createQuery("DELETE FROM SqrlUsedNutToken i WHERE i.expiryTime < :now")
 				.setParameter("now", now, TemporalType.TIMESTAMP).executeUpdate();
 		if (rowsDeleted > 0) {
@@ -381,6 +615,54 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 		}
 	}
 
+	@Override
+	public int cleanUpExpiredEntries(final int maxRowCount) {
+		final Date now = new Date();
+		// JPQL has no DELETE ... LIMIT, so find the oldest keys first then delete by key
+		int rowsDeleted = 0;
+		final List<Long> correlatorIdList = entityManager
+				.createQuery("SELECT i.id FROM SqrlCorrelator i WHERE i.expiryTime < :now ORDER BY i.id", Long.class)
+				.setParameter("now", now, TemporalType.TIMESTAMP).setMaxResults(maxRowCount).getResultList();
+		if (!correlatorIdList.isEmpty()) {
+			rowsDeleted += entityManager.createQuery("DELETE FROM SqrlCorrelator i WHERE i.id IN :idList")
+					.setParameter("idList", correlatorIdList).executeUpdate();
+		}
+
+		if (nutTokenPartitionCleanup) {
+			// Done once per run by truncateExpiredEntries()
+			return rowsDeleted;
+		}
+		final List<String> nutTokenList = entityManager
+				.createQuery("SELECT i.value FROM SqrlUsedNutToken i WHERE i.expiryTime < :now", String.class)
+				.setParameter("now", now, TemporalType.TIMESTAMP).setMaxResults(maxRowCount).getResultList();
+		if (!nutTokenList.isEmpty()) {
+			rowsDeleted += entityManager.createQuery("DELETE FROM SqrlUsedNutToken i WHERE i.value IN :valueList")
+					.setParameter("valueList", nutTokenList).executeUpdate();
+		}
+		return rowsDeleted;
+	}
+
+	@Override
+	public void truncateExpiredEntries() {
+		if (nutTokenPartitionCleanup) {
+			truncateExpiredNutTokenGeneration(new Date());
+		}
+	}
+
+	private void truncateExpiredNutTokenGeneration(final Date now) {
+		// Constant time regardless of how many tokens were used
+		final StringBuilder partitionList = new StringBuilder();
+		for (final int generationIndex : computeExpiredGenerationIndexes(now.getTime(), nutTokenGenerationMillis)) {
+			if (partitionList.length() > 0) {
+				partitionList.append(", ");
+			}
+			partitionList.append('p').append(generationIndex);
+		}
+		entityManager.createNativeQuery("ALTER TABLE sqrl_used_nut_token TRUNCATE PARTITION " + partitionList)
+		.executeUpdate();
+		logger.debug("SqrlUsedNutToken cleanup truncated generation partitions {}", partitionList);
+	}
+
 	/**
 	 * A task which periodically checks the state of various {@link EntityManager} instances to ensure they are being
 	 * closed properly by the library
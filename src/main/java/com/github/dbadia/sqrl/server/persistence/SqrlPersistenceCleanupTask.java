@@ -1,28 +1,137 @@
 package com.github.dbadia.sqrl.server.persistence;
 
+import java.util.concurrent.TimeUnit;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.dbadia.sqrl.server.SqrlPersistenceFactory;
 
+/**
+ * Deletes expired entries in bounded batches, committing after each one so that inserts on the same tables are never
+ * blocked by one large delete. The batch size is halved when the persistence store is slow to respond and doubled
+ * (up to the configured maximum) when it is fast. Between batches the task pauses for as long as the last batch took,
+ * so it never holds the store for more than half the time while working through a large backlog
+ *
+ * @author Dave Badia
+ *
+ */
 public class SqrlPersistenceCleanupTask implements Runnable {
-	private static final Logger				logger	= LoggerFactory.getLogger(SqrlPersistenceCleanupTask.class);
+	private static final Logger				logger						= LoggerFactory
+			.getLogger(SqrlPersistenceCleanupTask.class);
+	public static final int					DEFAULT_BATCH_SIZE			= 500;
+	static final int						MIN_BATCH_SIZE				= 10;
+	/**
+	 * Batches that take longer than this are considered to be impacting other users of the persistence store
+	 */
+	static final long						TARGET_BATCH_MILLIS			= 250;
+	private static final long				DEFAULT_MAX_RUN_MILLIS		= TimeUnit.MINUTES.toMillis(15);
+
 	private final SqrlPersistenceFactory	persistenceFactory;
+	private final int						maxBatchSize;
+	private final long						maxRunMillis;
+	private int								batchSize;
+	private volatile long					lastRunRowsDeleted;
+	private volatile long					lastRunMillis;
 
 	public SqrlPersistenceCleanupTask(final SqrlPersistenceFactory persistenceFactory) {
+		this(persistenceFactory, DEFAULT_BATCH_SIZE, DEFAULT_MAX_RUN_MILLIS);
+	}
+
+	/**
+	 * @param maxBatchSize
+	 *            the maximum number of rows to delete from each table per transaction
+	 * @param maxRunMillis
+	 *            the time after which a run stops even if expired entries remain, typically the interval between runs
+	 */
+	public SqrlPersistenceCleanupTask(final SqrlPersistenceFactory persistenceFactory, final int maxBatchSize,
+			final long maxRunMillis) {
 		super();
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException("maxBatchSize must be > 0");
+		}
 		this.persistenceFactory = persistenceFactory;
+		this.maxBatchSize = maxBatchSize;
+		this.maxRunMillis = maxRunMillis;
+		this.batchSize = Math.min(MIN_BATCH_SIZE * 10, maxBatchSize);
 	}
 
 	@Override
 	public void run() {
+		final long runStart = System.currentTimeMillis();
+		long rowsDeleted = 0;
+		int batchCount = 0;
+		try {
+			runTruncate();
+			while (true) {
+				final long batchStart = System.currentTimeMillis();
+				final int batchRowsDeleted = runBatch(batchSize);
+				final long batchMillis = System.currentTimeMillis() - batchStart;
+				rowsDeleted += batchRowsDeleted;
+				batchCount++;
+				if (batchRowsDeleted < batchSize) {
+					break; // backlog cleared
+				}
+				batchSize = computeNextBatchSize(batchSize, batchMillis, maxBatchSize);
+				if (System.currentTimeMillis() - runStart + batchMillis > maxRunMillis) {
+					logger.warn("Persistence cleanup stopped after {} ms with expired entries remaining",
+							System.currentTimeMillis() - runStart);
+					break;
+				}
+				TimeUnit.MILLISECONDS.sleep(batchMillis);
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (final RuntimeException e) {
+			logger.error("Error during execution cleanup tasks", e);
+		}
+		lastRunRowsDeleted = rowsDeleted;
+		lastRunMillis = System.currentTimeMillis() - runStart;
+		if (rowsDeleted > 0) {
+			logger.info("Persistence cleanup deleted {} rows in {} batches over {} ms ({} rows/sec)", rowsDeleted,
+					batchCount, lastRunMillis, getLastRunRowsPerSecond());
+		}
+	}
+
+	private void runTruncate() {
 		try (SqrlAutoCloseablePersistence sqrlPersistence = new SqrlAutoCloseablePersistence(
 				persistenceFactory.createSqrlPersistence())) {
-			sqrlPersistence.cleanUpExpiredEntries();
+			sqrlPersistence.truncateExpiredEntries();
 			sqrlPersistence.closeCommit();
-		} catch (final RuntimeException e) {
-			logger.error("Error during execution cleanup tasks", e);
 		}
 	}
 
+	private int runBatch(final int maxRowCount) {
+		try (SqrlAutoCloseablePersistence sqrlPersistence = new SqrlAutoCloseablePersistence(
+				persistenceFactory.createSqrlPersistence())) {
+			final int rowsDeleted = sqrlPersistence.cleanUpExpiredEntries(maxRowCount);
+			sqrlPersistence.closeCommit();
+			return rowsDeleted;
+		}
+	}
+
+	static int computeNextBatchSize(final int batchSize, final long batchMillis, final int maxBatchSize) {
+		if (batchMillis > TARGET_BATCH_MILLIS) {
+			return Math.max(MIN_BATCH_SIZE, batchSize / 2);
+		} else if (batchMillis < TARGET_BATCH_MILLIS / 2) {
+			return (int) Math.min(maxBatchSize, batchSize * 2L);
+		}
+		return batchSize;
+	}
+
+	/**
+	 * @return the number of rows deleted by the most recent run
+	 */
+	public long getLastRunRowsDeleted() {
+		return lastRunRowsDeleted;
+	}
+
+	/**
+	 * @return the delete rate of the most recent run, including the pauses between batches
+	 */
+	public long getLastRunRowsPerSecond() {
+		final long millis = lastRunMillis;
+		return millis == 0 ? lastRunRowsDeleted : lastRunRowsDeleted * 1000 / millis;
+	}
+
 }
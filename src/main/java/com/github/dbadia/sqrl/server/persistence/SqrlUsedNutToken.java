@@ -9,6 +9,7 @@ import javax.persistence.Id;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
+import javax.persistence.Transient;
 
 @Entity
 @Table(name = "sqrl_used_nut_token")
@@ -23,6 +24,14 @@ public class SqrlUsedNutToken implements Serializable {
 	@Temporal(TemporalType.TIMESTAMP)
 	private Date expiryTime;
 
+	/**
+	 * The generation (0 to {@link SqrlJpaPersistenceProvider#NUT_TOKEN_GENERATION_COUNT} - 1) that expiryTime falls
+	 * in, used to remove a whole generation of expired tokens at once. Only mapped when the partition overlay from the
+	 * datastore directory is used
+	 */
+	@Transient
+	private int generation;
+
 	public SqrlUsedNutToken() {
 		// No arg required for JPA
 	}
@@ -32,6 +41,11 @@ public class SqrlUsedNutToken implements Serializable {
 		this.expiryTime = expiryTime;
 	}
 
+	public SqrlUsedNutToken(final String nutTokenString, final Date expiryTime, final int generation) {
+		this(nutTokenString, expiryTime);
+		this.generation = generation;
+	}
+
 	public String getValue() {
 		return value;
 	}
@@ -47,4 +61,12 @@ public class SqrlUsedNutToken implements Serializable {
 	public void setExpiryTime(final Date expiryTime) {
 		this.expiryTime = expiryTime;
 	}
+
+	public int getGeneration() {
+		return generation;
+	}
+
+	public void setGeneration(final int generation) {
+		this.generation = generation;
+	}
 }
@@ -0,0 +1,120 @@
+package com.github.dbadia.sqrl.server.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.dbadia.sqrl.server.SqrlConfig;
+
+/**
+ * Internal use only.
+ * <p/>
+ * Limits the number of requests processed concurrently so excess work is rejected up front instead of queueing until
+ * every in-flight request times out. The limit adapts to observed latency using additive increase, multiplicative
+ * decrease (AIMD): each request which completes within the target latency while the limit is at least half used raises
+ * the limit by one, and a slow request shrinks it by {@link #BACKOFF_RATIO}. The limit shrinks at most once per
+ * latency window: a slow request which was already running when the limit last shrank saw the same overload and is
+ * not counted again
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlAdmissionController {
+	private static final double	BACKOFF_RATIO	= 0.9;
+
+	private final boolean		enabled;
+	private final int			minLimit;
+	private final int			maxLimit;
+	private final long			targetLatencyNanos;
+	private final AtomicLong	acceptedCount	= new AtomicLong(0);
+	private final AtomicLong	rejectedCount	= new AtomicLong(0);
+	private double				limit;
+	private int					inFlightCount;
+	private long				lastBackoffNanos;
+
+	public SqrlAdmissionController(final SqrlConfig config) {
+		this(config.isAdmissionControlEnabled(), config.getAdmissionControlInitialLimit(),
+				config.getAdmissionControlMinLimit(), config.getAdmissionControlMaxLimit(),
+				TimeUnit.MILLISECONDS.toNanos(config.getAdmissionControlTargetLatencyMillis()));
+	}
+
+	SqrlAdmissionController(final boolean enabled, final int initialLimit, final int minLimit, final int maxLimit,
+			final long targetLatencyNanos) {
+		if (minLimit < 1 || maxLimit < minLimit) {
+			throw new IllegalArgumentException("Admission control limits must satisfy 1 <= min <= max but were min="
+					+ minLimit + ", max=" + maxLimit);
+		}
+		this.enabled = enabled;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.targetLatencyNanos = targetLatencyNanos;
+		this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+		this.lastBackoffNanos = System.nanoTime();
+	}
+
+	/**
+	 * Must be followed by a call to {@link #release(long)} or {@link #releaseIgnored()} if, and only if, true is
+	 * returned
+	 *
+	 * @return true if the request may be processed, false if it must be rejected
+	 */
+	public synchronized boolean tryAcquire() {
+		if (enabled && inFlightCount >= (int) limit) {
+			rejectedCount.incrementAndGet();
+			return false;
+		}
+		inFlightCount++;
+		acceptedCount.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * @param latencyNanos
+	 *            how long the request spent being processed, used to adapt the limit. Time spent waiting in a queue
+	 *            or for a lock must not be included, otherwise queueing caused by the limit itself would shrink it
+	 */
+	public void release(final long latencyNanos) {
+		release(latencyNanos, System.nanoTime());
+	}
+
+	synchronized void release(final long latencyNanos, final long nowNanos) {
+		// Only grow the limit if it is actually being used, otherwise a quiet period would let it grow unchecked
+		final boolean limitInUse = inFlightCount * 2 >= limit;
+		inFlightCount--;
+		if (latencyNanos > targetLatencyNanos) {
+			// Only back off again for requests which started after the last back off
+			if (nowNanos - latencyNanos - lastBackoffNanos >= 0) {
+				limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+				lastBackoffNanos = nowNanos;
+			}
+		} else if (limitInUse) {
+			limit = Math.min(maxLimit, limit + 1);
+		}
+	}
+
+	/**
+	 * Releases the permit of a request which was rejected or otherwise not processed, such as one which was refused
+	 * by a full pool. The limit is left as is since such a request says nothing about latency
+	 */
+	public synchronized void releaseIgnored() {
+		inFlightCount--;
+	}
+
+	/**
+	 * @return the current number of requests which may be processed concurrently
+	 */
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	public synchronized int getInFlightCount() {
+		return inFlightCount;
+	}
+
+	public long getAcceptedCount() {
+		return acceptedCount.get();
+	}
+
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+}
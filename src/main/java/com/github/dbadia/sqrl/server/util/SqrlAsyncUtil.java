@@ -0,0 +1,237 @@
+package com.github.dbadia.sqrl.server.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dbadia.sqrl.server.enums.SqrlExecutionMode;
+
+/**
+ * Internal use only.
+ * <p/>
+ * Helpers for running SQRL work in stages on bounded thread pools
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlAsyncUtil {
+	private static final Logger	logger				= LoggerFactory.getLogger(SqrlAsyncUtil.class);
+	private static final long	KEEP_ALIVE_SECONDS	= 60;
+
+	private SqrlAsyncUtil() {
+		// util class
+	}
+
+	/**
+	 * Creates a pool where both the thread count and the queue are bounded so a slow dependency results in rejected
+	 * work rather than an ever growing backlog. Threads are daemons and are released when idle
+	 *
+	 * @param threadNamePrefix
+	 *            the prefix for the thread names, followed by a counter
+	 */
+	public static ThreadPoolExecutor newBoundedExecutor(final String threadNamePrefix, final int threadCount,
+			final int queueSize) {
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, KEEP_ALIVE_SECONDS,
+				TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+				new SqrlNamedThreadFactory(threadNamePrefix));
+		// Don't hold threads when idle
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Creates the single thread scheduler which fires the timeouts of {@link #withTimeout} and
+	 * {@link #withCommitTimeout}; the work itself never runs there. The caller owns it and must shut it down
+	 */
+	public static ScheduledThreadPoolExecutor newTimeoutScheduler() {
+		final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,
+				new SqrlNamedThreadFactory("Sqrl Timeout #"));
+		// Most stages complete in time, so don't let their cancelled timeouts pile up in the queue
+		scheduler.setRemoveOnCancelPolicy(true);
+		return scheduler;
+	}
+
+	/**
+	 * Creates an executor for blocking work such as persistence calls. In {@link SqrlExecutionMode#VIRTUAL} mode each
+	 * task gets its own virtual thread but the thread and queue limits still apply; if virtual threads are not
+	 * available on this JVM a platform pool is used instead
+	 *
+	 * @see #newBoundedExecutor(String, int, int)
+	 */
+	public static ExecutorService newBlockingExecutor(final String threadNamePrefix, final int threadCount,
+			final int queueSize, final SqrlExecutionMode executionMode) {
+		if (executionMode == SqrlExecutionMode.VIRTUAL) {
+			final ExecutorService virtualThreadExecutor = newVirtualThreadPerTaskExecutor(threadNamePrefix);
+			if (virtualThreadExecutor != null) {
+				return new SqrlBoundedVirtualThreadExecutor(virtualThreadExecutor, threadCount, queueSize);
+			}
+		}
+		return newBoundedExecutor(threadNamePrefix, threadCount, queueSize);
+	}
+
+	/**
+	 * Uses reflection since we compile for Java 8 but may run on a JVM which supports virtual threads
+	 *
+	 * @return a thread per task executor using virtual threads or null if they are not supported by this JVM
+	 */
+	private static ExecutorService newVirtualThreadPerTaskExecutor(final String threadNamePrefix) {
+		try {
+			final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, threadNamePrefix, 1L);
+			final ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+			return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+					.invoke(null, threadFactory);
+		} catch (final ReflectiveOperationException e) {
+			logger.warn("Virtual threads are not supported by this JVM, using platform threads for {}",
+					threadNamePrefix);
+			logger.debug("Virtual thread lookup failed", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Wraps a periodic task so each run is handed off to the given executor instead of blocking the scheduler thread.
+	 * A run is skipped if the previous one is still in progress, matching the behaviour of
+	 * {@link java.util.concurrent.ScheduledExecutorService#scheduleAtFixedRate(Runnable, long, long, TimeUnit)}
+	 */
+	public static Runnable offloadPeriodicTask(final Runnable task, final Executor executor) {
+		final AtomicBoolean running = new AtomicBoolean(false);
+		return () -> {
+			if (!running.compareAndSet(false, true)) {
+				logger.debug("Skipping run of {} since the previous run is still in progress", task);
+				return;
+			}
+			try {
+				executor.execute(() -> {
+					try {
+						task.run();
+					} finally {
+						running.set(false);
+					}
+				});
+			} catch (final RejectedExecutionException e) {
+				running.set(false);
+				logger.warn("Executor rejected run of {}", task, e);
+			}
+		};
+	}
+
+	/**
+	 * Returns a future which completes with the result of the given stage or, if the stage does not complete within
+	 * the timeout, exceptionally with a {@link TimeoutException}. The work behind the stage is not interrupted as
+	 * there is no safe way to abandon a persistence call midway
+	 *
+	 * @param timeoutScheduler
+	 *            fires the timeout, see {@link #newTimeoutScheduler()}
+	 * @param stageName
+	 *            the name of the stage, used in the timeout message
+	 */
+	public static <T> CompletableFuture<T> withTimeout(final ScheduledExecutorService timeoutScheduler,
+			final CompletableFuture<T> stage, final long timeoutMillis, final String stageName) {
+		if (stage.isDone()) {
+			return stage;
+		}
+		final CompletableFuture<T> result = new CompletableFuture<>();
+		final ScheduledFuture<?> timeout = timeoutScheduler.schedule(() -> result.completeExceptionally(
+				new TimeoutException("SQRL " + stageName + " stage did not complete within " + timeoutMillis + "ms")),
+				timeoutMillis, TimeUnit.MILLISECONDS);
+		stage.whenComplete((value, throwable) -> {
+			timeout.cancel(false);
+			if (throwable == null) {
+				result.complete(value);
+			} else {
+				result.completeExceptionally(throwable);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Same as {@link #withTimeout(ScheduledExecutorService, CompletableFuture, long, String)} for a stage whose work
+	 * commits a transaction. The timeout only fails the stage if it fires before the work calls
+	 * {@link SqrlCommitDeadline#tryCommit()}, in which case the work must roll back. Once the work has claimed its
+	 * commit, the stage completes with the real outcome
+	 *
+	 * @param stageFactory
+	 *            starts the work, which must check the deadline it is given before committing
+	 */
+	public static <T> CompletableFuture<T> withCommitTimeout(final ScheduledExecutorService timeoutScheduler,
+			final Function<SqrlCommitDeadline, CompletableFuture<T>> stageFactory, final long timeoutMillis,
+			final String stageName) {
+		final SqrlCommitDeadline deadline = new SqrlCommitDeadline();
+		final CompletableFuture<T> stage = stageFactory.apply(deadline);
+		if (stage.isDone()) {
+			return stage;
+		}
+		final CompletableFuture<T> result = new CompletableFuture<>();
+		final ScheduledFuture<?> timeout = timeoutScheduler.schedule(() -> {
+			if (deadline.expire()) {
+				result.completeExceptionally(new TimeoutException(
+						"SQRL " + stageName + " stage did not complete within " + timeoutMillis + "ms"));
+			}
+		}, timeoutMillis, TimeUnit.MILLISECONDS);
+		stage.whenComplete((value, throwable) -> {
+			timeout.cancel(false);
+			if (throwable == null) {
+				result.complete(value);
+			} else {
+				result.completeExceptionally(throwable);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * @return the exception which caused a stage to fail, with any {@link CompletionException} or
+	 *         {@link ExecutionException} wrappers removed
+	 */
+	public static Throwable unwrap(final Throwable throwable) {
+		Throwable cause = throwable;
+		while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+				&& cause.getCause() != null) {
+			cause = cause.getCause();
+		}
+		return cause;
+	}
+
+	/**
+	 * Gives our threads meaningful names
+	 *
+	 * @author Dave Badia
+	 *
+	 */
+	private static class SqrlNamedThreadFactory implements ThreadFactory {
+		private final AtomicInteger	threadCounter	= new AtomicInteger(1);
+		private final String		threadNamePrefix;
+
+		private SqrlNamedThreadFactory(final String threadNamePrefix) {
+			this.threadNamePrefix = threadNamePrefix;
+		}
+
+		@Override
+		public Thread newThread(final Runnable r) {
+			final Thread thread = new Thread(r, threadNamePrefix + threadCounter.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
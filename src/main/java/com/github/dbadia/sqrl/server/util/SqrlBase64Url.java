@@ -0,0 +1,180 @@
+package com.github.dbadia.sqrl.server.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Internal use only.
+ * <p/>
+ * Table driven base64URL codec in the unpadded form required by SQRL. Encoding and decoding work on caller supplied
+ * buffers, and decoding validates each character as it goes, so incoming tokens need no separate regex check
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlBase64Url {
+	private static final byte[]	ENCODE_TABLE	= "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_"
+			.getBytes(StandardCharsets.US_ASCII);
+	/**
+	 * Maps a character to its 6 bit value, or -1 if it is not in the base64URL alphabet
+	 */
+	private static final byte[]	DECODE_TABLE	= buildDecodeTable();
+	private static final char	PAD				= '=';
+
+	private SqrlBase64Url() {
+		// Util class
+	}
+
+	/**
+	 * @return the number of characters needed to encode length bytes, without padding
+	 */
+	public static int encodedLength(final int length) {
+		return (length / 3) * 4 + ((length % 3) * 4 + 2) / 3;
+	}
+
+	/**
+	 * @return the most bytes that decoding the given number of characters can produce
+	 */
+	public static int maxDecodedLength(final int encodedLength) {
+		return (encodedLength / 4) * 3 + ((encodedLength % 4) * 3) / 4;
+	}
+
+	/**
+	 * Encodes src into dst as US-ASCII, without padding. dst must have room for {@link #encodedLength(int)} bytes
+	 *
+	 * @return the number of bytes written to dst
+	 */
+	public static int encode(final byte[] src, final int srcOffset, final int length, final byte[] dst,
+			final int dstOffset) {
+		final int srcEnd = srcOffset + length;
+		final int fullGroupsEnd = srcOffset + (length / 3) * 3;
+		int s = srcOffset;
+		int d = dstOffset;
+		while (s < fullGroupsEnd) {
+			final int bits = (src[s++] & 0xff) << 16 | (src[s++] & 0xff) << 8 | (src[s++] & 0xff);
+			dst[d++] = ENCODE_TABLE[bits >>> 18];
+			dst[d++] = ENCODE_TABLE[(bits >>> 12) & 0x3f];
+			dst[d++] = ENCODE_TABLE[(bits >>> 6) & 0x3f];
+			dst[d++] = ENCODE_TABLE[bits & 0x3f];
+		}
+		final int remaining = srcEnd - s;
+		if (remaining > 0) {
+			final int b0 = src[s] & 0xff;
+			dst[d++] = ENCODE_TABLE[b0 >>> 2];
+			if (remaining == 1) {
+				dst[d++] = ENCODE_TABLE[(b0 << 4) & 0x3f];
+			} else {
+				final int b1 = src[s + 1] & 0xff;
+				dst[d++] = ENCODE_TABLE[(b0 << 4 | b1 >>> 4) & 0x3f];
+				dst[d++] = ENCODE_TABLE[(b1 << 2) & 0x3f];
+			}
+		}
+		return d - dstOffset;
+	}
+
+	/**
+	 * @return src encoded as an exactly sized US-ASCII array, without padding
+	 */
+	public static byte[] encode(final byte[] src) {
+		final byte[] dst = new byte[encodedLength(src.length)];
+		encode(src, 0, src.length, dst, 0);
+		return dst;
+	}
+
+	/**
+	 * @return src encoded as a String, without padding
+	 */
+	public static String encodeToString(final byte[] src) {
+		return new String(encode(src), StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Decodes src into dst, validating each character on the way. Trailing padding is accepted but not required. dst
+	 * must have room for {@link #maxDecodedLength(int)} bytes
+	 *
+	 * @return the number of bytes written to dst or -1 if src is not valid base64URL
+	 */
+	public static int decode(final CharSequence src, final byte[] dst, final int dstOffset) {
+		final int length = unpaddedLength(src);
+		if (length < 0 || length % 4 == 1) {
+			return -1;
+		}
+		int d = dstOffset;
+		int bits = 0;
+		int bitCount = 0;
+		for (int i = 0; i < length; i++) {
+			final char c = src.charAt(i);
+			final int value = c < DECODE_TABLE.length ? DECODE_TABLE[c] : -1;
+			if (value < 0) {
+				return -1;
+			}
+			bits = bits << 6 | value;
+			bitCount += 6;
+			if (bitCount >= 8) {
+				bitCount -= 8;
+				dst[d++] = (byte) (bits >>> bitCount);
+			}
+		}
+		return d - dstOffset;
+	}
+
+	/**
+	 * @return src decoded into an exactly sized array or null if src is not valid base64URL
+	 */
+	public static byte[] decode(final CharSequence src) {
+		final byte[] buffer = new byte[maxDecodedLength(src.length())];
+		final int length = decode(src, buffer, 0);
+		if (length < 0) {
+			return null;
+		}
+		return length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+	}
+
+	/**
+	 * Equivalent to matching {@link SqrlConstants#REGEX_BASE64_URL}, without the regex engine
+	 *
+	 * @return true if data is non empty and contains only base64URL characters
+	 */
+	public static boolean isValid(final CharSequence data) {
+		final int length = data.length();
+		if (length == 0) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			final char c = data.charAt(i);
+			if (c >= DECODE_TABLE.length || DECODE_TABLE[c] < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Padding, if present, must complete the last group of 4
+	 *
+	 * @return the length without padding or -1 if the padding is invalid
+	 */
+	private static int unpaddedLength(final CharSequence src) {
+		int length = src.length();
+		if (length == 0 || src.charAt(length - 1) != PAD) {
+			return length;
+		}
+		if (length % 4 != 0) {
+			return -1;
+		}
+		length--;
+		if (src.charAt(length - 1) == PAD) {
+			length--;
+		}
+		return length;
+	}
+
+	private static byte[] buildDecodeTable() {
+		final byte[] table = new byte[128];
+		Arrays.fill(table, (byte) -1);
+		for (int i = 0; i < ENCODE_TABLE.length; i++) {
+			table[ENCODE_TABLE[i]] = (byte) i;
+		}
+		return table;
+	}
+}
@@ -0,0 +1,88 @@
+package com.github.dbadia.sqrl.server.util;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs each task on its own virtual thread while keeping the limits of a bounded pool: at most {@code threadCount}
+ * tasks run at once, and at most {@code queueSize} more may wait before new tasks are rejected. Waiting tasks park
+ * their virtual thread instead of holding a platform thread. A task still waiting when the executor is shut down with
+ * {@link #shutdownNow()} runs at once with its thread interrupted rather than being dropped
+ *
+ * @author Dave Badia
+ *
+ */
+class SqrlBoundedVirtualThreadExecutor extends AbstractExecutorService {
+	private final ExecutorService	virtualThreadExecutor;
+	private final Semaphore			runningPermits;
+	private final Semaphore			admissionPermits;
+
+	SqrlBoundedVirtualThreadExecutor(final ExecutorService virtualThreadExecutor, final int threadCount,
+			final int queueSize) {
+		this.virtualThreadExecutor = virtualThreadExecutor;
+		this.runningPermits = new Semaphore(threadCount);
+		this.admissionPermits = new Semaphore(threadCount + queueSize);
+	}
+
+	@Override
+	public void execute(final Runnable command) {
+		if (!admissionPermits.tryAcquire()) {
+			throw new RejectedExecutionException("Virtual thread executor is at capacity");
+		}
+		try {
+			virtualThreadExecutor.execute(() -> {
+				try {
+					runningPermits.acquire();
+				} catch (final InterruptedException e) {
+					// Interrupted while waiting, i.e. shutdownNow. Dropping the task would leave whatever waits on it
+					// hanging, so run it without a permit and with the interrupt restored so blocking calls fail fast
+					Thread.currentThread().interrupt();
+					try {
+						command.run();
+					} finally {
+						admissionPermits.release();
+					}
+					return;
+				}
+				try {
+					command.run();
+				} finally {
+					runningPermits.release();
+					admissionPermits.release();
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			admissionPermits.release();
+			throw e;
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		virtualThreadExecutor.shutdown();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		return virtualThreadExecutor.shutdownNow();
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return virtualThreadExecutor.isShutdown();
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return virtualThreadExecutor.isTerminated();
+	}
+
+	@Override
+	public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+		return virtualThreadExecutor.awaitTermination(timeout, unit);
+	}
+}
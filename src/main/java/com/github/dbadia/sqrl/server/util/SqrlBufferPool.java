@@ -0,0 +1,46 @@
+package com.github.dbadia.sqrl.server.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Internal use only.
+ * <p/>
+ * A bounded pool of same sized byte arrays. Callers which need more than {@link #getBufferSize()} bytes should
+ * allocate their own array, which will be dropped when released, so the pool never holds more than
+ * {@code maxPooled * bufferSize} bytes
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlBufferPool {
+	private final int					bufferSize;
+	private final BlockingQueue<byte[]>	pool;
+
+	public SqrlBufferPool(final int bufferSize, final int maxPooled) {
+		this.bufferSize = bufferSize;
+		this.pool = new ArrayBlockingQueue<>(maxPooled);
+	}
+
+	/**
+	 * @return a pooled buffer or, if none are free, a new one. Contents are not cleared
+	 */
+	public byte[] acquire() {
+		final byte[] buffer = pool.poll();
+		return buffer == null ? new byte[bufferSize] : buffer;
+	}
+
+	/**
+	 * Returns the buffer to the pool. Buffers of the wrong size, or which don't fit, are left for the garbage
+	 * collector
+	 */
+	public void release(final byte[] buffer) {
+		if (buffer != null && buffer.length == bufferSize) {
+			pool.offer(buffer);
+		}
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+}
@@ -0,0 +1,47 @@
+package com.github.dbadia.sqrl.server.util;
+
+import java.security.SecureRandom;
+
+/**
+ * Internal use only.
+ * <p/>
+ * Hands out random ints from a single shared buffer which is refilled from the configured {@link SecureRandom} in one
+ * call. Some providers do expensive work on every call, so drawing a buffer at a time amortizes it while the output
+ * still comes only from the configured instance. The buffer is guarded by a plain lock rather than kept per thread so
+ * short lived and virtual threads don't each throw away a partly used buffer
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlBufferedRandom {
+	private final SecureRandom	source;
+	private final byte[]		buffer;
+	private int					position;
+
+	/**
+	 * @param bufferSize
+	 *            the number of ints drawn from source at a time, 0 to call source for every int
+	 */
+	public SqrlBufferedRandom(final SecureRandom source, final int bufferSize) {
+		this.source = source;
+		this.buffer = new byte[bufferSize * Integer.BYTES];
+		// Empty until the first call
+		this.position = buffer.length;
+	}
+
+	public int nextInt() {
+		if (buffer.length == 0) {
+			return source.nextInt();
+		}
+		synchronized (buffer) {
+			if (position == buffer.length) {
+				source.nextBytes(buffer);
+				position = 0;
+			}
+			final int i = position;
+			position += Integer.BYTES;
+			return (buffer[i] & 0xff) << 24 | (buffer[i + 1] & 0xff) << 16 | (buffer[i + 2] & 0xff) << 8
+					| (buffer[i + 3] & 0xff);
+		}
+	}
+}
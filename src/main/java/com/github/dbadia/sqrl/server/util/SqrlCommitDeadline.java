@@ -0,0 +1,44 @@
+package com.github.dbadia.sqrl.server.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Internal use only.
+ * <p/>
+ * Decides, exactly once, whether a timed out stage or the transactional work behind it wins. The work calls
+ * {@link #tryCommit()} as its very last step; if the timeout has already fired the work must throw so its transaction
+ * is rolled back, otherwise the timeout is ignored and the stage waits for the commit. This way a client is never told
+ * a request failed when its changes were actually committed
+ *
+ * @see SqrlAsyncUtil#withCommitTimeout
+ * @author Dave Badia
+ *
+ */
+public class SqrlCommitDeadline {
+	private static final int	RUNNING		= 0;
+	private static final int	COMMITTING	= 1;
+	private static final int	EXPIRED		= 2;
+
+	private final AtomicInteger state = new AtomicInteger(RUNNING);
+
+	/**
+	 * @return true if the work may commit, false if the stage has already timed out
+	 */
+	public boolean tryCommit() {
+		return state.compareAndSet(RUNNING, COMMITTING);
+	}
+
+	/**
+	 * @return true if the stage has timed out, so work which has not started yet can be skipped
+	 */
+	public boolean isExpired() {
+		return state.get() == EXPIRED;
+	}
+
+	/**
+	 * @return true if the timeout won, false if the work has already claimed its commit
+	 */
+	boolean expire() {
+		return state.compareAndSet(RUNNING, EXPIRED);
+	}
+}
@@ -38,6 +38,12 @@ public class SqrlConstants {
 	public static final CharSequence	FORWARD_SLASH_X2_127_0_0_1	= "//127.0.0.1";
 	public static final int				AES_KEY_LENGTH				= 16;
 
+	/**
+	 * @deprecated the server parrot is now stored on the correlator, see
+	 *             {@link com.github.dbadia.sqrl.server.persistence.SqrlCorrelator#setServerParrot(String)}. Only read
+	 *             for correlators created before the upgrade which added sqrl_correlator.serverParrotHash
+	 */
+	@Deprecated
 	public static final String					TRANSIENT_NAME_SERVER_PARROT	= "lastServerParam";
 	public static final String					ERROR							= "error";
 
@@ -47,6 +53,13 @@ public class SqrlConstants {
 	 */
 	public static final int		MAX_SQRL_TOKEN_SIZE	= 30000;
 
+	/**
+	 * The number of ids each JPA table generator reserves from sqrl_db_id_gen at a time. Each node hands out ids from
+	 * its reserved block in memory, so the shared generator row is only locked once per block instead of once per
+	 * insert. Can be overridden per generator by defining a table-generator of the same name in META-INF/orm.xml
+	 */
+	public static final int		DB_ID_ALLOCATION_SIZE	= 100;
+
 	private SqrlConstants() {
 		// Constants class
 	}
@@ -0,0 +1,107 @@
+package com.github.dbadia.sqrl.server.util;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.dbadia.sqrl.server.enums.SqrlExecutionMode;
+
+/**
+ * A named, bounded pool which keeps track of its own metrics regardless of whether the work runs on platform or
+ * virtual threads
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlExecutorPool extends AbstractExecutorService {
+	private final String			poolName;
+	private final int				threadCount;
+	private final int				queueSize;
+	private final ExecutorService	delegate;
+	/**
+	 * Tasks which have been accepted but not yet finished, whether running or queued
+	 */
+	private final AtomicInteger		inFlightCount	= new AtomicInteger(0);
+	private final AtomicInteger		activeCount		= new AtomicInteger(0);
+	private final AtomicLong		completedCount	= new AtomicLong(0);
+	private final AtomicLong		rejectedCount	= new AtomicLong(0);
+
+	/**
+	 * @param threadCount
+	 *            the maximum number of tasks which can run at once
+	 * @param queueSize
+	 *            the maximum number of tasks which can wait for a thread before new tasks are rejected
+	 * @param executionMode
+	 *            whether tasks run on platform or virtual threads; CPU bound pools should always use
+	 *            {@link SqrlExecutionMode#PLATFORM}
+	 */
+	public SqrlExecutorPool(final String poolName, final int threadCount, final int queueSize,
+			final SqrlExecutionMode executionMode) {
+		this.poolName = poolName;
+		this.threadCount = threadCount;
+		this.queueSize = queueSize;
+		this.delegate = SqrlAsyncUtil.newBlockingExecutor("Sqrl " + poolName + " #", threadCount, queueSize,
+				executionMode);
+	}
+
+	@Override
+	public void execute(final Runnable command) {
+		inFlightCount.incrementAndGet();
+		try {
+			delegate.execute(() -> {
+				activeCount.incrementAndGet();
+				try {
+					command.run();
+				} finally {
+					activeCount.decrementAndGet();
+					inFlightCount.decrementAndGet();
+					completedCount.incrementAndGet();
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			inFlightCount.decrementAndGet();
+			rejectedCount.incrementAndGet();
+			throw new RejectedExecutionException("SQRL " + poolName + " pool is at capacity", e);
+		}
+	}
+
+	public String getPoolName() {
+		return poolName;
+	}
+
+	public SqrlExecutorPoolMetrics getMetrics() {
+		final int active = activeCount.get();
+		final int queueDepth = Math.max(0, inFlightCount.get() - active);
+		return new SqrlExecutorPoolMetrics(poolName, threadCount, queueSize, active, queueDepth, completedCount.get(),
+				rejectedCount.get());
+	}
+
+	@Override
+	public void shutdown() {
+		delegate.shutdown();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		return delegate.shutdownNow();
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return delegate.isShutdown();
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return delegate.isTerminated();
+	}
+
+	@Override
+	public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+		return delegate.awaitTermination(timeout, unit);
+	}
+}
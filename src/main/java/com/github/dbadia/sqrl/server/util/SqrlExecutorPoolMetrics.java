@@ -0,0 +1,75 @@
+package com.github.dbadia.sqrl.server.util;
+
+/**
+ * A point in time snapshot of the state of a {@link SqrlExecutorPool}
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlExecutorPoolMetrics {
+	private final String	poolName;
+	private final int		threadCount;
+	private final int		queueSize;
+	private final int		activeCount;
+	private final int		queueDepth;
+	private final long		completedCount;
+	private final long		rejectedCount;
+
+	SqrlExecutorPoolMetrics(final String poolName, final int threadCount, final int queueSize, final int activeCount,
+			final int queueDepth, final long completedCount, final long rejectedCount) {
+		this.poolName = poolName;
+		this.threadCount = threadCount;
+		this.queueSize = queueSize;
+		this.activeCount = activeCount;
+		this.queueDepth = queueDepth;
+		this.completedCount = completedCount;
+		this.rejectedCount = rejectedCount;
+	}
+
+	public String getPoolName() {
+		return poolName;
+	}
+
+	/**
+	 * @return the maximum number of tasks which can run at once
+	 */
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	/**
+	 * @return the maximum number of tasks which can wait for a thread before new tasks are rejected
+	 */
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	/**
+	 * @return the number of tasks which are currently running
+	 */
+	public int getActiveCount() {
+		return activeCount;
+	}
+
+	/**
+	 * @return the number of tasks which are currently waiting for a thread
+	 */
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	public long getCompletedCount() {
+		return completedCount;
+	}
+
+	public long getRejectedCount() {
+		return rejectedCount;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder(poolName).append(": active=").append(activeCount).append("/").append(threadCount)
+				.append(", queued=").append(queueDepth).append("/").append(queueSize).append(", completed=")
+				.append(completedCount).append(", rejected=").append(rejectedCount).toString();
+	}
+}
@@ -0,0 +1,84 @@
+package com.github.dbadia.sqrl.server.util;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import com.github.dbadia.sqrl.server.SqrlConfig;
+import com.github.dbadia.sqrl.server.enums.SqrlExecutionMode;
+import com.github.dbadia.sqrl.server.enums.SqrlExecutorType;
+
+/**
+ * Internal use only.
+ * <p/>
+ * Holds one independently sized {@link SqrlExecutorPool} per {@link SqrlExecutorType} so that, for example, a slow
+ * cleanup run can't delay status pushes and a slow persistence store can't stall signature verification.
+ * {@link SqrlServiceExecutor} is only used to trigger the periodic tasks, which then run on their own pool. Also owns
+ * the scheduler which fires stage timeouts so it is stopped along with the pools
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlExecutors {
+	/**
+	 * Periodic tasks never overlap, so a single thread and a single queue slot is all they need
+	 */
+	private static final int PERIODIC_TASK_POOL_SIZE = 1;
+
+	private final Map<SqrlExecutorType, SqrlExecutorPool>	poolTable	= new EnumMap<>(SqrlExecutorType.class);
+	private final ScheduledThreadPoolExecutor				timeoutScheduler;
+
+	public SqrlExecutors(final SqrlConfig config) {
+		final SqrlExecutionMode blockingMode = config.getExecutionMode();
+		// CPU bound pools always use platform threads
+		addPool(SqrlExecutorType.PAGE_PREP, config.getPagePrepThreadCount(), config.getPagePrepQueueSize(),
+				SqrlExecutionMode.PLATFORM);
+		addPool(SqrlExecutorType.BACKCHANNEL, config.getBackchannelCpuThreadCount(),
+				config.getBackchannelCpuQueueSize(), SqrlExecutionMode.PLATFORM);
+		addPool(SqrlExecutorType.PERSISTENCE, config.getAsyncPersistenceThreadCount(),
+				config.getAsyncPersistenceQueueSize(), blockingMode);
+		addPool(SqrlExecutorType.AUTH_STATE_MONITOR, PERIODIC_TASK_POOL_SIZE, PERIODIC_TASK_POOL_SIZE, blockingMode);
+		addPool(SqrlExecutorType.CLEANUP, PERIODIC_TASK_POOL_SIZE, PERIODIC_TASK_POOL_SIZE, blockingMode);
+		this.timeoutScheduler = SqrlAsyncUtil.newTimeoutScheduler();
+	}
+
+	private void addPool(final SqrlExecutorType type, final int threadCount, final int queueSize,
+			final SqrlExecutionMode executionMode) {
+		poolTable.put(type, new SqrlExecutorPool(type.getPoolName(), threadCount, queueSize, executionMode));
+	}
+
+	public SqrlExecutorPool getPool(final SqrlExecutorType type) {
+		return poolTable.get(type);
+	}
+
+	/**
+	 * @return the scheduler to pass to {@link SqrlAsyncUtil#withTimeout} and {@link SqrlAsyncUtil#withCommitTimeout}
+	 */
+	public ScheduledExecutorService getTimeoutScheduler() {
+		return timeoutScheduler;
+	}
+
+	/**
+	 * @return a snapshot of the metrics of every pool
+	 */
+	public Map<SqrlExecutorType, SqrlExecutorPoolMetrics> getMetrics() {
+		final Map<SqrlExecutorType, SqrlExecutorPoolMetrics> metricsTable = new EnumMap<>(SqrlExecutorType.class);
+		for (final Map.Entry<SqrlExecutorType, SqrlExecutorPool> entry : poolTable.entrySet()) {
+			metricsTable.put(entry.getKey(), entry.getValue().getMetrics());
+		}
+		return Collections.unmodifiableMap(metricsTable);
+	}
+
+	/**
+	 * Stops accepting new work on every pool; work which is already queued will still run. Pending timeouts are
+	 * dropped since nothing is waiting on them once the pools stop
+	 */
+	public void shutdown() {
+		for (final SqrlExecutorPool pool : poolTable.values()) {
+			pool.shutdown();
+		}
+		timeoutScheduler.shutdownNow();
+	}
+}
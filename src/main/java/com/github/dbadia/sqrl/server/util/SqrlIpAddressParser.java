@@ -0,0 +1,255 @@
+package com.github.dbadia.sqrl.server.util;
+
+/**
+ * Internal use only.
+ * <p/>
+ * Parses IPv4 and IPv6 address literals without ever going to DNS, unlike {@link java.net.InetAddress#getByName(String)}
+ * which will happily resolve a hostname found in a forwarded for header. Addresses are written into a caller supplied
+ * buffer so no {@link java.net.InetAddress} or intermediate Strings are created
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlIpAddressParser {
+	public static final int		IPV4_LENGTH		= 4;
+	public static final int		IPV6_LENGTH		= 16;
+	private static final int	IPV6_GROUPS		= 8;
+	private static final int	MAX_HEX_DIGITS	= 4;
+
+	private SqrlIpAddressParser() {
+		// Util class
+	}
+
+	/**
+	 * Parses a single address literal. Surrounding whitespace, an IPv4 :port suffix, [] around IPv6 (with an optional
+	 * :port) and an IPv6 %zone suffix are tolerated. Like {@link java.net.InetAddress#getByName(String)}, IPv4 mapped
+	 * IPv6 addresses are returned as IPv4
+	 *
+	 * @param dst
+	 *            must have room for {@link #IPV6_LENGTH} bytes
+	 * @return {@link #IPV4_LENGTH} or {@link #IPV6_LENGTH} for the number of bytes written to dst, or -1 if the value is
+	 *         not an IP address literal
+	 */
+	public static int parse(final CharSequence value, final byte[] dst) {
+		return parse(value, 0, value.length(), dst);
+	}
+
+	/**
+	 * Same as {@link #parse(CharSequence, byte[])} for value[start, end)
+	 */
+	public static int parse(final CharSequence value, final int startParam, final int endParam, final byte[] dst) {
+		int start = startParam;
+		int end = endParam;
+		while (start < end && value.charAt(start) == ' ') {
+			start++;
+		}
+		while (end > start && value.charAt(end - 1) == ' ') {
+			end--;
+		}
+		if (start == end) {
+			return -1;
+		}
+		if (value.charAt(start) == '[') {
+			final int close = indexOf(value, ']', start, end);
+			if (close == -1 || (close + 1 != end && !isPort(value, close + 1, end))) {
+				return -1;
+			}
+			return parseIpv6(value, start + 1, close, dst);
+		}
+		final int firstColon = indexOf(value, ':', start, end);
+		if (firstColon == -1) {
+			return parseIpv4(value, start, end, dst, 0) ? IPV4_LENGTH : -1;
+		}
+		if (indexOf(value, ':', firstColon + 1, end) == -1) {
+			// A single colon can only be IPv4 with a port
+			return isPort(value, firstColon, end) && parseIpv4(value, start, firstColon, dst, 0) ? IPV4_LENGTH : -1;
+		}
+		return parseIpv6(value, start, end, dst);
+	}
+
+	/**
+	 * Selects the client entry from a comma separated forwarded for list such as "client, proxy1, proxy2". Each
+	 * trusted proxy appends the address it received the request from, so with n trusted proxies the client is the nth
+	 * entry from the right. Entries further left were supplied by the client and can't be trusted
+	 *
+	 * @param trustedHops
+	 *            the number of trusted proxies in front of this server, at least 1
+	 * @return the result of {@link #parse(CharSequence, int, int, byte[])} on the selected entry
+	 */
+	public static int parseForwardedFor(final CharSequence header, final int trustedHops, final byte[] dst) {
+		int end = header.length();
+		int start = lastIndexOf(header, ',', end) + 1;
+		for (int hop = 1; hop < trustedHops && start > 0; hop++) {
+			// Fewer entries than trusted proxies means the request went through fewer proxies, so stop at the leftmost
+			end = start - 1;
+			start = lastIndexOf(header, ',', end) + 1;
+		}
+		return parse(header, start, end, dst);
+	}
+
+	private static boolean parseIpv4(final CharSequence value, final int start, final int end, final byte[] dst,
+			final int dstOffset) {
+		int octet = 0;
+		int digits = 0;
+		int octetCount = 0;
+		for (int i = start; i <= end; i++) {
+			final char c = i == end ? '.' : value.charAt(i);
+			if (c == '.') {
+				if (digits == 0 || octet > 255 || octetCount == IPV4_LENGTH) {
+					return false;
+				}
+				dst[dstOffset + octetCount++] = (byte) octet;
+				octet = 0;
+				digits = 0;
+			} else if (c >= '0' && c <= '9' && digits < 3) {
+				octet = octet * 10 + (c - '0');
+				digits++;
+			} else {
+				return false;
+			}
+		}
+		return octetCount == IPV4_LENGTH;
+	}
+
+	private static int parseIpv6(final CharSequence value, final int start, final int endParam, final byte[] dst) {
+		final int zone = indexOf(value, '%', start, endParam);
+		final int end = zone == -1 ? endParam : zone;
+		if (end - start < 2) {
+			return -1;
+		}
+		int groupCount = 0;
+		int compressAt = -1;
+		int i = start;
+		if (value.charAt(i) == ':') {
+			if (value.charAt(i + 1) != ':') {
+				return -1;
+			}
+			compressAt = 0;
+			i += 2;
+		}
+		while (i < end) {
+			if (groupCount == IPV6_GROUPS) {
+				return -1;
+			}
+			final int groupStart = i;
+			int group = 0;
+			while (i < end && i - groupStart < MAX_HEX_DIGITS + 1) {
+				final int digit = hexValue(value.charAt(i));
+				if (digit < 0) {
+					break;
+				}
+				group = group << 4 | digit;
+				i++;
+			}
+			if (i < end && value.charAt(i) == '.') {
+				// Embedded IPv4 takes the last two groups
+				if (groupCount > IPV6_GROUPS - 2 || !parseIpv4(value, groupStart, end, dst, groupCount * 2)) {
+					return -1;
+				}
+				groupCount += 2;
+				break;
+			}
+			if (i == groupStart || i - groupStart > MAX_HEX_DIGITS) {
+				return -1;
+			}
+			dst[groupCount * 2] = (byte) (group >>> 8);
+			dst[groupCount * 2 + 1] = (byte) group;
+			groupCount++;
+			if (i < end) {
+				if (value.charAt(i) != ':' || i + 1 == end) {
+					return -1;
+				}
+				i++;
+				if (value.charAt(i) == ':') {
+					if (compressAt != -1) {
+						return -1;
+					}
+					compressAt = groupCount;
+					i++;
+				}
+			}
+		}
+		if (compressAt == -1) {
+			if (groupCount != IPV6_GROUPS) {
+				return -1;
+			}
+		} else {
+			if (groupCount == IPV6_GROUPS) {
+				return -1;
+			}
+			// Move the groups after :: to the end and zero fill the gap
+			final int tailBytes = (groupCount - compressAt) * 2;
+			final int gapBytes = IPV6_LENGTH - groupCount * 2;
+			System.arraycopy(dst, compressAt * 2, dst, compressAt * 2 + gapBytes, tailBytes);
+			for (int j = compressAt * 2; j < compressAt * 2 + gapBytes; j++) {
+				dst[j] = 0;
+			}
+		}
+		return isIpv4Mapped(dst) ? toIpv4(dst) : IPV6_LENGTH;
+	}
+
+	/**
+	 * @return true if dst holds ::ffff:a.b.c.d
+	 */
+	private static boolean isIpv4Mapped(final byte[] dst) {
+		for (int i = 0; i < 10; i++) {
+			if (dst[i] != 0) {
+				return false;
+			}
+		}
+		return dst[10] == (byte) 0xff && dst[11] == (byte) 0xff;
+	}
+
+	private static int toIpv4(final byte[] dst) {
+		System.arraycopy(dst, 12, dst, 0, IPV4_LENGTH);
+		return IPV4_LENGTH;
+	}
+
+	/**
+	 * @return true if value[colon, end) is : followed by 1 to 5 digits
+	 */
+	private static boolean isPort(final CharSequence value, final int colon, final int end) {
+		if (value.charAt(colon) != ':' || end - colon < 2 || end - colon > 6) {
+			return false;
+		}
+		for (int i = colon + 1; i < end; i++) {
+			final char c = value.charAt(i);
+			if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Unlike {@link Character#digit(char, int)}, only ASCII is accepted
+	 */
+	private static int hexValue(final char c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		} else if (c >= 'a' && c <= 'f') {
+			return c - 'a' + 10;
+		} else if (c >= 'A' && c <= 'F') {
+			return c - 'A' + 10;
+		}
+		return -1;
+	}
+
+	private static int indexOf(final CharSequence value, final char toFind, final int start, final int end) {
+		for (int i = start; i < end; i++) {
+			if (value.charAt(i) == toFind) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int lastIndexOf(final CharSequence value, final char toFind, final int end) {
+		for (int i = end - 1; i >= 0; i--) {
+			if (value.charAt(i) == toFind) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -27,7 +27,7 @@ public class SqrlSanitize {
 		if(data.length() > SqrlConstants.MAX_SQRL_TOKEN_SIZE) {
 			throw new SqrlInvalidDataException(
 					"Data size of " + data.length() + " exceeded max size of " + SqrlConstants.MAX_SQRL_TOKEN_SIZE);
-		} else if (!SqrlUtil.REGEX_PATTERN_REGEX_BASE64_URL.matcher(data).matches()) {
+		} else if (!SqrlBase64Url.isValid(data)) {
 			throw new SqrlInvalidDataException("Data failed base64url validation: '" + data + "'");
 		}
 	}
@@ -2,6 +2,7 @@ package com.github.dbadia.sqrl.server.util;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -33,6 +34,7 @@ public class SqrlServiceExecutor implements ServletContextListener {
 
 	@SuppressWarnings("rawtypes")
 	private static List<ScheduledFuture> backgroundTaskList = new ArrayList<>();
+	private static List<Runnable> shutdownHookList = new CopyOnWriteArrayList<>();
 
 	@Override
 	public void contextInitialized(final ServletContextEvent servletContextEvent) {
@@ -48,6 +50,13 @@ public class SqrlServiceExecutor implements ServletContextListener {
 		backgroundTaskList.add(future);
 	}
 
+	/**
+	 * Registers a hook to be run when the servlet context is destroyed, after the background tasks are cancelled
+	 */
+	public void addShutdownHook(final Runnable shutdownHook) {
+		shutdownHookList.add(shutdownHook);
+	}
+
 	@Override
 	public void contextDestroyed(final ServletContextEvent arg0) {
 		logger.info("Shutting down background tasks and executor service");
@@ -56,6 +65,14 @@ public class SqrlServiceExecutor implements ServletContextListener {
 			backgroundTask.cancel(false);
 		}
 		EXECUTOR_SERVICE.shutdown();
+		for (final Runnable shutdownHook : shutdownHookList) {
+			try {
+				shutdownHook.run();
+			} catch (final RuntimeException e) {
+				logger.error("Error running shutdown hook", e);
+			}
+		}
+		shutdownHookList.clear();
 	}
 
 	/**
@@ -0,0 +1,85 @@
+package com.github.dbadia.sqrl.server.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Internal use only.
+ * <p/>
+ * Serializes work per key using a fixed number of stripes, so work for the same key never overlaps while work for
+ * unrelated keys almost always proceeds in parallel. Memory use is fixed regardless of the number of keys.
+ * <p/>
+ * Blocking callers use {@link #getLock(String)}. Async callers use {@link #runSerialized(String, Supplier)}, which
+ * chains the work behind whatever is already running on the stripe rather than blocking a thread
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlStripedLocks {
+	private final ReentrantLock[]								locks;
+	private final AtomicReferenceArray<CompletableFuture<Void>>	tails;
+	private final int											mask;
+
+	/**
+	 * @param stripes
+	 *            the number of stripes, rounded up to a power of 2
+	 */
+	public SqrlStripedLocks(final int stripes) {
+		int size = Integer.highestOneBit(Math.max(stripes, 1));
+		if (size < stripes) {
+			size <<= 1;
+		}
+		this.locks = new ReentrantLock[size];
+		for (int i = 0; i < size; i++) {
+			locks[i] = new ReentrantLock();
+		}
+		this.tails = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+	}
+
+	/**
+	 * @return the lock for the stripe of the given key
+	 */
+	public Lock getLock(final String key) {
+		return locks[stripe(key)];
+	}
+
+	/**
+	 * Starts the task once all work previously passed to this method for the same stripe has completed, successfully
+	 * or not. The stripe is held until the stage returned by the task completes, so that stage must not complete
+	 * before all of the task's work has actually ended
+	 *
+	 * @return a stage which completes with the result of the task, or exceptionally if the task threw
+	 */
+	public <T> CompletableFuture<T> runSerialized(final String key, final Supplier<CompletableFuture<T>> task) {
+		final int stripe = stripe(key);
+		final CompletableFuture<Void> done = new CompletableFuture<>();
+		final CompletableFuture<Void> previous = tails.getAndSet(stripe, done);
+		CompletableFuture<T> result;
+		if (previous == null) {
+			try {
+				result = task.get();
+			} catch (final RuntimeException | Error e) {
+				result = new CompletableFuture<>();
+				result.completeExceptionally(e);
+			}
+		} else {
+			result = previous.thenCompose(ignored -> task.get());
+		}
+		result.whenComplete((ignored, throwable) -> {
+			done.complete(null);
+			// Drop the reference if nothing else has been chained behind us
+			tails.compareAndSet(stripe, done, null);
+		});
+		return result;
+	}
+
+	private int stripe(final String key) {
+		final int hash = key.hashCode();
+		// Spread the high bits down since only the low bits are used
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+}
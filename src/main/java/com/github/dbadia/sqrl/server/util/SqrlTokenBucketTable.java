@@ -0,0 +1,140 @@
+package com.github.dbadia.sqrl.server.util;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Internal use only.
+ * <p/>
+ * A fixed size table of token buckets keyed by int. Uses open addressing over primitive arrays so checking a key never
+ * allocates, which matters since this is consulted for every request, including garbage ones. The table is split into
+ * independently locked segments to limit contention.
+ * <p/>
+ * Memory is bounded rather than exact: a bucket which has refilled completely is indistinguishable from a new one, so
+ * its slot is reused. A bucket which isn't full is never taken over, otherwise a key over its rate could get a fresh
+ * burst just by having other keys push it out. If every slot a new key could use holds such a bucket, the new key is
+ * rejected until one of them refills, so flooding the table with new keys never touches the buckets already tracked
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlTokenBucketTable {
+	private static final long	EMPTY_KEY		= Long.MIN_VALUE;
+	static final int			SEGMENT_COUNT	= 16;
+	private static final int	SEGMENT_SHIFT	= 4;
+	/**
+	 * How many slots to examine for a key before taking over an existing slot
+	 */
+	private static final int	MAX_PROBES		= 8;
+
+	private final double	tokensPerNano;
+	private final double	burst;
+	private final Segment[]	segments		= new Segment[SEGMENT_COUNT];
+
+	/**
+	 * @param capacity
+	 *            the approximate number of keys to track; rounded up to a power of two
+	 * @param tokensPerSecond
+	 *            the sustained rate at which each key may acquire
+	 * @param burst
+	 *            the number of acquires a key may make at once after being idle
+	 */
+	public SqrlTokenBucketTable(final int capacity, final double tokensPerSecond, final int burst) {
+		if (tokensPerSecond <= 0 || burst < 1) {
+			throw new IllegalArgumentException(
+					"tokensPerSecond must be > 0 and burst >= 1 but were " + tokensPerSecond + " and " + burst);
+		}
+		this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+		this.burst = burst;
+		int segmentSize = MAX_PROBES;
+		while (segmentSize * SEGMENT_COUNT < capacity) {
+			segmentSize <<= 1;
+		}
+		for (int i = 0; i < SEGMENT_COUNT; i++) {
+			segments[i] = new Segment(segmentSize);
+		}
+	}
+
+	/**
+	 * @param key
+	 *            the key to acquire a token for
+	 * @param nowNanos
+	 *            the current value of {@link System#nanoTime()}
+	 * @return true if a token was available for the key, false if the key is over its rate
+	 */
+	public boolean tryAcquire(final int key, final long nowNanos) {
+		final int hash = mix(key);
+		return segments[hash & (SEGMENT_COUNT - 1)].tryAcquire(key, hash >>> SEGMENT_SHIFT, nowNanos);
+	}
+
+	/**
+	 * The murmur3 finalizer, so that sequential keys such as neighbouring IPs spread across the table
+	 */
+	static int mix(final int key) {
+		int h = key;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	private final class Segment {
+		private final int		mask;
+		private final long[]	keys;
+		private final double[]	tokens;
+		private final long[]	lastRefillNanos;
+
+		private Segment(final int size) {
+			this.mask = size - 1;
+			this.keys = new long[size];
+			this.tokens = new double[size];
+			this.lastRefillNanos = new long[size];
+			Arrays.fill(keys, EMPTY_KEY);
+		}
+
+		private synchronized boolean tryAcquire(final int key, final int hash, final long nowNanos) {
+			int reusableSlot = -1;
+			for (int i = 0; i < MAX_PROBES; i++) {
+				final int slot = (hash + i) & mask;
+				if (keys[slot] == key) {
+					return take(slot, nowNanos);
+				}
+				if (keys[slot] == EMPTY_KEY) {
+					reusableSlot = reusableSlot == -1 ? slot : reusableSlot;
+					continue;
+				}
+				if (reusableSlot == -1 && refill(slot, nowNanos) >= burst) {
+					reusableSlot = slot;
+				}
+			}
+			if (reusableSlot == -1) {
+				// Every slot holds a bucket which isn't full, the new key waits rather than charge or reset one
+				return false;
+			}
+			keys[reusableSlot] = key;
+			tokens[reusableSlot] = burst;
+			lastRefillNanos[reusableSlot] = nowNanos;
+			return take(reusableSlot, nowNanos);
+		}
+
+		/**
+		 * @return the number of tokens in the bucket, after adding those which accrued since it was last refilled
+		 */
+		private double refill(final int slot, final long nowNanos) {
+			final long elapsedNanos = Math.max(0, nowNanos - lastRefillNanos[slot]);
+			return Math.min(burst, tokens[slot] + (elapsedNanos * tokensPerNano));
+		}
+
+		private boolean take(final int slot, final long nowNanos) {
+			tokens[slot] = refill(slot, nowNanos);
+			lastRefillNanos[slot] = nowNanos;
+			if (tokens[slot] < 1) {
+				return false;
+			}
+			tokens[slot] -= 1;
+			return true;
+		}
+	}
+}
@@ -8,12 +8,10 @@ import java.security.MessageDigest;
 import java.security.PublicKey;
 import java.security.Signature;
 import java.util.Arrays;
-import java.util.Base64;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.regex.Pattern;
 
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
@@ -23,6 +21,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.dbadia.sqrl.server.SqrlConfig;
+import com.github.dbadia.sqrl.server.backchannel.SqrlClientRequestForm;
 import com.github.dbadia.sqrl.server.backchannel.SqrlClientRequestLoggingUtil;
 import com.github.dbadia.sqrl.server.exception.SqrlException;
 import com.github.dbadia.sqrl.server.exception.SqrlInvalidRequestException;
@@ -42,8 +41,6 @@ import net.i2p.crypto.eddsa.spec.EdDSAPublicKeySpec;
 public class SqrlUtil {
 	private static final Logger					logger				= LoggerFactory.getLogger(SqrlUtil.class);
 	private static final Map<String, String>	cookieDomainCache	= new ConcurrentHashMap<>();
-	static final Pattern				REGEX_PATTERN_REGEX_BASE64_URL	= Pattern
-			.compile(SqrlConstants.REGEX_BASE64_URL);
 
 	private SqrlUtil() {
 		// Util class
@@ -57,15 +54,7 @@ public class SqrlUtil {
 	 * @return the encoded string
 	 */
 	public static String sqrlBase64UrlEncode(final byte[] bytes) {
-		try {
-			String encoded = new String(Base64.getUrlEncoder().encode(bytes), SqrlConstants.UTF8);
-			while (encoded.endsWith("=")) {
-				encoded = encoded.substring(0, encoded.length() - 1);
-			}
-			return encoded;
-		} catch (final UnsupportedEncodingException e) {
-			throw new IllegalStateException("UnsupportedEncodingException during base64 encode", e);
-		}
+		return SqrlBase64Url.encodeToString(bytes);
 	}
 
 	/**
@@ -83,6 +72,38 @@ public class SqrlUtil {
 		}
 	}
 
+	/**
+	 * Computes the fixed length value that is stored in place of the server parrot. The parrot only ever needs to be
+	 * compared for equality so there is no need to store the full value
+	 *
+	 * @param serverParrot
+	 *            the server param that was sent to the SQRL client
+	 * @return the SHA-256 hash in SQRL base64URL format, always 43 characters
+	 */
+	public static String hashServerParrot(final String serverParrot) {
+		try {
+			return hashServerParrot(serverParrot.getBytes(SqrlConstants.UTF8));
+		} catch (final UnsupportedEncodingException e) {
+			throw new IllegalStateException("Error hashing server parrot", e);
+		}
+	}
+
+	/**
+	 * Same as {@link #hashServerParrot(String)} but for a reply that is already encoded, see
+	 * {@link com.github.dbadia.sqrl.server.backchannel.SqrlClientReply#toBase64Bytes()}
+	 *
+	 * @param serverParrot
+	 *            the server param that was sent to the SQRL client as US-ASCII bytes
+	 */
+	public static String hashServerParrot(final byte[] serverParrot) {
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return sqrlBase64UrlEncode(digest.digest(serverParrot));
+		} catch (final GeneralSecurityException e) {
+			throw new IllegalStateException("Error hashing server parrot", e);
+		}
+	}
+
 	/**
 	 * Performs the SQRL required base64URL decoding
 	 *
@@ -93,11 +114,11 @@ public class SqrlUtil {
 	 *             if an error occurs during the base64 decode
 	 */
 	public static byte[] base64UrlDecode(final String toDecodeParam) throws SqrlException {
-		try {
-			return Base64.getUrlDecoder().decode(toDecodeParam.getBytes());
-		} catch (final IllegalArgumentException e) {
-			throw new SqrlException("Error base64 decoding: " + toDecodeParam, e);
+		final byte[] decoded = SqrlBase64Url.decode(toDecodeParam);
+		if (decoded == null) {
+			throw new SqrlException("Error base64 decoding: " + toDecodeParam);
 		}
+		return decoded;
 	}
 
 	/**
@@ -224,17 +245,23 @@ public class SqrlUtil {
 	 * Internal use only.
 	 *
 	 * @param ipAddressString
-	 *            the ip address to parse
+	 *            the ip address to parse, must be a literal as hostnames are never resolved
 	 * @return the IP address
 	 * @throws SqrlException
-	 *             if an {@link UnknownHostException} occurs
+	 *             if the string is not an IP address literal
 	 */
 	public static InetAddress ipStringToInetAddresss(final String ipAddressString) throws SqrlException {
 		if (SqrlUtil.isBlank(ipAddressString)) {
 			throw new SqrlException("ipAddressString was null or empty");
 		}
+		final byte[] address = new byte[SqrlIpAddressParser.IPV6_LENGTH];
+		final int length = SqrlIpAddressParser.parse(ipAddressString, address);
+		if (length < 0) {
+			throw new SqrlException("Not an IP address literal <" + ipAddressString + ">");
+		}
 		try {
-			return InetAddress.getByName(ipAddressString);
+			// getByAddress never does a lookup
+			return InetAddress.getByAddress(Arrays.copyOf(address, length));
 		} catch (final UnknownHostException e) {
 			throw new SqrlException("Got UnknownHostException for <" + ipAddressString + ">", e);
 		}
@@ -395,6 +422,10 @@ public class SqrlUtil {
 	public static String buildLogMessageForSqrlClientRequest(final HttpServletRequest request) {
 		final StringBuilder buf = new StringBuilder(SqrlClientRequestLoggingUtil.getLogHeader())
 				.append("full params from  client: ");
+		if (SqrlClientRequestForm.isBodyRead(request)) {
+			// The container never parsed the body so the parameter map is empty
+			return buf.append(SqrlClientRequestForm.of(request)).toString();
+		}
 		for (final Map.Entry<String, String[]> entry : request.getParameterMap().entrySet()) {
 			buf.append(entry.getKey()).append("=").append(Arrays.toString(entry.getValue())).append("   ");
 		}
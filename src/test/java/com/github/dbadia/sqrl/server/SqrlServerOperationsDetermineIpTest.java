@@ -29,6 +29,10 @@ public class SqrlServerOperationsDetermineIpTest {
 			{ "4.52.84.1", new String[]{"X-Forwarded-For"}, "192.168.1.1", new String[]{"X-Forwarded-For", "4.52.84.1"}},
 			{ "4.52.84.1", new String[]{"X-Forwarded-For"}, "192.168.1.1", new String[]{"Some-Other-Header", "192.168.1.", "X-Forwarded-For", "4.52.84.1"}},
 			{ "4.52.84.1", new String[]{"Some-Other-header", "X-Forwarded-For"}, "192.168.1.1", new String[]{"X-Forwarded-For", "4.52.84.1"}},
+			// Only the entry appended by our proxy is trusted
+			{ "4.52.84.1", new String[]{"X-Forwarded-For"}, "192.168.1.1", new String[]{"X-Forwarded-For", "6.6.6.6, 4.52.84.1"}},
+			// Hostnames are never resolved, fall back to the remote address
+			{ "127.0.0.1", new String[]{"X-Forwarded-For"}, "192.168.1.1", new String[]{"X-Forwarded-For", "localhost"}},
 		});
 	}
 	// @formatter:on
@@ -16,6 +16,7 @@ import javax.persistence.EntityManagerFactory;
 
 import org.springframework.mock.web.MockHttpServletRequest;
 
+import com.github.dbadia.sqrl.server.backchannel.SqrlNutCounter;
 import com.github.dbadia.sqrl.server.backchannel.SqrlNutToken;
 import com.github.dbadia.sqrl.server.exception.SqrlException;
 import com.github.dbadia.sqrl.server.persistence.SqrlAutoCloseablePersistence;
@@ -51,10 +52,10 @@ public class TCUtil {
 				nutString);
 
 		final SqrlConfig config = new TCSqrlConfig(nutToken.getIssuedTimestampMillis());
-		// Set SqrlServerOperations counter to generate the expected value
-		final AtomicInteger sqrlServerOperationscounter = (AtomicInteger) PrivateAccessor
-				.getField(SqrlServerOperations.class, "COUNTER");
-		sqrlServerOperationscounter.set(nutToken.getCounter());
+		// Set the nut counter sequence to generate the expected value
+		final AtomicInteger sqrlNutCounterSequence = (AtomicInteger) PrivateAccessor
+				.getField(SqrlNutCounter.class, "SEQUENCE");
+		sqrlNutCounterSequence.set(nutToken.getCounter());
 		// TestSecureRandom isn't random at all which is very fast
 		final ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
 		buffer.putInt(nutToken.getRandomInt());
@@ -91,7 +92,7 @@ public class TCUtil {
 		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.createCorrelator(correlatorFromServerParam,
 				TCUtil.AWHILE_FROM_NOW);
 		if (serverParam != null) {
-			sqrlCorrelator.getTransientAuthDataTable().put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT, serverParam);
+			sqrlCorrelator.setServerParrot(serverParam);
 		}
 		sqrlPersistence.closeCommit();
 	}
@@ -101,7 +102,7 @@ public class TCUtil {
 		final SqrlPersistence persistence = new SqrlJpaPersistenceProvider();
 		final SqrlCorrelator sqrlCorrelator = persistence.createCorrelator(correlator, TCUtil.AWHILE_FROM_NOW);
 		if (serverParam != null) {
-			sqrlCorrelator.getTransientAuthDataTable().put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT, serverParam);
+			sqrlCorrelator.setServerParrot(serverParam);
 		}
 		persistence.createAndEnableSqrlIdentity(idk);
 		persistence.closeCommit();
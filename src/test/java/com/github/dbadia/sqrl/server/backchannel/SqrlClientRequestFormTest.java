@@ -0,0 +1,72 @@
+package com.github.dbadia.sqrl.server.backchannel;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+public class SqrlClientRequestFormTest {
+
+	@Test
+	public void testReadBody() throws Exception {
+		final MockHttpServletRequest servletRequest = buildFormPost("client=abc&other=1&server=def%3D&ids=ghi&client=zzz");
+		final SqrlClientRequestForm form = SqrlClientRequestForm.readBody(servletRequest);
+		assertTrue(SqrlClientRequestForm.isBodyRead(servletRequest));
+		assertEquals("abc", form.getParameter("client"));
+		assertEquals("def=", form.getParameter("server"));
+		assertEquals("ghi", form.getParameter("ids"));
+		assertNull(form.getParameter("urs"));
+		assertNull(form.getParameter("other"));
+		assertEquals(form, SqrlClientRequestForm.of(servletRequest));
+	}
+
+	@Test
+	public void testReadBody_invalidUrlEncoding() throws Exception {
+		final SqrlClientRequestForm form = SqrlClientRequestForm.readBody(buildFormPost("client=abc%zz&server=def"));
+		assertNull(form.getParameter("client"));
+		assertEquals("def", form.getParameter("server"));
+	}
+
+	@Test
+	public void testReadBody_notFormPost() throws Exception {
+		final MockHttpServletRequest servletRequest = new MockHttpServletRequest();
+		servletRequest.addParameter("client", "abc");
+		final SqrlClientRequestForm form = SqrlClientRequestForm.readBody(servletRequest);
+		assertFalse(SqrlClientRequestForm.isBodyRead(servletRequest));
+		assertEquals("abc", form.getParameter("client"));
+	}
+
+	@Test
+	public void testReadBody_exactlyMaxSize() throws Exception {
+		final SqrlClientRequestForm form = SqrlClientRequestForm
+				.readBody(buildFormPost(padBody("client=abc&other=", SqrlClientRequestForm.MAX_BODY_BYTES)));
+		assertEquals("abc", form.getParameter("client"));
+	}
+
+	@Test
+	public void testReadBody_overMaxSize() throws Exception {
+		final SqrlClientRequestForm form = SqrlClientRequestForm
+				.readBody(buildFormPost(padBody("client=abc&other=", SqrlClientRequestForm.MAX_BODY_BYTES + 1)));
+		assertNull(form.getParameter("client"));
+	}
+
+	private static String padBody(final String body, final int length) {
+		final StringBuilder buf = new StringBuilder(length).append(body);
+		while (buf.length() < length) {
+			buf.append('x');
+		}
+		return buf.toString();
+	}
+
+	private static MockHttpServletRequest buildFormPost(final String body) {
+		final MockHttpServletRequest servletRequest = new MockHttpServletRequest("POST", "/sqrlbc");
+		servletRequest.setContentType("application/x-www-form-urlencoded");
+		servletRequest.setContent(body.getBytes(StandardCharsets.US_ASCII));
+		return servletRequest;
+	}
+}
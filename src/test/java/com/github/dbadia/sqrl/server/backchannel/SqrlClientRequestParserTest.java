@@ -0,0 +1,79 @@
+package com.github.dbadia.sqrl.server.backchannel;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.fail;
+
+import org.junit.Test;
+
+import com.github.dbadia.sqrl.server.enums.SqrlClientParam;
+import com.github.dbadia.sqrl.server.enums.SqrlServerSideKey;
+import com.github.dbadia.sqrl.server.exception.SqrlInvalidRequestException;
+import com.github.dbadia.sqrl.server.util.SqrlUtil;
+
+public class SqrlClientRequestParserTest {
+
+	@Test
+	public void testParseServerParam_loginPageUrl() throws Exception {
+		final SqrlClientRequestParser parser = new SqrlClientRequestParser();
+		parser.parseServerParam(SqrlUtil.sqrlBase64UrlEncode(
+				"sqrl://sqrljava.tech/sqrlexample/sqrlbc?nut=eBnk8wxrCdS_uA1L3_Mwgw&sfn=c3FybGphdmEudGVjaA&cor=abc123"));
+		assertEquals("eBnk8wxrCdS_uA1L3_Mwgw", parser.getNut());
+		assertEquals("abc123", parser.getCorrelator());
+	}
+
+	@Test
+	public void testParseServerParam_serverReply() throws Exception {
+		final SqrlClientRequestParser parser = new SqrlClientRequestParser();
+		parser.parseServerParam(SqrlUtil.sqrlBase64UrlEncode(
+				"ver=1\r\nnut=eBnk8wxrCdS_uA1L3_Mwgw\r\ntif=5\r\nqry=/sqrlbc?nut=eBnk8wxrCdS_uA1L3_Mwgw&cor=abc123\r\n"));
+		assertEquals("eBnk8wxrCdS_uA1L3_Mwgw", parser.getNut());
+		assertEquals("abc123", parser.getCorrelator());
+	}
+
+	@Test
+	public void testParseServerParam_missingCorrelator() throws Exception {
+		final SqrlClientRequestParser parser = new SqrlClientRequestParser();
+		try {
+			parser.parseServerParam(SqrlUtil.sqrlBase64UrlEncode("sqrl://sqrljava.tech/sqrlbc?nut=eBnk8wxrCdS"));
+			fail("Exception expected");
+		} catch (final SqrlInvalidRequestException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testParseClientParam() throws Exception {
+		final SqrlClientRequestParser parser = new SqrlClientRequestParser();
+		parser.parseClientParam(SqrlUtil.sqrlBase64UrlEncode(
+				"ver=1\r\ncmd=query\r\nIDK=m470Fb8O3XY8xAqlN2pCL0SokqPYNazwdc5sT6SLnUM\r\nopt=suk~cps\r\nbad=a=b\r\n\r\n"));
+		assertEquals("1", parser.getClientValueTable().get(SqrlClientParam.ver));
+		assertEquals("query", parser.getClientValueTable().get(SqrlClientParam.cmd));
+		assertEquals("suk~cps", parser.getClientValueTable().get(SqrlClientParam.opt));
+		assertEquals("m470Fb8O3XY8xAqlN2pCL0SokqPYNazwdc5sT6SLnUM",
+				parser.getKeyTable().get(SqrlServerSideKey.idk));
+		assertEquals(1, parser.getKeyTable().size());
+		assertFalse(parser.getClientValueTable().containsKey(SqrlClientParam.cor));
+	}
+
+	@Test
+	public void testParseClientParam_duplicateKeyDifferentValue() throws Exception {
+		final SqrlClientRequestParser parser = new SqrlClientRequestParser();
+		try {
+			parser.parseClientParam(SqrlUtil.sqrlBase64UrlEncode("ver=1\r\nidk=abc\r\nidk=def\r\n"));
+			fail("Exception expected");
+		} catch (final SqrlInvalidRequestException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testReuseForServerThenClient() throws Exception {
+		final SqrlClientRequestParser parser = new SqrlClientRequestParser();
+		parser.parseServerParam(SqrlUtil.sqrlBase64UrlEncode(
+				"sqrl://sqrljava.tech/sqrlexample/sqrlbc?nut=eBnk8wxrCdS_uA1L3_Mwgw&sfn=c3FybGphdmEudGVjaA&cor=abc123"));
+		parser.parseClientParam(SqrlUtil.sqrlBase64UrlEncode("ver=1\r\ncmd=ident\r\n"));
+		assertEquals("ident", parser.getClientValueTable().get(SqrlClientParam.cmd));
+		assertEquals("abc123", parser.getCorrelator());
+	}
+}
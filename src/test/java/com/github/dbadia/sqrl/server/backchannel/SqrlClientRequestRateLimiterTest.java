@@ -0,0 +1,39 @@
+package com.github.dbadia.sqrl.server.backchannel;
+
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+import java.net.InetAddress;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dbadia.sqrl.server.SqrlConfig;
+import com.github.dbadia.sqrl.server.TCUtil;
+
+public class SqrlClientRequestRateLimiterTest {
+	private SqrlClientRequestRateLimiter rateLimiter;
+
+	@Before
+	public void setUp() throws Exception {
+		final SqrlConfig config = TCUtil.buildTestSqrlConfig();
+		config.setRateLimitIpRequestsPerMinute(1);
+		config.setRateLimitIpBurst(1);
+		rateLimiter = new SqrlClientRequestRateLimiter(config);
+	}
+
+	@Test
+	public void testIpv4AddressesLimitedIndividually() throws Exception {
+		assertTrue(rateLimiter.tryAcquireForIp(InetAddress.getByName("192.0.2.1")));
+		assertFalse(rateLimiter.tryAcquireForIp(InetAddress.getByName("192.0.2.1")));
+		assertTrue(rateLimiter.tryAcquireForIp(InetAddress.getByName("192.0.2.2")));
+	}
+
+	@Test
+	public void testIpv6LimitedPerSlash64() throws Exception {
+		assertTrue(rateLimiter.tryAcquireForIp(InetAddress.getByName("2001:db8:1:2::1")));
+		// Rotating through the rest of the /64 doesn't get a new bucket
+		assertFalse(rateLimiter.tryAcquireForIp(InetAddress.getByName("2001:db8:1:2:ffff:eeee:dddd:cccc")));
+		assertTrue(rateLimiter.tryAcquireForIp(InetAddress.getByName("2001:db8:1:3::1")));
+	}
+}
@@ -7,10 +7,12 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
 import java.time.LocalDateTime;
+import java.util.Collections;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.Mockito;
 
 import com.github.dbadia.sqrl.server.SqrlConfig;
 import com.github.dbadia.sqrl.server.SqrlPersistence;
@@ -18,7 +20,9 @@ import com.github.dbadia.sqrl.server.TCUtil;
 import com.github.dbadia.sqrl.server.enums.SqrlIdentityFlag;
 import com.github.dbadia.sqrl.server.enums.SqrlInternalUserState;
 import com.github.dbadia.sqrl.server.enums.SqrlRequestCommand;
+import com.github.dbadia.sqrl.server.enums.SqrlRequestOpt;
 import com.github.dbadia.sqrl.server.exception.SqrlInvalidRequestException;
+import com.github.dbadia.sqrl.server.persistence.SqrlIdentity;
 
 import junitx.framework.ObjectAssert;
 import junitx.framework.StringAssert;
@@ -173,4 +177,29 @@ public class SqrlCommandProcessorTest {
 		assertFalse(sqrlPersistence.fetchSqrlFlagForIdentity(idk, SqrlIdentityFlag.SQRL_AUTH_ENABLED));
 		assertTrue(sqrlPersistence.doesSqrlIdentityExistByIdk(idk));
 	}
+
+	@Test
+	public void testCmdIdent_FlagsAndDataWrittenTogether() throws Throwable {
+		// Setup
+		final String idk = "m470Fb8O3XY8xAqlN2pCL0SokqPYNazwdc5sT6SLnUM";
+		final String suk = "mC5wBKDXPkbk3J5ohpkM1ksgv0l996DG2BWWOvOXmF4";
+		TCUtil.setupIdk(idk, correlator, "123");
+		final SqrlClientRequest sqrlRequest = TCBackchannelUtil.buildMockSqrlRequest(idk, SqrlRequestCommand.IDENT,
+				correlator, false, SqrlRequestOpt.hardlock);
+		Mockito.when(sqrlRequest.getKeysToBePersisted()).thenReturn(Collections.singletonMap("suk", suk));
+
+		// Execute - call start/commit since it is usually done by the caller
+		sqrlPersistence = TCUtil.createSqrlPersistence();
+		final SqrlClientRequestProcessor processor = new SqrlClientRequestProcessor(sqrlRequest, sqrlPersistence);
+		final SqrlInternalUserState sqrlInternalUserState = processor.processClientCommand();
+		sqrlPersistence.closeCommit();
+
+		// Validate
+		assertEquals(SqrlInternalUserState.IDK_EXISTS, sqrlInternalUserState);
+		sqrlPersistence = TCUtil.createSqrlPersistence();
+		final SqrlIdentity sqrlIdentity = sqrlPersistence.fetchSqrlIdentityByIdk(idk);
+		assertTrue(sqrlIdentity.getEnabledFlagList().contains(SqrlIdentityFlag.SQRL_AUTH_ENABLED));
+		assertTrue(sqrlIdentity.getEnabledFlagList().contains(SqrlIdentityFlag.HARDLOCK));
+		assertEquals(suk, sqrlIdentity.getIdentityDataTable().get("suk"));
+	}
 }
@@ -0,0 +1,87 @@
+package com.github.dbadia.sqrl.server.backchannel;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import org.junit.Test;
+
+import com.github.dbadia.sqrl.server.SqrlConfig;
+import com.github.dbadia.sqrl.server.SqrlConfigOperations;
+import com.github.dbadia.sqrl.server.TCUtil;
+import com.github.dbadia.sqrl.server.exception.SqrlConfigSettingException;
+
+public class SqrlNutCounterTest {
+
+	@Test
+	public void testNoNodeIdBits_plainSequence() {
+		final SqrlNutCounter nutCounter = new SqrlNutCounter(TCUtil.buildTestSqrlConfig());
+		final int first = nutCounter.next();
+		assertEquals(first + 1, nutCounter.next());
+		assertEquals(0, nutCounter.getNodeId(first));
+	}
+
+	@Test
+	public void testNodeIdInHighBits() {
+		final SqrlConfig config = TCUtil.buildTestSqrlConfig();
+		config.setNutCounterNodeIdBits(4);
+		config.setNutCounterNodeId(11);
+		final SqrlNutCounter nutCounter = new SqrlNutCounter(config);
+		for (int i = 0; i < 10; i++) {
+			final int counter = nutCounter.next();
+			assertEquals(11, nutCounter.getNodeId(counter));
+			assertEquals(0xB, counter >>> 28);
+		}
+	}
+
+	@Test
+	public void testNodesNeverOverlap() {
+		final SqrlConfig config = TCUtil.buildTestSqrlConfig();
+		config.setNutCounterNodeIdBits(1);
+		config.setNutCounterNodeId(0);
+		final SqrlNutCounter node0 = new SqrlNutCounter(config);
+		config.setNutCounterNodeId(1);
+		final SqrlNutCounter node1 = new SqrlNutCounter(config);
+		final int counter0 = node0.next();
+		final int counter1 = node1.next();
+		assertTrue(counter0 >= 0);
+		assertTrue(counter1 < 0);
+		assertEquals(0, node1.getNodeId(counter0));
+		assertEquals(1, node0.getNodeId(counter1));
+	}
+
+	@Test
+	public void testNodeSequenceSeededFromClockTicks() {
+		final SqrlConfig config = TCUtil.buildTestSqrlConfig();
+		config.setNutValidityInSeconds(900);
+		config.setNutCounterNodeIdBits(16);
+		config.setNutCounterNodeId(12345);
+		final SqrlNutCounter nutCounter = new SqrlNutCounter(config);
+		// 900,000ms / 2^16 rounded up is a 14ms tick
+		assertEquals(1000 / 14, nutCounter.getMaxNutsPerSecond());
+		final long expectedSeed = config.getCurrentTimeMs() / 14;
+		final int sequence = nutCounter.next() & 0xffff;
+		// Allow for the clock moving on between the two reads
+		assertTrue(((sequence - expectedSeed) & 0xffff) < 100);
+		// A second instance for the same node shares the sequence
+		assertEquals((sequence + 1) & 0xffff, new SqrlNutCounter(config).next() & 0xffff);
+	}
+
+	@Test
+	public void testNoNodeIdBits_noRestartGuarantee() {
+		assertEquals(-1, new SqrlNutCounter(TCUtil.buildTestSqrlConfig()).getMaxNutsPerSecond());
+	}
+
+	@Test
+	public void testNodeIdTooLargeForBits() throws Exception {
+		final SqrlConfig config = TCUtil.buildTestSqrlConfig();
+		config.setNutCounterNodeIdBits(2);
+		config.setNutCounterNodeId(4);
+		try {
+			new SqrlConfigOperations(config);
+			fail("Exception expected");
+		} catch (final SqrlConfigSettingException e) {
+			assertTrue(e.getMessage().contains("nutCounterNodeId"));
+		}
+	}
+}
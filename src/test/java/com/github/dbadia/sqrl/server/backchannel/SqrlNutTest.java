@@ -1,6 +1,7 @@
 package com.github.dbadia.sqrl.server.backchannel;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 import java.util.Arrays;
 
@@ -10,6 +11,7 @@ import org.junit.Test;
 import com.github.dbadia.sqrl.server.SqrlConfig;
 import com.github.dbadia.sqrl.server.SqrlConfigOperations;
 import com.github.dbadia.sqrl.server.TCUtil;
+import com.github.dbadia.sqrl.server.exception.SqrlInvalidRequestException;
 
 public class SqrlNutTest {
 	private SqrlConfig config = TCUtil.buildTestSqrlConfig();
@@ -54,4 +56,50 @@ public class SqrlNutTest {
 		assertEquals(1461244576000L, nut.getIssuedTimestampMillis());
 		assertEquals(6, nut.getRandomInt());
 	}
+
+	@Test
+	public void testNutFormat2_roundTrip() throws Exception {
+		config.setBackchannelServletPath("http://davetest.com/sqrl");
+		config.setNutFormatVersion(SqrlNutToken.FORMAT_VERSION_2);
+		final SqrlConfigOperations configOps = new SqrlConfigOperations(config);
+		final SqrlNutToken nut = new SqrlNutToken(4, configOps, 234, 1461244576746L, 0x1234);
+		assertEquals(22, nut.asSqrlBase64EncryptedNut().length());
+
+		final SqrlNutToken parsed = new SqrlNutToken(configOps, nut.asSqrlBase64EncryptedNut());
+		assertEquals(SqrlNutToken.FORMAT_VERSION_2, parsed.getFormatVersion());
+		assertEquals(4, parsed.getInetInt());
+		assertEquals(234, parsed.getCounter());
+		assertEquals(1461244576000L, parsed.getIssuedTimestampMillis());
+		// Only 8 bits of noise are kept in format 2
+		assertEquals(0x34, parsed.getRandomInt());
+	}
+
+	@Test
+	public void testNutFormat2_rejectsFormat1Nut() throws Exception {
+		config.setBackchannelServletPath("http://davetest.com/sqrl");
+		config.setNutFormatVersion(SqrlNutToken.FORMAT_VERSION_2);
+		final SqrlConfigOperations configOps = new SqrlConfigOperations(config);
+		try {
+			// Valid format 1 nut from testNut_getters
+			new SqrlNutToken(configOps, "QwJJFrvH1jBXakjOh_vVqg");
+			fail("Exception expected");
+		} catch (final SqrlInvalidRequestException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testNutFormat2_rejectsTamperedNut() throws Exception {
+		config.setBackchannelServletPath("http://davetest.com/sqrl");
+		config.setNutFormatVersion(SqrlNutToken.FORMAT_VERSION_2);
+		final SqrlConfigOperations configOps = new SqrlConfigOperations(config);
+		final String nutString = new SqrlNutToken(4, configOps, 234, 1461244576746L, 6).asSqrlBase64EncryptedNut();
+		final char replacement = nutString.charAt(0) == 'A' ? 'B' : 'A';
+		try {
+			new SqrlNutToken(configOps, replacement + nutString.substring(1));
+			fail("Exception expected");
+		} catch (final SqrlInvalidRequestException e) {
+			// expected
+		}
+	}
 }
@@ -16,8 +16,8 @@ import com.github.dbadia.sqrl.server.SqrlConfig;
 import com.github.dbadia.sqrl.server.SqrlPersistence;
 import com.github.dbadia.sqrl.server.SqrlServerOperations;
 import com.github.dbadia.sqrl.server.TCUtil;
+import com.github.dbadia.sqrl.server.enums.SqrlValidationStage;
 import com.github.dbadia.sqrl.server.persistence.SqrlCorrelator;
-import com.github.dbadia.sqrl.server.util.SqrlConstants;
 
 import junitx.framework.StringAssert;
 
@@ -60,6 +60,36 @@ public class SqrlServerOperationsNegativeTest {
 		StringAssert.assertStartsWith(expectedPath + "?nut=", responseDataTable.get("qry"));
 		StringAssert.assertContains("cor=", responseDataTable.get("qry"));
 		assertEquals(EXPECTED_BAD_CLIENT_REQUEST, responseDataTable.get("tif"));
+		assertEquals(1, sqrlServerOps.getValidationStats().getRejectedCount(SqrlValidationStage.REPLAY));
+	}
+
+	@Test
+	public void testNutReplayed_replyCacheEnabled() throws Throwable {
+		final String sqrlRequestUrl = "qrl://127.0.0.1:8080/sqrlexample/sqrlbc";
+		final String serverValue = "cXJsOi8vc3FybGphdmEudGVjaC9zcXJsZXhhbXBsZS9zcXJsYmM_bnV0PWVCbms4d3hyQ2RTX3VBMUwzX013Z3cmc2ZuPWMzRnliR3BoZG1FdWRHVmphQSZjb3I9alVKVlVJcEZXQ1AyUEVNZ2l2Q0lFbWUzZDMyR1ZIM1VUYWZ2QW1MMVVxZw";
+		final String rawQueryParams = "client=dmVyPTENCmNtZD1xdWVyeQ0KaWRrPW00NzBGYjhPM1hZOHhBcWxOMnBDTDBTb2txUFlOYXp3ZGM1c1Q2U0xuVU0NCm9wdD1zdWsNCg"
+				+ "&server=" + serverValue
+				+ "&ids=ROkIkpNyMrUsaD_Y6JIioE1shQ18ddM7b_PWQ5xmtkjdiZ1NtOTri-zOpSj1qptmNjCuKfG-Cpll3tgF1dqvBg";
+
+		TCUtil.setupSqrlPersistence(CLIENT_DATA_1_CORRELATOR, serverValue);
+
+		final SqrlConfig config = TCUtil.buildTestSqrlConfig();
+		config.setNutValidityInSeconds(Integer.MAX_VALUE);
+		config.setBackchannelReplyCacheEnabled(true);
+
+		final SqrlServerOperations sqrlServerOps = new SqrlServerOperations(config);
+		final MockHttpServletRequest queryRequest = TCUtil.buildMockRequest(sqrlRequestUrl, rawQueryParams);
+		final MockHttpServletResponse firstResponse = new MockHttpServletResponse();
+		sqrlServerOps.handleSqrlClientRequest(queryRequest, firstResponse);
+		assertEquals(HttpServletResponse.SC_OK, firstResponse.getStatus());
+
+		// An exact retry gets the same reply instead of a replay error
+		final MockHttpServletResponse retryResponse = new MockHttpServletResponse();
+		sqrlServerOps.handleSqrlClientRequest(queryRequest, retryResponse);
+		assertEquals(HttpServletResponse.SC_OK, retryResponse.getStatus());
+		assertEquals(firstResponse.getContentAsString(), retryResponse.getContentAsString());
+		assertEquals(1, sqrlServerOps.getReplyCache().getHitCount());
+		assertEquals(0, sqrlServerOps.getValidationStats().getRejectedCount(SqrlValidationStage.REPLAY));
 	}
 
 	@Test
@@ -81,7 +111,7 @@ public class SqrlServerOperationsNegativeTest {
 
 		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.createCorrelator(CLIENT_DATA_1_CORRELATOR,
 				TCUtil.AWHILE_FROM_NOW);
-		sqrlCorrelator.getTransientAuthDataTable().put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT, serverValue);
+		sqrlCorrelator.setServerParrot(serverValue);
 		sqrlPersistence.closeCommit();
 
 		// Emulate the login page generation
@@ -100,6 +130,7 @@ public class SqrlServerOperationsNegativeTest {
 		StringAssert.assertStartsWith(expectedPath + "?nut=", responseDataTable.get("qry"));
 		StringAssert.assertContains("cor=", responseDataTable.get("qry"));
 		assertEquals(EXPECTED_BAD_CLIENT_REQUEST, responseDataTable.get("tif"));
+		assertEquals(1, sqrlServerOps.getValidationStats().getRejectedCount(SqrlValidationStage.SIGNATURE));
 	}
 
 	@Test
@@ -112,8 +143,8 @@ public class SqrlServerOperationsNegativeTest {
 		sqrlPersistence = TCUtil.createSqrlPersistence();
 		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.createCorrelator(CLIENT_DATA_1_CORRELATOR,
 				TCUtil.AWHILE_FROM_NOW);
-		sqrlCorrelator.getTransientAuthDataTable().put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT,
-				// Change the first letter of server so it won't match
+		// Change the first letter of server so it won't match
+		sqrlCorrelator.setServerParrot(
 				"ZXJsOi8vc3FybGphdmEudGVjaC9zcXJsZXhhbXBsZS9zcXJsYmM_bnV0PWVCbms4d3hyQ2RTX3VBMUwzX013Z3cmc2ZuPWMzRnliR3BoZG1FdWRHVmphQSZjb3I9alVKVlVJcEZXQ1AyUEVNZ2l2Q0lFbWUzZDMyR1ZIM1VUYWZ2QW1MMVVxZw");
 		sqrlPersistence.closeCommit();
 
@@ -145,5 +176,7 @@ public class SqrlServerOperationsNegativeTest {
 		StringAssert.assertStartsWith(expectedPath + "?nut=", responseDataTable.get("qry"));
 		StringAssert.assertContains("cor=", responseDataTable.get("qry"));
 		assertEquals(EXPECTED_BAD_CLIENT_REQUEST, responseDataTable.get("tif"));
+		assertEquals(1,
+				sqrlServerOps.getValidationStats().getRejectedCount(SqrlValidationStage.SERVER_PARROT));
 	}
 }
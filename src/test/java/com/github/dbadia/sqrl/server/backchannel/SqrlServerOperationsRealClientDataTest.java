@@ -12,6 +12,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.http.HttpServletResponse;
 
@@ -45,6 +46,31 @@ public class SqrlServerOperationsRealClientDataTest {
 		TCUtil.createEmptySqrlPersistence();
 	}
 
+	@Test
+	@SuppressWarnings("deprecation")
+	public void testLegacyServerParrotInTransientData() throws Throwable {
+		final String sqrlRequestUrl = "qrl://127.0.0.1:8080/sqrlexample/sqrlbc";
+		final String correlatorFromServerParam = "3Q7N5WBs50uYn__VjG4iv4Pkpkv2Ne1skQgZ48A6DSA";
+		final String serverParam = "cXJsOi8vMTI3LjAuMC4xOjgwODEvc3FybGV4YW1wbGUvc3FybGJjP251dD1HaVhpZDI2QUx5MlRIUTdHVDBhOHNnJnNmbj1iRzlqWVd4b2IzTjAmY29yPTNRN041V0JzNTB1WW5fX1ZqRzRpdjRQa3BrdjJOZTFza1FnWjQ4QTZEU0E";
+		final SqrlConfig config = TCUtil.buildTestSqrlConfig("GiXid26ALy2THQ7GT0a8sg");
+		config.setNutValidityInSeconds(Integer.MAX_VALUE);
+		final SqrlServerOperations sqrlServerOps = new SqrlServerOperations(config);
+
+		// A correlator created before the serverParrotHash column existed
+		final SqrlPersistence sqrlPersistence = TCUtil.createSqrlPersistence();
+		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.createCorrelator(correlatorFromServerParam, expiryTime);
+		sqrlCorrelator.getTransientAuthDataTable().put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT, serverParam);
+		sqrlPersistence.closeCommit();
+
+		final String rawQueryParams = "client=dmVyPTENCmNtZD1xdWVyeQ0KaWRrPUNXNkVYRU1kY2xaYzNKRUpreV9Ld01GX0RoTWJrVjE1RTZRMTRweXFNTlkNCm9wdD1zdWsNCg"
+				+ "&server=" + serverParam
+				+ "&ids=aFZSlUvZFwiqCN2ycjui1ZdSQwtjVRVGqPy6IB-GUHJeDsF03LatdAdJ5XFYNB_R85a0s_v6UHXVtIV4yMX-AA";
+		final MockHttpServletResponse servletResponse = new MockHttpServletResponse();
+		sqrlServerOps.handleSqrlClientRequest(TCUtil.buildMockRequest(sqrlRequestUrl, rawQueryParams), servletResponse);
+		assertEquals(HttpServletResponse.SC_OK, servletResponse.getStatus());
+		assertEquals("0", parseSqrlResponse(servletResponse.getContentAsString()).get("tif"));
+	}
+
 	@Test
 	public void testFirstTime_SqrlIdentity() throws Throwable {
 		// qrl://127.0.0.1:8081/sqrlexample/sqrlbc?nut=GiXid26ALy2THQ7GT0a8sg&sfn=bG9jYWxob3N0&cor=3Q7N5WBs50uYn__VjG4iv4Pkpkv2Ne1skQgZ48A6DSA
@@ -64,7 +90,7 @@ public class SqrlServerOperationsRealClientDataTest {
 		// Store the server parrot
 		SqrlPersistence sqrlPersistence = TCUtil.createSqrlPersistence();
 		SqrlCorrelator sqrlCorrelator = sqrlPersistence.createCorrelator(correlatorFromServerParam, expiryTime);
-		sqrlCorrelator.getTransientAuthDataTable().put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT, serverParam);
+		sqrlCorrelator.setServerParrot(serverParam);
 		sqrlPersistence.closeCommit();
 
 		final String rawQueryParams = "client=dmVyPTENCmNtZD1xdWVyeQ0KaWRrPUNXNkVYRU1kY2xaYzNKRUpreV9Ld01GX0RoTWJrVjE1RTZRMTRweXFNTlkNCm9wdD1zdWsNCg"
@@ -102,7 +128,7 @@ public class SqrlServerOperationsRealClientDataTest {
 		// Store the server parrot in the DB
 		sqrlPersistence = TCUtil.createSqrlPersistence();
 		sqrlCorrelator = sqrlPersistence.fetchSqrlCorrelator(sqrlCorrelator.getCorrelatorString());
-		sqrlCorrelator.getTransientAuthDataTable().put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT, serverParam);
+		sqrlCorrelator.setServerParrot(serverParam);
 		sqrlPersistence.closeCommit();
 
 		sqrlServerOps.handleSqrlClientRequest(identRequest, servletResponse);
@@ -133,6 +159,44 @@ public class SqrlServerOperationsRealClientDataTest {
 		sqrlPersistence.closeCommit();
 	}
 
+	@Test
+	public void testFirstTime_SqrlIdentity_Async() throws Throwable {
+		final String sqrlRequestUrl = "qrl://127.0.0.1:8080/sqrlexample/sqrlbc";
+		final String expectedPath = "/sqrlexample/sqrlbc";
+
+		final String correlatorFromServerParam = "3Q7N5WBs50uYn__VjG4iv4Pkpkv2Ne1skQgZ48A6DSA";
+		final String serverParam = "cXJsOi8vMTI3LjAuMC4xOjgwODEvc3FybGV4YW1wbGUvc3FybGJjP251dD1HaVhpZDI2QUx5MlRIUTdHVDBhOHNnJnNmbj1iRzlqWVd4b2IzTjAmY29yPTNRN041V0JzNTB1WW5fX1ZqRzRpdjRQa3BrdjJOZTFza1FnWjQ4QTZEU0E";
+
+		// Data from a real transaction with a long expiry
+		final SqrlConfig config = TCUtil.buildTestSqrlConfig("GiXid26ALy2THQ7GT0a8sg");
+		config.setNutValidityInSeconds(Integer.MAX_VALUE);
+
+		final SqrlServerOperations sqrlServerOps = new SqrlServerOperations(config);
+
+		// Store the server parrot
+		final SqrlPersistence sqrlPersistence = TCUtil.createSqrlPersistence();
+		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.createCorrelator(correlatorFromServerParam, expiryTime);
+		sqrlCorrelator.setServerParrot(serverParam);
+		sqrlPersistence.closeCommit();
+
+		final String rawQueryParams = "client=dmVyPTENCmNtZD1xdWVyeQ0KaWRrPUNXNkVYRU1kY2xaYzNKRUpreV9Ld01GX0RoTWJrVjE1RTZRMTRweXFNTlkNCm9wdD1zdWsNCg"
+				+ "&server=" + serverParam
+				+ "&ids=aFZSlUvZFwiqCN2ycjui1ZdSQwtjVRVGqPy6IB-GUHJeDsF03LatdAdJ5XFYNB_R85a0s_v6UHXVtIV4yMX-AA";
+		final MockHttpServletRequest queryRequest = TCUtil.buildMockRequest(sqrlRequestUrl, rawQueryParams);
+		final MockHttpServletResponse servletResponse = new MockHttpServletResponse();
+
+		sqrlServerOps.handleSqrlClientRequestAsync(queryRequest, servletResponse).toCompletableFuture().get(10,
+				TimeUnit.SECONDS);
+
+		// Check the response generated by our code
+		assertEquals(HttpServletResponse.SC_OK, servletResponse.getStatus());
+		final Map<String, String> responseDataTable = parseSqrlResponse(servletResponse.getContentAsString());
+		assertEquals(4, responseDataTable.size());
+		assertEquals("1", responseDataTable.get("ver"));
+		StringAssert.assertStartsWith(expectedPath + "?nut=", responseDataTable.get("qry"));
+		assertEquals("0", responseDataTable.get("tif"));
+	}
+
 	@Test
 	public void testFirstTime_SqrlIdentity2ndRequestInvalid() throws Throwable {
 		final String sqrlRequestUrl = "qrl://127.0.0.1:8080/sqrlexample/sqrlbc";
@@ -243,8 +307,7 @@ public class SqrlServerOperationsRealClientDataTest {
 				+ "&ids=SFEHcCzTb_cnaMaInR3nFt-L_fguMGEEXHVRATq3naTlCJ6TCTfarjjYRH8HR-tua-k4HLiSVtvdLRKqM6KFDg";
 		// Store the server parrot so request validation will pass
 		sqrlPersistence = TCUtil.createSqrlPersistence();
-		sqrlPersistence.fetchSqrlCorrelatorRequired(correlatorFromServerParam).getTransientAuthDataTable()
-		.put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT, serverParam);
+		sqrlPersistence.fetchSqrlCorrelatorRequired(correlatorFromServerParam).setServerParrot(serverParam);
 		sqrlPersistence.closeCommit();
 
 		final MockHttpServletRequest identRequest = TCUtil.buildMockRequest(sqrlRequestUrl, rawIdentParams);
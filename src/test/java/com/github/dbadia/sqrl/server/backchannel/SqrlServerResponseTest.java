@@ -1,10 +1,14 @@
 package com.github.dbadia.sqrl.server.backchannel;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.junit.Test;
 
 import com.github.dbadia.sqrl.server.backchannel.SqrlTif.SqrlTifBuilder;
+import com.github.dbadia.sqrl.server.util.SqrlUtil;
 
 import junit.framework.TestCase;
 
@@ -31,4 +35,21 @@ public class SqrlServerResponseTest extends TestCase {
 		final String expected = "dmVyPTENCm51dD1SX0lzc1FReWwtTEItc0IxUGlJRkd3DQp0aWY9NQ0KcXJ5PS9zcXJsP251dD1SX0lzc1FReWwtTEItc0IxUGlJRkd3P251dD1SX0lzc1FReWwtTEItc0IxUGlJRkd3JmNvcj1hbGtmamFsaWVqaWxzZg0K";
 		assertEquals(expected, reply.toBase64());
 	}
+
+	@Test
+	public void testBuildReplyBytes_largerThanPooledBuffer() throws Exception {
+		final SqrlTif tif = new SqrlTifBuilder(true).addFlag(SqrlTifFlag.CURRENT_ID_MATCH).createTif();
+		final StringBuilder buf = new StringBuilder();
+		for (int i = 0; i < 3000; i++) {
+			buf.append('a');
+		}
+		final Map<String, String> additionalDataTable = new TreeMap<>();
+		additionalDataTable.put("suk", buf.toString());
+		final SqrlClientReply reply = new SqrlClientReply("nut", tif, "/sqrl", "cor", additionalDataTable);
+		final byte[] replyBytes = reply.toBase64Bytes();
+		final String expected = "ver=1\r\nnut=nut\r\ntif=5\r\nqry=/sqrl?nut=nut&cor=cor\r\nsuk=" + buf + "\r\n";
+		assertEquals(expected, new String(SqrlUtil.base64UrlDecode(new String(replyBytes, StandardCharsets.US_ASCII)),
+				StandardCharsets.UTF_8));
+		assertEquals(SqrlUtil.hashServerParrot(reply.toBase64()), SqrlUtil.hashServerParrot(replyBytes));
+	}
 }
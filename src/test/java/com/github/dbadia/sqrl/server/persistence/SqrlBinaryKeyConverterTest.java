@@ -0,0 +1,58 @@
+package com.github.dbadia.sqrl.server.persistence;
+
+import static junit.framework.TestCase.fail;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.github.dbadia.sqrl.server.exception.SqrlPersistenceException;
+
+public class SqrlBinaryKeyConverterTest {
+	private final SqrlBinaryKeyConverter converter = new SqrlBinaryKeyConverter();
+
+	@Test
+	public void testIdkRoundTrip() {
+		final String idk = "m470Fb8O3XY8xAqlN2pCL0SokqPYNazwdc5sT6SLnUM";
+		final byte[] bytes = converter.convertToDatabaseColumn(idk);
+		assertEquals(32, bytes.length);
+		assertEquals(idk, converter.convertToEntityAttribute(bytes));
+	}
+
+	@Test
+	public void testNull() {
+		assertNull(converter.convertToDatabaseColumn(null));
+		assertNull(converter.convertToEntityAttribute(null));
+	}
+
+	@Test
+	public void testNotBase64Url() {
+		try {
+			converter.convertToDatabaseColumn("not base64!");
+			fail("Exception expected");
+		} catch (final SqrlPersistenceException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testNotCanonical() {
+		// Last character has low order bits set which are dropped on decode
+		try {
+			converter.convertToDatabaseColumn("m470Fb8O3XY8xAqlN2pCL0SokqPYNazwdc5sT6SLnUN");
+			fail("Exception expected");
+		} catch (final SqrlPersistenceException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testIsConvertible() {
+		assertTrue(SqrlBinaryKeyConverter.isConvertible("m470Fb8O3XY8xAqlN2pCL0SokqPYNazwdc5sT6SLnUM"));
+		assertTrue(SqrlBinaryKeyConverter.isConvertible(null));
+		assertFalse(SqrlBinaryKeyConverter.isConvertible("not base64!"));
+		assertFalse(SqrlBinaryKeyConverter.isConvertible("m470Fb8O3XY8xAqlN2pCL0SokqPYNazwdc5sT6SLnUN"));
+	}
+}
@@ -0,0 +1,105 @@
+package com.github.dbadia.sqrl.server.persistence;
+
+import static junit.framework.TestCase.fail;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.dbadia.sqrl.server.TCUtil;
+import com.github.dbadia.sqrl.server.enums.SqrlAuthenticationStatus;
+import com.github.dbadia.sqrl.server.exception.SqrlPersistenceException;
+
+import junitx.framework.ObjectAssert;
+
+public class SqrlExecutorAsyncPersistenceTest {
+	private SqrlExecutorAsyncPersistence asyncPersistence;
+
+	@After
+	public void tearDown() {
+		if (asyncPersistence != null) {
+			asyncPersistence.shutdown();
+		}
+	}
+
+	@Test
+	public void testExecuteInTransaction_Commit() throws Throwable {
+		TCUtil.createEmptySqrlPersistence().closeCommit();
+		asyncPersistence = new SqrlExecutorAsyncPersistence(new SqrlJpaPersistenceFactory(), 2, 10);
+
+		asyncPersistence.executeInTransaction(sqrlPersistence -> sqrlPersistence.createCorrelator("abc",
+				new Date(System.currentTimeMillis() + 60000))).toCompletableFuture().get(10, TimeUnit.SECONDS);
+
+		assertEquals(SqrlAuthenticationStatus.CORRELATOR_ISSUED, asyncPersistence.fetchSqrlCorrelatorStatus("abc")
+				.toCompletableFuture().get(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testExecuteInTransaction_RollbackOnException() throws Throwable {
+		TCUtil.createEmptySqrlPersistence().closeCommit();
+		asyncPersistence = new SqrlExecutorAsyncPersistence(new SqrlJpaPersistenceFactory(), 2, 10);
+
+		try {
+			asyncPersistence.executeInTransaction(sqrlPersistence -> {
+				sqrlPersistence.createAndEnableSqrlIdentity("idk");
+				throw new IllegalStateException("test");
+			}).toCompletableFuture().get(10, TimeUnit.SECONDS);
+			fail("Exception expected");
+		} catch (final ExecutionException e) {
+			ObjectAssert.assertInstanceOf(IllegalStateException.class, e.getCause());
+		}
+
+		try (SqrlAutoCloseablePersistence sqrlPersistence = TCUtil.createSqrlPersistence()) {
+			assertFalse(sqrlPersistence.doesSqrlIdentityExistByIdk("idk"));
+			sqrlPersistence.closeCommit();
+		}
+	}
+
+	@Test
+	public void testExecuteInTransaction_ErrorCompletesExceptionally() throws Throwable {
+		TCUtil.createEmptySqrlPersistence().closeCommit();
+		asyncPersistence = new SqrlExecutorAsyncPersistence(new SqrlJpaPersistenceFactory(), 2, 10);
+
+		try {
+			asyncPersistence.executeInTransaction(sqrlPersistence -> {
+				throw new AssertionError("test");
+			}).toCompletableFuture().get(10, TimeUnit.SECONDS);
+			fail("Exception expected");
+		} catch (final ExecutionException e) {
+			ObjectAssert.assertInstanceOf(AssertionError.class, e.getCause());
+		}
+	}
+
+	@Test
+	public void testExecuteInTransaction_QueueFull() throws Throwable {
+		asyncPersistence = new SqrlExecutorAsyncPersistence(new SqrlJpaPersistenceFactory(), 1, 1);
+		final CountDownLatch latch = new CountDownLatch(1);
+		// Occupy the only thread, then the only queue slot
+		asyncPersistence.executeInTransaction(sqrlPersistence -> awaitQuietly(latch));
+		asyncPersistence.executeInTransaction(sqrlPersistence -> awaitQuietly(latch));
+		try {
+			asyncPersistence.executeInTransaction(sqrlPersistence -> null).toCompletableFuture().get(10,
+					TimeUnit.SECONDS);
+			fail("Exception expected");
+		} catch (final ExecutionException e) {
+			ObjectAssert.assertInstanceOf(SqrlPersistenceException.class, e.getCause());
+		} finally {
+			latch.countDown();
+		}
+	}
+
+	private static Boolean awaitQuietly(final CountDownLatch latch) {
+		try {
+			return latch.await(10, TimeUnit.SECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return Boolean.FALSE;
+		}
+	}
+}
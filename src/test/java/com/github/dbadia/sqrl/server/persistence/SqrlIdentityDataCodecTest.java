@@ -0,0 +1,98 @@
+package com.github.dbadia.sqrl.server.persistence;
+
+import static junit.framework.TestCase.fail;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.junit.Test;
+
+import com.github.dbadia.sqrl.server.TCUtil;
+import com.github.dbadia.sqrl.server.enums.SqrlIdentityFlag;
+import com.github.dbadia.sqrl.server.exception.SqrlPersistenceException;
+
+import junitx.util.PrivateAccessor;
+
+public class SqrlIdentityDataCodecTest {
+
+	@Test
+	public void testRoundTrip() {
+		final Set<SqrlIdentityFlag> flagSet = EnumSet.of(SqrlIdentityFlag.SQRL_AUTH_ENABLED, SqrlIdentityFlag.HARDLOCK);
+		final Map<String, String> dataTable = new HashMap<>();
+		dataTable.put("suk", "mC5wBKDXPkbk3J5ohpkM1ksgv0l996DG2BWWOvOXmF4");
+		// Separator characters in the data must survive
+		dataTable.put("a|b:c", "1:2|3,4");
+		dataTable.put("empty", "");
+
+		final String encoded = SqrlIdentityDataCodec.encode(flagSet, dataTable);
+		final Set<SqrlIdentityFlag> decodedFlagSet = new HashSet<>();
+		decodedFlagSet.add(SqrlIdentityFlag.SQRL_AUTH_ENABLED);
+		final Map<String, String> decodedDataTable = new HashMap<>();
+		decodedDataTable.put("stale", "value");
+		SqrlIdentityDataCodec.decode(encoded, decodedFlagSet, decodedDataTable);
+
+		assertEquals(flagSet, decodedFlagSet);
+		assertEquals(dataTable, decodedDataTable);
+	}
+
+	@Test
+	public void testEmpty() {
+		final String encoded = SqrlIdentityDataCodec.encode(new HashSet<SqrlIdentityFlag>(),
+				new HashMap<String, String>());
+		assertEquals("1||", encoded);
+		final Set<SqrlIdentityFlag> flagSet = new HashSet<>();
+		final Map<String, String> dataTable = new HashMap<>();
+		SqrlIdentityDataCodec.decode(encoded, flagSet, dataTable);
+		assertTrue(flagSet.isEmpty());
+		assertTrue(dataTable.isEmpty());
+	}
+
+	@Test
+	public void testUnsupportedVersion() {
+		try {
+			SqrlIdentityDataCodec.decode("2||", new HashSet<SqrlIdentityFlag>(), new HashMap<String, String>());
+			fail("Exception expected");
+		} catch (final SqrlPersistenceException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testCorruptLength() {
+		try {
+			SqrlIdentityDataCodec.decode("1||3:suk99:abc", new HashSet<SqrlIdentityFlag>(),
+					new HashMap<String, String>());
+			fail("Exception expected");
+		} catch (final SqrlPersistenceException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testMigration() throws Throwable {
+		final String idk = "m470Fb8O3XY8xAqlN2pCL0SokqPYNazwdc5sT6SLnUM";
+		try (SqrlAutoCloseablePersistence sqrlPersistence = TCUtil.createEmptySqrlPersistence()) {
+			sqrlPersistence.createAndEnableSqrlIdentity(idk);
+			sqrlPersistence.closeCommit();
+		}
+		final EntityManagerFactory entityManagerFactory = (EntityManagerFactory) PrivateAccessor
+				.getField(SqrlJpaPersistenceProvider.class, "entityManagerFactory");
+
+		final SqrlCompactIdentityMigration migration = new SqrlCompactIdentityMigration(entityManagerFactory, 10);
+		assertEquals(1, migration.migrate());
+		// Already converted
+		assertEquals(0, migration.migrate());
+
+		try (SqrlAutoCloseablePersistence sqrlPersistence = TCUtil.createSqrlPersistence()) {
+			assertTrue(sqrlPersistence.fetchSqrlFlagForIdentity(idk, SqrlIdentityFlag.SQRL_AUTH_ENABLED));
+			sqrlPersistence.closeCommit();
+		}
+	}
+}
@@ -3,8 +3,10 @@ package com.github.dbadia.sqrl.server.persistence;
 import static junit.framework.TestCase.assertFalse;
 import static junit.framework.TestCase.assertNotNull;
 import static junit.framework.TestCase.fail;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
 import java.util.Date;
 
 import javax.persistence.EntityManagerFactory;
@@ -89,4 +91,64 @@ public class SqrlJpaPersistenceCleanupTest {
 		sqrlPersistence.closeCommit();
 	}
 
+	@Test
+	public void testExpiredGenerationIndex() throws Throwable {
+		final long generationMillis = 60000;
+		// Generation 8 is current, so 7 is the one which has fully expired
+		assertEquals(3, SqrlJpaPersistenceProvider.computeExpiredGenerationIndex(8 * generationMillis, generationMillis));
+		assertEquals(3,
+				SqrlJpaPersistenceProvider.computeExpiredGenerationIndex(9 * generationMillis - 1, generationMillis));
+		assertEquals(0, SqrlJpaPersistenceProvider.computeExpiredGenerationIndex(9 * generationMillis, generationMillis));
+		// Generation 0 wraps around
+		assertEquals(3, SqrlJpaPersistenceProvider.computeExpiredGenerationIndex(0, generationMillis));
+	}
+
+	@Test
+	public void testExpiredGenerationIndexes() throws Throwable {
+		final long generationMillis = 60000;
+		// First half of generation 8, both 7 and 6 hold only expired tokens
+		assertTrue(Arrays.equals(new int[] { 3, 2 },
+				SqrlJpaPersistenceProvider.computeExpiredGenerationIndexes(8 * generationMillis, generationMillis)));
+		// Second half, 6 is about to become the next generation so only 7 is truncated
+		assertTrue(Arrays.equals(new int[] { 3 }, SqrlJpaPersistenceProvider
+				.computeExpiredGenerationIndexes(8 * generationMillis + generationMillis / 2, generationMillis)));
+	}
+
+	@Test
+	public void testCleanupTask_DeletesInBatches() throws Throwable {
+		SqrlPersistence sqrlPersistence = TCUtil.createEmptySqrlPersistence();
+		final long now = System.currentTimeMillis();
+		final String keepToken = "nBuewGyan2u2Yx1McUXetQ";
+		sqrlPersistence.markTokenAsUsed(keepToken, new Date(now + 60000));
+		for (int i = 0; i < 25; i++) {
+			sqrlPersistence.markTokenAsUsed("nutTokenDelete" + i, new Date(now - 1000));
+		}
+		sqrlPersistence.closeCommit();
+
+		// Execute
+		final SqrlPersistenceCleanupTask cleanupTask = new SqrlPersistenceCleanupTask(new SqrlJpaPersistenceFactory(),
+				10, 60000);
+		cleanupTask.run();
+
+		// Verify
+		assertEquals(25, cleanupTask.getLastRunRowsDeleted());
+		sqrlPersistence = TCUtil.createSqrlPersistence();
+		assertTrue(sqrlPersistence.hasTokenBeenUsed(keepToken));
+		assertFalse(sqrlPersistence.hasTokenBeenUsed("nutTokenDelete0"));
+		assertFalse(sqrlPersistence.hasTokenBeenUsed("nutTokenDelete24"));
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testCleanupTask_BatchSizeAdapts() throws Throwable {
+		final long slow = SqrlPersistenceCleanupTask.TARGET_BATCH_MILLIS + 1;
+		assertEquals(50, SqrlPersistenceCleanupTask.computeNextBatchSize(100, slow, 500));
+		assertEquals(SqrlPersistenceCleanupTask.MIN_BATCH_SIZE,
+				SqrlPersistenceCleanupTask.computeNextBatchSize(SqrlPersistenceCleanupTask.MIN_BATCH_SIZE, slow, 500));
+		assertEquals(200, SqrlPersistenceCleanupTask.computeNextBatchSize(100, 0, 500));
+		assertEquals(500, SqrlPersistenceCleanupTask.computeNextBatchSize(400, 0, 500));
+		assertEquals(100, SqrlPersistenceCleanupTask.computeNextBatchSize(100,
+				SqrlPersistenceCleanupTask.TARGET_BATCH_MILLIS, 500));
+	}
+
 }
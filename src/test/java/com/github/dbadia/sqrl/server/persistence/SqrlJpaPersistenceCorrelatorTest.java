@@ -0,0 +1,51 @@
+package com.github.dbadia.sqrl.server.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+import com.github.dbadia.sqrl.server.TCUtil;
+import com.github.dbadia.sqrl.server.enums.SqrlAuthenticationStatus;
+import com.github.dbadia.sqrl.server.util.SqrlUtil;
+
+public class SqrlJpaPersistenceCorrelatorTest {
+
+	@Test
+	public void testFetchSqrlCorrelatorStatus() throws Throwable {
+		try (SqrlAutoCloseablePersistence sqrlPersistence = TCUtil.createEmptySqrlPersistence()) {
+			final SqrlCorrelator sqrlCorrelator = sqrlPersistence.createCorrelator("abc",
+					new Date(System.currentTimeMillis() + 60000));
+			sqrlCorrelator.setAuthenticationStatus(SqrlAuthenticationStatus.COMMUNICATING);
+			sqrlPersistence.closeCommit();
+		}
+
+		try (SqrlAutoCloseablePersistence sqrlPersistence = TCUtil.createSqrlPersistence()) {
+			assertEquals(SqrlAuthenticationStatus.COMMUNICATING, sqrlPersistence.fetchSqrlCorrelatorStatus("abc"));
+			assertNull(sqrlPersistence.fetchSqrlCorrelatorStatus("doesNotExist"));
+			sqrlPersistence.closeCommit();
+		}
+	}
+
+	@Test
+	public void testFetchServerParrotHash() throws Throwable {
+		try (SqrlAutoCloseablePersistence sqrlPersistence = TCUtil.createEmptySqrlPersistence()) {
+			final SqrlCorrelator sqrlCorrelator = sqrlPersistence.createCorrelator("abc",
+					new Date(System.currentTimeMillis() + 60000));
+			sqrlCorrelator.setServerParrot("parrot");
+			sqrlPersistence.createCorrelator("def", new Date(System.currentTimeMillis() + 60000));
+			sqrlPersistence.closeCommit();
+		}
+
+		try (SqrlAutoCloseablePersistence sqrlPersistence = TCUtil.createSqrlPersistence()) {
+			final String hash = sqrlPersistence.fetchServerParrotHash("abc");
+			assertEquals(SqrlUtil.hashServerParrot("parrot"), hash);
+			assertEquals(43, hash.length());
+			assertNull(sqrlPersistence.fetchServerParrotHash("def"));
+			assertNull(sqrlPersistence.fetchServerParrotHash("doesNotExist"));
+			sqrlPersistence.closeCommit();
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package com.github.dbadia.sqrl.server.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.junit.Test;
+
+import com.github.dbadia.sqrl.server.SqrlPersistence;
+import com.github.dbadia.sqrl.server.TCUtil;
+import com.github.dbadia.sqrl.server.util.SqrlConstants;
+
+import junitx.util.PrivateAccessor;
+
+public class SqrlJpaPersistenceIdAllocationTest {
+	private static final int	THREAD_COUNT			= 4;
+	private static final int	CORRELATORS_PER_THREAD	= 25;
+
+	@Test
+	public void testCorrelatorIdsAllocatedInBlocks() throws Throwable {
+		TCUtil.createEmptySqrlPersistence().closeCommit();
+		final long generatorValueBefore = fetchGeneratorValue("correlator_gen");
+
+		// Execute - insert correlators from multiple threads as the login page would
+		final Set<Long> idSet = ConcurrentHashMap.newKeySet();
+		final ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+		final List<Future<?>> futureList = new ArrayList<>();
+		for (int t = 0; t < THREAD_COUNT; t++) {
+			final String prefix = "alloc" + t + "-";
+			futureList.add(executor.submit(() -> {
+				for (int i = 0; i < CORRELATORS_PER_THREAD; i++) {
+					final SqrlPersistence sqrlPersistence = TCUtil.createSqrlPersistence();
+					final SqrlCorrelator sqrlCorrelator = sqrlPersistence.createCorrelator(prefix + i,
+							TCUtil.AWHILE_FROM_NOW);
+					sqrlPersistence.closeCommit();
+					idSet.add(sqrlCorrelator.getId());
+				}
+			}));
+		}
+		for (final Future<?> future : futureList) {
+			future.get();
+		}
+		executor.shutdown();
+
+		// Validate - every id is unique and the shared generator row was only updated once per block
+		assertEquals(THREAD_COUNT * CORRELATORS_PER_THREAD, idSet.size());
+		final long generatorAdvance = fetchGeneratorValue("correlator_gen") - generatorValueBefore;
+		assertTrue("Generator advanced by " + generatorAdvance,
+				generatorAdvance <= 2L * SqrlConstants.DB_ID_ALLOCATION_SIZE);
+	}
+
+	private static long fetchGeneratorValue(final String generatorName) throws NoSuchFieldException {
+		final EntityManagerFactory entityManagerFactory = (EntityManagerFactory) PrivateAccessor
+				.getField(SqrlJpaPersistenceProvider.class, "entityManagerFactory");
+		final EntityManager entityManager = entityManagerFactory.createEntityManager();
+		try {
+			final List<?> resultList = entityManager
+					.createNativeQuery("SELECT value FROM sqrl_db_id_gen WHERE name = ?")
+					.setParameter(1, generatorName).getResultList();
+			return resultList.isEmpty() ? 0 : ((Number) resultList.get(0)).longValue();
+		} finally {
+			entityManager.close();
+		}
+	}
+}
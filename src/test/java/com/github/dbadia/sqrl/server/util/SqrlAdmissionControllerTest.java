@@ -0,0 +1,108 @@
+package com.github.dbadia.sqrl.server.util;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class SqrlAdmissionControllerTest {
+	private static final long	TARGET_NANOS	= TimeUnit.MILLISECONDS.toNanos(100);
+	private static final long	FAST_NANOS		= TimeUnit.MILLISECONDS.toNanos(1);
+	private static final long	SLOW_NANOS		= TimeUnit.SECONDS.toNanos(1);
+
+	@Test
+	public void testRejectsOverLimit() {
+		final SqrlAdmissionController controller = new SqrlAdmissionController(true, 2, 1, 10, TARGET_NANOS);
+		assertTrue(controller.tryAcquire());
+		assertTrue(controller.tryAcquire());
+		assertFalse(controller.tryAcquire());
+		assertEquals(2, controller.getInFlightCount());
+		assertEquals(2, controller.getAcceptedCount());
+		assertEquals(1, controller.getRejectedCount());
+
+		controller.release(FAST_NANOS);
+		assertTrue(controller.tryAcquire());
+	}
+
+	@Test
+	public void testLimitShrinksWhenSlow() {
+		final SqrlAdmissionController controller = new SqrlAdmissionController(true, 10, 2, 10, TARGET_NANOS);
+		long nowNanos = System.nanoTime();
+		for (int i = 0; i < 50; i++) {
+			assertTrue(controller.tryAcquire());
+			nowNanos += SLOW_NANOS;
+			controller.release(SLOW_NANOS, nowNanos);
+		}
+		assertEquals(2, controller.getLimit());
+	}
+
+	@Test
+	public void testLimitShrinksOncePerLatencyWindow() {
+		final SqrlAdmissionController controller = new SqrlAdmissionController(true, 10, 2, 10, TARGET_NANOS);
+		for (int i = 0; i < 10; i++) {
+			assertTrue(controller.tryAcquire());
+		}
+		// All ten were running during the same slow period, only the first shrinks the limit
+		final long nowNanos = System.nanoTime() + SLOW_NANOS;
+		for (int i = 0; i < 10; i++) {
+			controller.release(SLOW_NANOS, nowNanos);
+		}
+		assertEquals(9, controller.getLimit());
+		assertEquals(0, controller.getInFlightCount());
+
+		// A request which started after that shrinks it again
+		assertTrue(controller.tryAcquire());
+		controller.release(SLOW_NANOS, nowNanos + SLOW_NANOS);
+		assertEquals(8, controller.getLimit());
+	}
+
+	@Test
+	public void testReleaseIgnoredLeavesLimit() {
+		final SqrlAdmissionController controller = new SqrlAdmissionController(true, 2, 1, 10, TARGET_NANOS);
+		for (int i = 0; i < 10; i++) {
+			assertTrue(controller.tryAcquire());
+			assertTrue(controller.tryAcquire());
+			controller.releaseIgnored();
+			controller.releaseIgnored();
+		}
+		assertEquals(2, controller.getLimit());
+		assertEquals(0, controller.getInFlightCount());
+	}
+
+	@Test
+	public void testLimitGrowsWhenFastAndInUse() {
+		final SqrlAdmissionController controller = new SqrlAdmissionController(true, 2, 1, 4, TARGET_NANOS);
+		for (int i = 0; i < 10; i++) {
+			// Fill the limit, then let everything finish quickly
+			final int limit = controller.getLimit();
+			for (int j = 0; j < limit; j++) {
+				assertTrue(controller.tryAcquire());
+			}
+			for (int j = 0; j < limit; j++) {
+				controller.release(FAST_NANOS);
+			}
+		}
+		assertEquals(4, controller.getLimit());
+	}
+
+	@Test
+	public void testLimitDoesNotGrowWhenIdle() {
+		final SqrlAdmissionController controller = new SqrlAdmissionController(true, 10, 1, 100, TARGET_NANOS);
+		for (int i = 0; i < 50; i++) {
+			assertTrue(controller.tryAcquire());
+			controller.release(FAST_NANOS);
+		}
+		assertEquals(10, controller.getLimit());
+	}
+
+	@Test
+	public void testDisabled() {
+		final SqrlAdmissionController controller = new SqrlAdmissionController(false, 1, 1, 1, TARGET_NANOS);
+		assertTrue(controller.tryAcquire());
+		assertTrue(controller.tryAcquire());
+		assertEquals(0, controller.getRejectedCount());
+	}
+}
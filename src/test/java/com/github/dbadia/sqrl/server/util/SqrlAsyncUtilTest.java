@@ -0,0 +1,161 @@
+package com.github.dbadia.sqrl.server.util;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dbadia.sqrl.server.enums.SqrlExecutionMode;
+
+import junitx.framework.ObjectAssert;
+
+public class SqrlAsyncUtilTest {
+	private ScheduledExecutorService timeoutScheduler;
+
+	@Before
+	public void setUp() {
+		timeoutScheduler = SqrlAsyncUtil.newTimeoutScheduler();
+	}
+
+	@After
+	public void tearDown() {
+		timeoutScheduler.shutdownNow();
+	}
+
+	@Test
+	public void testBlockingExecutor_PlatformLimits() throws Exception {
+		assertLimitsEnforced(SqrlExecutionMode.PLATFORM);
+	}
+
+	/**
+	 * Runs on virtual threads if the JVM supports them, otherwise falls back to platform threads. The limits must hold
+	 * either way
+	 */
+	@Test
+	public void testBlockingExecutor_VirtualLimits() throws Exception {
+		assertLimitsEnforced(SqrlExecutionMode.VIRTUAL);
+	}
+
+	private void assertLimitsEnforced(final SqrlExecutionMode executionMode) throws Exception {
+		final ExecutorService executor = SqrlAsyncUtil.newBlockingExecutor("Test #", 1, 1, executionMode);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger completed = new AtomicInteger(0);
+		try {
+			executor.execute(() -> {
+				started.countDown();
+				awaitQuietly(release);
+				completed.incrementAndGet();
+			});
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+			// Waits for the only thread
+			executor.execute(completed::incrementAndGet);
+			try {
+				executor.execute(completed::incrementAndGet);
+				fail("Exception expected");
+			} catch (final RejectedExecutionException e) {
+				// Expected
+			}
+			release.countDown();
+		} finally {
+			executor.shutdown();
+		}
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		assertEquals(2, completed.get());
+	}
+
+	@Test
+	public void testOffloadPeriodicTask_SkipsOverlappingRun() throws Exception {
+		final ExecutorService executor = SqrlAsyncUtil.newBoundedExecutor("Test #", 2, 2);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger runCount = new AtomicInteger(0);
+		final Runnable offloaded = SqrlAsyncUtil.offloadPeriodicTask(() -> {
+			runCount.incrementAndGet();
+			awaitQuietly(release);
+		}, executor);
+		try {
+			offloaded.run();
+			// Previous run is still blocked so this one is skipped
+			offloaded.run();
+			release.countDown();
+		} finally {
+			executor.shutdown();
+		}
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		assertEquals(1, runCount.get());
+	}
+
+	@Test
+	public void testWithTimeout() throws Exception {
+		final CompletableFuture<String> neverCompletes = new CompletableFuture<>();
+		try {
+			SqrlAsyncUtil.withTimeout(timeoutScheduler, neverCompletes, 10, "test").get(5, TimeUnit.SECONDS);
+			fail("Exception expected");
+		} catch (final ExecutionException e) {
+			ObjectAssert.assertInstanceOf(TimeoutException.class, SqrlAsyncUtil.unwrap(e));
+		}
+	}
+
+	@Test
+	public void testWithTimeout_CompletesInTime() throws Exception {
+		final CompletableFuture<String> stage = new CompletableFuture<>();
+		final CompletableFuture<String> withTimeout = SqrlAsyncUtil.withTimeout(timeoutScheduler, stage, 5000, "test");
+		stage.complete("done");
+		assertEquals("done", withTimeout.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testWithCommitTimeout_ExpiredBeforeCommit() throws Exception {
+		final SqrlCommitDeadline[] deadline = new SqrlCommitDeadline[1];
+		final CompletableFuture<String> work = new CompletableFuture<>();
+		final CompletableFuture<String> withTimeout = SqrlAsyncUtil.withCommitTimeout(timeoutScheduler, d -> {
+			deadline[0] = d;
+			return work;
+		}, 10, "test");
+		try {
+			withTimeout.get(5, TimeUnit.SECONDS);
+			fail("Exception expected");
+		} catch (final ExecutionException e) {
+			ObjectAssert.assertInstanceOf(TimeoutException.class, SqrlAsyncUtil.unwrap(e));
+		}
+		// The work must now roll back
+		assertTrue(deadline[0].isExpired());
+		assertFalse(deadline[0].tryCommit());
+	}
+
+	@Test
+	public void testWithCommitTimeout_CommitClaimedBeforeTimeout() throws Exception {
+		final CompletableFuture<String> work = new CompletableFuture<>();
+		final CompletableFuture<String> withTimeout = SqrlAsyncUtil.withCommitTimeout(timeoutScheduler, d -> {
+			assertTrue(d.tryCommit());
+			return work;
+		}, 10, "test");
+		// The timeout passes while the commit is in progress, the stage must wait for the real outcome
+		Thread.sleep(100);
+		assertFalse(withTimeout.isDone());
+		work.complete("committed");
+		assertEquals("committed", withTimeout.get(5, TimeUnit.SECONDS));
+	}
+
+	private static void awaitQuietly(final CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package com.github.dbadia.sqrl.server.util;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SqrlBase64UrlTest {
+
+	@Test
+	public void testMatchesJdkForAllLengths() {
+		final Random random = new Random(1);
+		for (int length = 0; length < 100; length++) {
+			final byte[] data = new byte[length];
+			random.nextBytes(data);
+			final String expected = Base64.getUrlEncoder().withoutPadding().encodeToString(data);
+			assertEquals(expected, SqrlBase64Url.encodeToString(data));
+			assertEquals(expected.length(), SqrlBase64Url.encodedLength(length));
+			assertTrue(Arrays.equals(data, SqrlBase64Url.decode(expected)));
+			// Padding is optional on decode
+			assertTrue(Arrays.equals(data, SqrlBase64Url.decode(Base64.getUrlEncoder().encodeToString(data))));
+		}
+	}
+
+	@Test
+	public void testDecodeIntoBufferAtOffset() {
+		final byte[] buffer = new byte[10];
+		assertEquals(4, SqrlBase64Url.decode("YmxhaA", buffer, 3));
+		assertEquals("blah", new String(buffer, 3, 4));
+	}
+
+	@Test
+	public void testDecodeInvalid() {
+		assertNull(SqrlBase64Url.decode("Ym+haA"));
+		assertNull(SqrlBase64Url.decode("Ym/haA"));
+		assertNull(SqrlBase64Url.decode("YmxhaA="));
+		assertNull(SqrlBase64Url.decode("Y"));
+		assertNull(SqrlBase64Url.decode("YméhaA"));
+		assertEquals(-1, SqrlBase64Url.decode("Ym haA", new byte[10], 0));
+	}
+
+	@Test
+	public void testIsValid() {
+		assertTrue(SqrlBase64Url.isValid("abcXYZ019-_"));
+		assertFalse(SqrlBase64Url.isValid(""));
+		assertFalse(SqrlBase64Url.isValid("abc="));
+		assertFalse(SqrlBase64Url.isValid("<script>"));
+	}
+}
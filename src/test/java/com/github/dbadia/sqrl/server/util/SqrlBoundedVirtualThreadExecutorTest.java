@@ -0,0 +1,35 @@
+package com.github.dbadia.sqrl.server.util;
+
+import static junit.framework.TestCase.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class SqrlBoundedVirtualThreadExecutorTest {
+
+	@Test
+	public void testInterruptedWhileWaiting_taskStillCompletes() throws Exception {
+		final SqrlBoundedVirtualThreadExecutor executor = new SqrlBoundedVirtualThreadExecutor(
+				Executors.newCachedThreadPool(), 1, 1);
+		final CountDownLatch running = new CountDownLatch(1);
+		final CompletableFuture<Void> first = CompletableFuture.runAsync(() -> {
+			running.countDown();
+			try {
+				Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, executor);
+		assertTrue(running.await(5, TimeUnit.SECONDS));
+		final CompletableFuture<Boolean> waiting = CompletableFuture
+				.supplyAsync(() -> Thread.currentThread().isInterrupted(), executor);
+
+		executor.shutdownNow();
+		assertTrue(waiting.get(5, TimeUnit.SECONDS).booleanValue());
+		first.get(5, TimeUnit.SECONDS);
+	}
+}
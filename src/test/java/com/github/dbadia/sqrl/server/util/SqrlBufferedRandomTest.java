@@ -0,0 +1,68 @@
+package com.github.dbadia.sqrl.server.util;
+
+import static junit.framework.TestCase.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+
+import org.junit.Test;
+
+public class SqrlBufferedRandomTest {
+
+	@Test
+	public void testUnbuffered_callsSourceEachTime() {
+		final CountingSecureRandom source = new CountingSecureRandom();
+		final SqrlBufferedRandom random = new SqrlBufferedRandom(source, 0);
+		random.nextInt();
+		random.nextInt();
+		assertEquals(2, source.calls);
+	}
+
+	@Test
+	public void testBuffered_drawsOncePerBuffer() {
+		final CountingSecureRandom source = new CountingSecureRandom();
+		final SqrlBufferedRandom random = new SqrlBufferedRandom(source, 8);
+		for (int i = 0; i < 8; i++) {
+			random.nextInt();
+		}
+		assertEquals(1, source.calls);
+		random.nextInt();
+		assertEquals(2, source.calls);
+	}
+
+	@Test
+	public void testBuffered_intsComeFromSourceBytes() {
+		final SecureRandom source = new SecureRandom() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void nextBytes(final byte[] bytes) {
+				final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+				for (int i = 0; buffer.hasRemaining(); i++) {
+					buffer.putInt(i - 1);
+				}
+			}
+		};
+		final SqrlBufferedRandom random = new SqrlBufferedRandom(source, 3);
+		assertEquals(-1, random.nextInt());
+		assertEquals(0, random.nextInt());
+		assertEquals(1, random.nextInt());
+		assertEquals(-1, random.nextInt());
+	}
+
+	private static class CountingSecureRandom extends SecureRandom {
+		private static final long	serialVersionUID	= 1L;
+		private int					calls;
+
+		@Override
+		public int nextInt() {
+			calls++;
+			return 0;
+		}
+
+		@Override
+		public void nextBytes(final byte[] bytes) {
+			calls++;
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package com.github.dbadia.sqrl.server.util;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.github.dbadia.sqrl.server.SqrlConfig;
+import com.github.dbadia.sqrl.server.TCUtil;
+import com.github.dbadia.sqrl.server.enums.SqrlExecutionMode;
+import com.github.dbadia.sqrl.server.enums.SqrlExecutorType;
+
+public class SqrlExecutorPoolTest {
+
+	@Test
+	public void testMetrics() throws Exception {
+		final SqrlExecutorPool pool = new SqrlExecutorPool("Test", 1, 1, SqrlExecutionMode.PLATFORM);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		try {
+			pool.execute(() -> {
+				started.countDown();
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+			pool.execute(() -> {
+				// queued behind the first task
+			});
+			try {
+				pool.execute(() -> {
+					// rejected
+				});
+				fail("Exception expected");
+			} catch (final RejectedExecutionException e) {
+				// Expected
+			}
+
+			SqrlExecutorPoolMetrics metrics = pool.getMetrics();
+			assertEquals("Test", metrics.getPoolName());
+			assertEquals(1, metrics.getActiveCount());
+			assertEquals(1, metrics.getQueueDepth());
+			assertEquals(0, metrics.getCompletedCount());
+			assertEquals(1, metrics.getRejectedCount());
+
+			release.countDown();
+			pool.shutdown();
+			assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+			metrics = pool.getMetrics();
+			assertEquals(0, metrics.getActiveCount());
+			assertEquals(0, metrics.getQueueDepth());
+			assertEquals(2, metrics.getCompletedCount());
+			assertEquals(1, metrics.getRejectedCount());
+		} finally {
+			release.countDown();
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testPoolsAreSizedFromConfig() throws Exception {
+		final SqrlConfig config = TCUtil.buildTestSqrlConfig();
+		config.setPagePrepThreadCount(3);
+		config.setPagePrepQueueSize(7);
+		config.setAsyncPersistenceThreadCount(5);
+		final SqrlExecutors executors = new SqrlExecutors(config);
+		try {
+			final SqrlExecutorPoolMetrics pagePrep = executors.getMetrics().get(SqrlExecutorType.PAGE_PREP);
+			assertEquals(3, pagePrep.getThreadCount());
+			assertEquals(7, pagePrep.getQueueSize());
+			assertEquals(5, executors.getMetrics().get(SqrlExecutorType.PERSISTENCE).getThreadCount());
+			assertEquals(SqrlExecutorType.values().length, executors.getMetrics().size());
+		} finally {
+			executors.shutdown();
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package com.github.dbadia.sqrl.server.util;
+
+import static junit.framework.TestCase.assertEquals;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class SqrlIpAddressParserTest {
+
+	@Test
+	public void testParseMatchesInetAddress() throws Exception {
+		for (final String literal : new String[] { "1.2.3.4", "255.255.255.255", "::", "::1", "1::",
+				"1:2:3:4:5:6:7:8", "fe80::1:2", "64:ff9b::1.2.3.4", "::ffff:1.2.3.4", "01.02.03.004" }) {
+			assertEquals(literal, InetAddress.getByName(literal), parse(literal));
+		}
+	}
+
+	@Test
+	public void testParseDecorated() throws Exception {
+		assertEquals(InetAddress.getByName("1.2.3.4"), parse(" 1.2.3.4:8080 "));
+		assertEquals(InetAddress.getByName("::1"), parse("[::1]:443"));
+		assertEquals(InetAddress.getByName("fe80::1"), parse("fe80::1%eth0"));
+	}
+
+	@Test
+	public void testParseInvalid() {
+		final byte[] address = new byte[SqrlIpAddressParser.IPV6_LENGTH];
+		for (final String invalid : new String[] { "", "localhost", "unknown", "1.2.3", "256.1.1.1", "1.2.3.4.",
+				"1:2:3:4:5:6:7:8:9", "1::2::3", ":1::", "12345::", "1.2.3.4:", "[::1" }) {
+			assertEquals(invalid, -1, SqrlIpAddressParser.parse(invalid, address));
+		}
+	}
+
+	@Test
+	public void testParseForwardedFor() throws Exception {
+		final byte[] address = new byte[SqrlIpAddressParser.IPV6_LENGTH];
+		final String header = "1.1.1.1, 2.2.2.2,3.3.3.3";
+		assertEquals(4, SqrlIpAddressParser.parseForwardedFor(header, 1, address));
+		assertEquals(InetAddress.getByName("3.3.3.3"), toInetAddress(address, 4));
+		assertEquals(4, SqrlIpAddressParser.parseForwardedFor(header, 2, address));
+		assertEquals(InetAddress.getByName("2.2.2.2"), toInetAddress(address, 4));
+		// Fewer entries than hops, take the leftmost
+		assertEquals(4, SqrlIpAddressParser.parseForwardedFor(header, 5, address));
+		assertEquals(InetAddress.getByName("1.1.1.1"), toInetAddress(address, 4));
+	}
+
+	private static InetAddress parse(final String literal) throws Exception {
+		final byte[] address = new byte[SqrlIpAddressParser.IPV6_LENGTH];
+		return toInetAddress(address, SqrlIpAddressParser.parse(literal, address));
+	}
+
+	private static InetAddress toInetAddress(final byte[] address, final int length) throws Exception {
+		return InetAddress.getByAddress(Arrays.copyOf(address, length));
+	}
+}
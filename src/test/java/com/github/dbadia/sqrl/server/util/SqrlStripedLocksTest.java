@@ -0,0 +1,82 @@
+package com.github.dbadia.sqrl.server.util;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class SqrlStripedLocksTest {
+
+	@Test
+	public void testSameKeySameLock() {
+		final SqrlStripedLocks locks = new SqrlStripedLocks(16);
+		assertSame(locks.getLock("abc"), locks.getLock(new String("abc")));
+	}
+
+	@Test
+	public void testRunSerialized_secondWaitsForFirst() throws Exception {
+		final SqrlStripedLocks locks = new SqrlStripedLocks(16);
+		final CompletableFuture<String> firstWork = new CompletableFuture<>();
+		final CompletableFuture<String> first = locks.runSerialized("abc", () -> firstWork);
+		final boolean[] secondStarted = new boolean[1];
+		final CompletableFuture<String> second = locks.runSerialized("abc", () -> {
+			secondStarted[0] = true;
+			return CompletableFuture.completedFuture("second");
+		});
+		assertFalse(secondStarted[0]);
+		assertFalse(second.isDone());
+
+		firstWork.complete("first");
+		assertEquals("first", first.get());
+		assertTrue(secondStarted[0]);
+		assertEquals("second", second.get());
+	}
+
+	@Test
+	public void testRunSerialized_failureReleasesStripe() throws Exception {
+		final SqrlStripedLocks locks = new SqrlStripedLocks(16);
+		final CompletableFuture<String> firstWork = new CompletableFuture<>();
+		final CompletableFuture<String> first = locks.runSerialized("abc", () -> firstWork);
+		final CompletableFuture<String> second = locks.runSerialized("abc",
+				() -> CompletableFuture.completedFuture("second"));
+		firstWork.completeExceptionally(new IllegalStateException("boom"));
+		assertTrue(first.isCompletedExceptionally());
+		assertEquals("second", second.get());
+	}
+
+	@Test
+	public void testRunSerialized_throwingTaskReleasesStripe() throws Exception {
+		final SqrlStripedLocks locks = new SqrlStripedLocks(16);
+		final CompletableFuture<String> first = locks.runSerialized("abc", () -> {
+			throw new IllegalStateException("boom");
+		});
+		assertTrue(first.isCompletedExceptionally());
+		final CompletableFuture<String> second = locks.runSerialized("abc",
+				() -> CompletableFuture.completedFuture("second"));
+		assertEquals("second", second.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testRunSerialized_otherStripeNotBlocked() throws Exception {
+		final SqrlStripedLocks locks = new SqrlStripedLocks(2);
+		final String otherKey = findKeyOnOtherStripe(locks, "abc");
+		locks.runSerialized("abc", () -> new CompletableFuture<String>());
+		final CompletableFuture<String> other = locks.runSerialized(otherKey,
+				() -> CompletableFuture.completedFuture("other"));
+		assertEquals("other", other.get());
+	}
+
+	private static String findKeyOnOtherStripe(final SqrlStripedLocks locks, final String key) {
+		for (int i = 0;; i++) {
+			final String candidate = key + i;
+			if (locks.getLock(candidate) != locks.getLock(key)) {
+				return candidate;
+			}
+		}
+	}
+}
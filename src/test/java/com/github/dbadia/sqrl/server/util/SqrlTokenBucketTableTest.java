@@ -0,0 +1,100 @@
+package com.github.dbadia.sqrl.server.util;
+
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class SqrlTokenBucketTableTest {
+	private static final long ONE_SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	@Test
+	public void testBurstThenReject() {
+		final SqrlTokenBucketTable table = new SqrlTokenBucketTable(64, 1, 3);
+		final long now = 1000;
+		assertTrue(table.tryAcquire(42, now));
+		assertTrue(table.tryAcquire(42, now));
+		assertTrue(table.tryAcquire(42, now));
+		assertFalse(table.tryAcquire(42, now));
+		// Other keys are unaffected
+		assertTrue(table.tryAcquire(43, now));
+	}
+
+	@Test
+	public void testRefill() {
+		final SqrlTokenBucketTable table = new SqrlTokenBucketTable(64, 1, 1);
+		final long now = 1000;
+		assertTrue(table.tryAcquire(42, now));
+		assertFalse(table.tryAcquire(42, now + (ONE_SECOND_NANOS / 2)));
+		assertTrue(table.tryAcquire(42, now + ONE_SECOND_NANOS + 1));
+	}
+
+	@Test
+	public void testNegativeAndMinValueKeys() {
+		final SqrlTokenBucketTable table = new SqrlTokenBucketTable(64, 1, 1);
+		assertTrue(table.tryAcquire(-1, 0));
+		assertFalse(table.tryAcquire(-1, 0));
+		assertTrue(table.tryAcquire(Integer.MIN_VALUE, 0));
+		assertFalse(table.tryAcquire(Integer.MIN_VALUE, 0));
+	}
+
+	@Test
+	public void testManyKeysReuseSlots() {
+		final SqrlTokenBucketTable table = new SqrlTokenBucketTable(16, 1, 1);
+		// Far more keys than slots, each new key must still get its burst once the older buckets have refilled
+		for (int i = 0; i < 100_000; i++) {
+			assertTrue(table.tryAcquire(i, i * ONE_SECOND_NANOS));
+		}
+	}
+
+	@Test
+	public void testFloodDoesNotResetBusyBucket() {
+		final SqrlTokenBucketTable table = new SqrlTokenBucketTable(16, 1, 1);
+		final int segment = SqrlTokenBucketTable.mix(42) & (SqrlTokenBucketTable.SEGMENT_COUNT - 1);
+		assertTrue(table.tryAcquire(42, 0));
+		// Flood the segment of key 42 with far more new keys than it has slots
+		int flooded = 0;
+		for (int key = 43; flooded < 100; key++) {
+			if ((SqrlTokenBucketTable.mix(key) & (SqrlTokenBucketTable.SEGMENT_COUNT - 1)) == segment) {
+				table.tryAcquire(key, 0);
+				flooded++;
+			}
+		}
+		// Key 42 must still be over its rate rather than getting a fresh burst
+		assertFalse(table.tryAcquire(42, 0));
+		assertTrue(table.tryAcquire(42, ONE_SECOND_NANOS + 1));
+	}
+
+	@Test
+	public void testFullSegmentRejectsNewKeyWithoutChargingOthers() {
+		final SqrlTokenBucketTable table = new SqrlTokenBucketTable(16, 1, 2);
+		final int segment = SqrlTokenBucketTable.mix(42) & (SqrlTokenBucketTable.SEGMENT_COUNT - 1);
+		// Leave every bucket in the segment of key 42 part used so none can be reused
+		final List<Integer> trackedKeys = new ArrayList<>();
+		int newKey = 42;
+		while (true) {
+			if ((SqrlTokenBucketTable.mix(newKey) & (SqrlTokenBucketTable.SEGMENT_COUNT - 1)) == segment) {
+				if (!table.tryAcquire(newKey, 0)) {
+					// Wasn't given a bucket, the segment is full
+					break;
+				}
+				trackedKeys.add(newKey);
+			}
+			newKey++;
+		}
+		assertFalse(table.tryAcquire(newKey, 0));
+		// Each tracked key still has the one token it left itself
+		for (final Integer trackedKey : trackedKeys) {
+			assertTrue(table.tryAcquire(trackedKey, 0));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidBurst() {
+		new SqrlTokenBucketTable(16, 1, 0);
+	}
+}